@@ -0,0 +1,108 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Measures the operations Resteasy and our filters perform on the headers
+ * of every response, through {@link NettyHeaderWrapper} and through the
+ * original implementation it replaced ({@link BaselineNettyHeaderWrapper}).
+ * Most of the difference is in allocation, so run it with the GC profiler
+ * (<code>-prof gc</code>, the default in the <code>jmh</code> profile) and
+ * compare <code>gc.alloc.rate.norm</code>, the bytes allocated per call.
+ *
+ * @author ed.peters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NettyHeadersBenchmark {
+
+    @Param({"baseline", "view"})
+    private String implementation;
+
+    private MultivaluedMap<String,Object> headers;
+
+    @Setup
+    public void setUp() {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.headers().add("Content-Type", "application/json");
+        response.headers().add("Content-Length", "1234");
+        response.headers().add("Date", "Tue, 14 Oct 2014 20:15:37 GMT");
+        response.headers().add("Cache-Control", "max-age=60");
+        response.headers().add("ETag", "\"0123456789abcdef\"");
+        response.headers().add("Vary", "Accept");
+        response.headers().add("Vary", "Accept-Encoding");
+        response.headers().add("Set-Cookie", "session=0123456789abcdef");
+        response.headers().add("Set-Cookie", "locale=en-US");
+        response.headers().add("X-Request-Id", "42");
+        this.headers = "baseline".equals(this.implementation)
+                ? new BaselineNettyHeaderWrapper(response)
+                : new NettyHeaderWrapper(response);
+    }
+
+    @Benchmark
+    public int size() {
+        return this.headers.size();
+    }
+
+    @Benchmark
+    public boolean isEmpty() {
+        return this.headers.isEmpty();
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return this.headers.containsKey("content-encoding");
+    }
+
+    @Benchmark
+    public Object getFirst() {
+        return this.headers.getFirst("content-type");
+    }
+
+    @Benchmark
+    public List<Object> get() {
+        return this.headers.get("vary");
+    }
+
+    @Benchmark
+    public int iterateKeys() {
+        int length = 0;
+        for (String name : this.headers.keySet()) {
+            length += name.length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int iterateEntries() {
+        int count = 0;
+        for (Map.Entry<String,List<Object>> entry : this.headers.entrySet()) {
+            count += entry.getValue().size();
+        }
+        return count;
+    }
+}
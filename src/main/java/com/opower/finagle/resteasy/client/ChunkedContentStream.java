@@ -0,0 +1,178 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.twitter.io.Buf;
+import com.twitter.io.Reader;
+import com.twitter.util.Await;
+import com.twitter.util.Duration;
+import com.twitter.util.Future;
+import com.twitter.util.TimeoutException;
+import scala.Option;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream over the content of a streamed (chunked) response, which
+ * hands out each chunk as soon as it arrives instead of waiting for the
+ * whole response.  Reads block until the next chunk is in, so this must
+ * never be read from a Netty I/O thread.
+ *
+ * Parsers usually stop reading before the end of the content (which is
+ * marked by an empty chunk), so closing the stream waits a little for the
+ * end, to keep the connection.  If there's more content than that, the
+ * rest is discarded, which aborts the transfer (and gives up the
+ * connection).  Until then, the connection belongs to the response, so a
+ * streamed response that isn't read to the end must be closed.
+ *
+ * @author ed.peters
+ */
+class ChunkedContentStream extends InputStream {
+
+    /**
+     * Most content that closing the stream skips, rather than discarding
+     */
+    static final int MAX_SKIPPED_BYTES = 8192;
+
+    /**
+     * Longest that closing the stream waits for each chunk it skips
+     */
+    static final Duration SKIP_TIMEOUT = Duration.fromMilliseconds(100);
+
+    private final Reader reader;
+    private byte[] chunk;
+    private int position;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param reader the chunks of the content, e.g. the
+     *               {@link com.twitter.finagle.http.Response#reader()} of
+     *               a chunked response
+     */
+    ChunkedContentStream(Reader reader) {
+        this.reader = Preconditions.checkNotNull(reader, "reader");
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return this.chunk[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, this.chunk.length - this.position);
+        System.arraycopy(this.chunk, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    /**
+     * @return the unread bytes of the chunk that's already in
+     */
+    @Override
+    public int available() {
+        return this.chunk == null ? 0 : this.chunk.length - this.position;
+    }
+
+    /**
+     * Skips to the end of the content if it's close, and discards the
+     * rest of the content otherwise
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.chunk = null;
+        if (!this.finished) {
+            discardRest();
+        }
+    }
+
+    /*
+     * Waits for the next chunk, if the current one has been read
+     * @return false at the end of the content
+     */
+    private boolean fill() throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        while (!this.finished && available() == 0) {
+            Option<Buf> next;
+            try {
+                next = this.reader.read(Integer.MAX_VALUE).get();
+            }
+            catch (Exception e) {
+                throw new IOException("error reading streamed content", e);
+            }
+            if (next.isEmpty()) {
+                this.finished = true;
+                this.chunk = null;
+            }
+            else {
+                Buf buf = next.get();
+                this.chunk = new byte[buf.length()];
+                buf.write(this.chunk, 0);
+                this.position = 0;
+            }
+        }
+        return !this.finished;
+    }
+
+    /*
+     * Skips chunks until the end of the content, for as long as they keep
+     * coming and there aren't too many of them, then discards the content
+     * while a read is waiting for more.  Discarding while a chunk is
+     * waiting to be taken instead fails that chunk's write twice over,
+     * which Finagle's client dispatcher doesn't survive: it never closes
+     * the connection, and the rest of the content keeps coming.
+     */
+    private void discardRest() {
+        int skipped = 0;
+        while (true) {
+            Future<Option<Buf>> next = this.reader.read(Integer.MAX_VALUE);
+            if (!next.isDefined()
+                    && (skipped > MAX_SKIPPED_BYTES || !arrives(next))) {
+                this.reader.discard();
+                return;
+            }
+            Option<Buf> taken;
+            try {
+                taken = next.get();
+            }
+            catch (Exception e) {
+                // the transfer failed anyway
+                return;
+            }
+            if (taken.isEmpty()) {
+                return;
+            }
+            skipped += taken.get().length();
+        }
+    }
+
+    private static boolean arrives(Future<Option<Buf>> read) {
+        try {
+            Await.ready(read, SKIP_TIMEOUT);
+            return true;
+        }
+        catch (TimeoutException e) {
+            return false;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.opower.finagle.resteasy.client;
+
+import com.twitter.finagle.Service;
+import com.twitter.finagle.http.Request;
+import com.twitter.finagle.netty3.ChannelBufferBuf;
+import com.twitter.util.Future;
+import com.twitter.util.FutureEventListener;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+
+/**
+ * Output stream for a request entity that buffers until the entity
+ * outgrows a threshold, then dispatches the request with chunked transfer
+ * encoding and sends the rest as chunks while the entity is still being
+ * written.  Small requests still go out in one piece, with a
+ * Content-Length.
+ *
+ * Dispatching hands Finagle a {@link Request}, whose body Finagle's HTTP
+ * client reads chunk by chunk.  Each write waits for the previous chunk to
+ * be taken by the transport, so a slow connection slows the writer down
+ * instead of piling data up in memory.  Because of that, this must never
+ * be written from a Netty I/O thread.  Headers set after the request is
+ * dispatched are lost.
+ *
+ * @author ed.peters
+ */
+class ChunkedRequestStream extends OutputStream {
+
+    private final HttpRequest nettyRequest;
+    private final Service<HttpRequest,HttpResponse> service;
+    private final int chunkSize;
+    private final int sizeHint;
+    private ChannelBuffer buffer;
+    private Request streamed;
+    private Future<HttpResponse> response;
+    private boolean closed;
+
+    /**
+     * @param nettyRequest the request whose entity is being written
+     * @param service the Finagle client to dispatch the request to
+     * @param chunkSize streaming threshold, and size of each chunk
+     * @param sizeHint expected size of the entity
+     */
+    ChunkedRequestStream(HttpRequest nettyRequest,
+                         Service<HttpRequest,HttpResponse> service,
+                         int chunkSize,
+                         int sizeHint) {
+        this.nettyRequest = nettyRequest;
+        this.service = service;
+        this.chunkSize = chunkSize;
+        this.sizeHint = sizeHint;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().writeByte(b);
+        maybeSend();
+    }
+
+    /**
+     * Splits large writes at chunk boundaries, so chunk buffers never grow
+     * past the chunk size
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ChannelBuffer target = buffer();
+            int count = Math.min(remaining,
+                    Math.max(1, this.chunkSize - target.readableBytes()));
+            target.writeBytes(b, offset, count);
+            offset += count;
+            remaining -= count;
+            maybeSend();
+        }
+    }
+
+    /**
+     * Sends whatever has been written so far, but only once the request
+     * is dispatched: entity writers flush when they finish, and we don't
+     * want that to turn every request into a chunked one.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.streamed != null
+                && this.buffer != null
+                && this.buffer.readable()) {
+            send();
+        }
+    }
+
+    /**
+     * Same as {@link #flush()}; the request is finished by
+     * {@link #finish()}, once the entity writer has returned
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Dispatches the request in one piece, if it hasn't been dispatched
+     * yet; otherwise sends the last chunk and waits for the transport to
+     * take it
+     * @return the response
+     * @throws IOException if the entity couldn't be sent
+     */
+    Future<HttpResponse> finish() throws IOException {
+        if (this.streamed == null) {
+            ChannelBuffer content = this.buffer == null
+                    ? ChannelBuffers.EMPTY_BUFFER
+                    : this.buffer;
+            this.nettyRequest.setContent(content);
+            this.nettyRequest.setHeader(CONTENT_LENGTH,
+                    Integer.toString(content.readableBytes()));
+            return this.service.apply(this.nettyRequest);
+        }
+        if (!this.closed) {
+            flush();
+            this.closed = true;
+            try {
+                this.streamed.close().get();
+            }
+            catch (Exception e) {
+                throw new IOException("error finishing streamed request", e);
+            }
+        }
+        return this.response;
+    }
+
+    /**
+     * Cuts off a streaming request whose entity couldn't be written, and
+     * gives up on its response
+     */
+    void abort(Throwable cause) {
+        if (this.streamed != null && !this.closed) {
+            this.closed = true;
+            this.streamed.writer().fail(cause);
+            this.response.raise(cause);
+        }
+    }
+
+    /*
+     * Allocates a buffer on the first write after a chunk was sent (or
+     * the first write of all)
+     */
+    private ChannelBuffer buffer() {
+        if (this.buffer == null) {
+            this.buffer = ChannelBuffers.dynamicBuffer(this.streamed == null
+                    ? Math.max(1, Math.min(this.sizeHint, this.chunkSize))
+                    : this.chunkSize);
+        }
+        return this.buffer;
+    }
+
+    private void maybeSend() throws IOException {
+        if (this.buffer.readableBytes() < this.chunkSize) {
+            return;
+        }
+        if (this.streamed == null) {
+            commit();
+        }
+        send();
+    }
+
+    private void commit() {
+        this.nettyRequest.removeHeader(CONTENT_LENGTH);
+        this.nettyRequest.setChunked(true);
+        this.nettyRequest.setContent(ChannelBuffers.EMPTY_BUFFER);
+        final Request request = Request.apply(this.nettyRequest);
+        this.streamed = request;
+        this.response = this.service.apply(request);
+        // if the call fails (e.g. the connection is refused), nothing will
+        // read the rest of the entity, so stop waiting for it to be taken
+        this.response.addEventListener(new FutureEventListener<HttpResponse>() {
+            @Override
+            public void onSuccess(HttpResponse value) {
+                // the transport reads the rest of the entity anyway
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                request.writer().fail(cause);
+            }
+        });
+    }
+
+    /*
+     * Hands the buffered bytes to the transport and waits until they've
+     * been taken.  The transport may still be writing them afterwards, so
+     * we start over with a fresh buffer rather than reusing the old one.
+     */
+    private void send() throws IOException {
+        if (this.closed) {
+            throw new IOException("request already finished");
+        }
+        ChannelBuffer chunk = this.buffer;
+        this.buffer = null;
+        try {
+            this.streamed.writer().write(new ChannelBufferBuf(chunk)).get();
+        }
+        catch (Exception e) {
+            this.closed = true;
+            throw new IOException("error streaming request", e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import com.twitter.util.FutureEventListener;
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.internal.AbortedResponse;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocationBuilder;
+import org.jboss.resteasy.client.jaxrs.internal.ClientRequestContextImpl;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponse;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponseContextImpl;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.jboss.resteasy.util.Types;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.ResponseProcessingException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Providers;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * {@link AsyncInvoker} for clients built on a
+ * {@link FinagleClientHttpEngine} that doesn't tie up a thread while the
+ * request is in flight: filters run and the entity is serialized on the
+ * calling thread, and the response is filtered and read in the Finagle
+ * callback, which completes the returned future (and calls the
+ * {@link InvocationCallback}, if any).  Use it in place of
+ * <code>Invocation.Builder.async()</code>:
+ *
+ * <pre>
+ * Future&lt;Model&gt; model = new FinagleAsyncInvoker(
+ *         client.target(uri).request()).get(Model.class);
+ * </pre>
+ *
+ * {@link #submit} returns a Finagle {@link Future}, for composing with
+ * other Finagle calls.
+ *
+ * @author ed.peters
+ */
+public class FinagleAsyncInvoker implements AsyncInvoker {
+
+    private final ClientInvocation invocation;
+    private final FinagleClientHttpEngine engine;
+
+    /**
+     * @param builder a request builder from a client whose engine is a
+     *                {@link FinagleClientHttpEngine}
+     */
+    public FinagleAsyncInvoker(Invocation.Builder builder) {
+        Preconditions.checkArgument(builder instanceof ClientInvocationBuilder,
+                "not a Resteasy request builder");
+        this.invocation = ((ClientInvocationBuilder) builder).getInvocation();
+        ClientHttpEngine clientEngine = this.invocation.getClient().httpEngine();
+        Preconditions.checkArgument(
+                clientEngine instanceof FinagleClientHttpEngine,
+                "client doesn't send requests through Finagle");
+        this.engine = (FinagleClientHttpEngine) clientEngine;
+    }
+
+    /**
+     * Sends the request without waiting for the response
+     * @param name the HTTP method
+     * @param entity the request entity (may be null)
+     * @param responseType the result type ({@link Response} for the raw
+     *                     response)
+     * @return the result, which fails like the synchronous invocation would
+     * throw (e.g. with a {@link javax.ws.rs.NotFoundException})
+     */
+    public <T> Future<T> submit(String name,
+                                Entity<?> entity,
+                                final GenericType<T> responseType) {
+        this.invocation.setMethod(name);
+        this.invocation.setEntity(entity);
+        final ClientRequestContextImpl requestContext =
+                new ClientRequestContextImpl(this.invocation);
+        Future<ClientResponse> response = null;
+        pushProviders();
+        try {
+            ClientResponse aborted = filterRequest(requestContext);
+            response = aborted == null
+                    ? this.engine.submit(this.invocation)
+                    : Future.value(aborted);
+        }
+        catch (RuntimeException e) {
+            return Future.exception(e);
+        }
+        finally {
+            ResteasyProviderFactory.removeContextDataLevel();
+        }
+        return response.map(new Function<ClientResponse,T>() {
+            @Override
+            public T apply(ClientResponse clientResponse) {
+                return receive(requestContext, clientResponse, responseType);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #submit(String, Entity, GenericType)}, with the
+     * callback told of the result
+     */
+    public <T> Future<T> submit(String name,
+                                Entity<?> entity,
+                                final InvocationCallback<T> callback) {
+        Type[] types = Types.getActualTypeArgumentsOfAnInterface(
+                callback.getClass(), InvocationCallback.class);
+        GenericType<T> responseType = new GenericType<T>(
+                types == null ? Object.class : types[0]);
+        Future<T> result = submit(name, entity, responseType);
+        result.addEventListener(new FutureEventListener<T>() {
+            @Override
+            public void onSuccess(T value) {
+                try {
+                    callback.completed(value);
+                }
+                finally {
+                    if (value instanceof Response) {
+                        ((Response) value).close();
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                callback.failed(cause);
+            }
+        });
+        return result;
+    }
+
+    /*
+     * Runs the request filters as ClientInvocation.invoke() does, returning
+     * the response a filter aborted with, if any
+     */
+    private ClientResponse filterRequest(ClientRequestContextImpl requestContext) {
+        ClientRequestFilter[] filters = this.invocation.getRequestFilters();
+        if (filters == null) {
+            return null;
+        }
+        for (ClientRequestFilter filter : filters) {
+            try {
+                filter.filter(requestContext);
+            }
+            catch (IOException e) {
+                throw new ProcessingException(e);
+            }
+            if (requestContext.getAbortedWithResponse() != null) {
+                return new AbortedResponse(
+                        this.invocation.getClientConfiguration(),
+                        requestContext.getAbortedWithResponse());
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Runs the response filters and reads the result as
+     * ClientInvocation.invoke() does (we're on a Finagle thread)
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T receive(ClientRequestContextImpl requestContext,
+                          ClientResponse response,
+                          GenericType<T> responseType) {
+        pushProviders();
+        try {
+            response.setProperties(
+                    this.invocation.getClientConfiguration().getMutableProperties());
+            ClientResponseFilter[] filters = this.invocation.getResponseFilters();
+            if (filters != null && filters.length > 0) {
+                ClientResponseContextImpl responseContext =
+                        new ClientResponseContextImpl(response);
+                for (ClientResponseFilter filter : filters) {
+                    try {
+                        filter.filter(requestContext, responseContext);
+                    }
+                    catch (IOException e) {
+                        throw new ResponseProcessingException(response, e);
+                    }
+                }
+            }
+            if (Response.class.equals(responseType.getRawType())) {
+                return (T) response;
+            }
+            return ClientInvocation.extractResult(responseType, response, null);
+        }
+        finally {
+            ResteasyProviderFactory.removeContextDataLevel();
+        }
+    }
+
+    private void pushProviders() {
+        ResteasyProviderFactory.addContextDataLevel();
+        ResteasyProviderFactory.pushContext(Providers.class,
+                this.invocation.getClientConfiguration());
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> get() {
+        return method(HttpMethod.GET);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> get(Class<T> responseType) {
+        return method(HttpMethod.GET, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> get(GenericType<T> responseType) {
+        return method(HttpMethod.GET, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> get(InvocationCallback<T> callback) {
+        return method(HttpMethod.GET, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> put(Entity<?> entity) {
+        return method(HttpMethod.PUT, entity);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> put(Entity<?> entity,
+                                                  Class<T> responseType) {
+        return method(HttpMethod.PUT, entity, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> put(Entity<?> entity,
+                                                  GenericType<T> responseType) {
+        return method(HttpMethod.PUT, entity, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> put(Entity<?> entity,
+                                                  InvocationCallback<T> callback) {
+        return method(HttpMethod.PUT, entity, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> post(Entity<?> entity) {
+        return method(HttpMethod.POST, entity);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> post(Entity<?> entity,
+                                                   Class<T> responseType) {
+        return method(HttpMethod.POST, entity, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> post(Entity<?> entity,
+                                                   GenericType<T> responseType) {
+        return method(HttpMethod.POST, entity, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> post(Entity<?> entity,
+                                                   InvocationCallback<T> callback) {
+        return method(HttpMethod.POST, entity, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> delete() {
+        return method(HttpMethod.DELETE);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> delete(Class<T> responseType) {
+        return method(HttpMethod.DELETE, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> delete(GenericType<T> responseType) {
+        return method(HttpMethod.DELETE, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> delete(
+            InvocationCallback<T> callback) {
+        return method(HttpMethod.DELETE, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> head() {
+        return method(HttpMethod.HEAD);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> head(
+            InvocationCallback<Response> callback) {
+        return method(HttpMethod.HEAD, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> options() {
+        return method(HttpMethod.OPTIONS);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> options(Class<T> responseType) {
+        return method(HttpMethod.OPTIONS, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> options(
+            GenericType<T> responseType) {
+        return method(HttpMethod.OPTIONS, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> options(
+            InvocationCallback<T> callback) {
+        return method(HttpMethod.OPTIONS, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> trace() {
+        return method("TRACE");
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> trace(Class<T> responseType) {
+        return method("TRACE", responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> trace(GenericType<T> responseType) {
+        return method("TRACE", responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> trace(InvocationCallback<T> callback) {
+        return method("TRACE", callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> method(String name) {
+        return method(name, Response.class);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(String name,
+                                                     Class<T> responseType) {
+        return method(name, null, new GenericType<T>(responseType));
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(String name,
+                                                     GenericType<T> responseType) {
+        return method(name, null, responseType);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(
+            String name, InvocationCallback<T> callback) {
+        return method(name, null, callback);
+    }
+
+    @Override
+    public java.util.concurrent.Future<Response> method(String name,
+                                                        Entity<?> entity) {
+        return method(name, entity, Response.class);
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(String name,
+                                                     Entity<?> entity,
+                                                     Class<T> responseType) {
+        return method(name, entity, new GenericType<T>(responseType));
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(
+            String name, Entity<?> entity, GenericType<T> responseType) {
+        return new JavaFuture<T>(submit(name, entity, responseType));
+    }
+
+    @Override
+    public <T> java.util.concurrent.Future<T> method(
+            String name, Entity<?> entity, InvocationCallback<T> callback) {
+        return new JavaFuture<T>(submit(name, entity, callback));
+    }
+}
@@ -1,8 +1,21 @@
 package com.opower.finagle.resteasy.client;
 
+import com.google.common.base.Preconditions;
+import com.opower.finagle.resteasy.util.ContentCoding;
+import com.opower.finagle.resteasy.util.JacksonChannelBufferProvider;
+import com.opower.finagle.resteasy.util.RequestDeadline;
+import com.opower.finagle.resteasy.util.ServiceUtils;
 import com.twitter.finagle.Service;
+import com.twitter.finagle.http.Response;
+import com.twitter.io.Buf;
+import com.twitter.io.Reader$;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.resteasy.client.ClientExecutor;
@@ -11,15 +24,31 @@ import org.jboss.resteasy.client.ClientResponse;
 import org.jboss.resteasy.specimpl.ResteasyUriBuilder;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ACCEPT;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
 
 /**
  * Implementation of Resteasy {@link org.jboss.resteasy.client.ClientExecutor}
  * interface on top of a Finagle {@link com.twitter.finagle.Service}.  This
  * allows us to make outbound calls using a Resteasy proxy.
  *
- * TODO is there any benefit to delaying the call to Future.get?
- * TODO can we be more efficent about the conversion of ChannelBuffers to bytes and back?
+ * Compressed (gzip or deflate) responses are decompressed before Resteasy
+ * sees them, and by default requests say that they're accepted.
+ *
+ * Request entities can be streamed rather than serialized up front (see
+ * {@link #setStreamingThreshold}).  So can response entities, if the
+ * Finagle client streams them (see {@link InboundClientResponse}).
+ *
+ * Requests with the {@link #DEFERRED_ATTRIBUTE} attribute set don't wait
+ * for the response: they get a {@link FutureClientResponse} right away
+ * (see {@link FutureEntityExtractorFactory}).
  *
  * @author ed.peters
  */
@@ -28,14 +57,75 @@ public class FinagleBasedClientExecutor implements ClientExecutor {
     private static final Log LOG =
             LogFactory.getLog(FinagleBasedClientExecutor.class);
 
+    /**
+     * Request attribute that asks for a {@link FutureClientResponse}
+     * instead of waiting for the response
+     */
+    public static final String DEFERRED_ATTRIBUTE =
+            FinagleBasedClientExecutor.class.getName() + ".deferred";
+
     private final ResteasyProviderFactory providerFactory;
     private final Service<HttpRequest,HttpResponse> finagleService;
+    private volatile MediaType preferredMediaType;
+    private volatile boolean acceptCompressed;
+    private volatile int streamingThreshold;
 
     public FinagleBasedClientExecutor(
             ResteasyProviderFactory providerFactory,
             Service<HttpRequest, HttpResponse> finagleService) {
         this.providerFactory = providerFactory;
         this.finagleService = finagleService;
+        this.acceptCompressed = true;
+    }
+
+    /**
+     * @param accept true to send <code>Accept-Encoding: gzip, deflate</code>
+     *               with requests that don't have an Accept-Encoding header
+     *               (the default)
+     */
+    public void setAcceptCompressed(boolean accept) {
+        this.acceptCompressed = accept;
+    }
+
+    public boolean isAcceptCompressed() {
+        return this.acceptCompressed;
+    }
+
+    /**
+     * Asks for responses in the supplied media type (e.g.
+     * {@link com.opower.finagle.resteasy.util.SmileChannelBufferProvider#APPLICATION_SMILE_TYPE})
+     * wherever JSON is acceptable, ahead of JSON itself.  Servers that
+     * can't produce it still answer with JSON.
+     * @param mediaType the preferred media type, or null to send Accept
+     *                  headers as they are (the default)
+     */
+    public void setPreferredMediaType(MediaType mediaType) {
+        this.preferredMediaType = mediaType;
+    }
+
+    public MediaType getPreferredMediaType() {
+        return this.preferredMediaType;
+    }
+
+    /**
+     * Sends request entities that outgrow the supplied size with chunked
+     * transfer encoding, a chunk at a time as they're written, so uploads
+     * of any size take a constant amount of memory.  Each chunk waits for
+     * the transport to take the previous one.  Smaller entities are sent
+     * in one piece, as usual.  The Finagle client has to send chunked
+     * requests as such (see {@link StreamingHttpCodec}).
+     * @param thresholdBytes entity size at which streaming starts (also the
+     *                       chunk size), or 0 to always send the entity in
+     *                       one piece (the default)
+     */
+    public void setStreamingThreshold(int thresholdBytes) {
+        Preconditions.checkArgument(thresholdBytes >= 0,
+                "invalid thresholdBytes " + thresholdBytes);
+        this.streamingThreshold = thresholdBytes;
+    }
+
+    public int getStreamingThreshold() {
+        return this.streamingThreshold;
     }
 
     @Override
@@ -52,7 +142,27 @@ public class FinagleBasedClientExecutor implements ClientExecutor {
     @Override
     public ClientResponse execute(ClientRequest resteasyRequest)
             throws Exception {
+        Future<HttpResponse> future = send(resteasyRequest);
+        if (Boolean.TRUE.equals(
+                resteasyRequest.getAttributes().get(DEFERRED_ATTRIBUTE))) {
+            return new FutureClientResponse(aggregate(future), this);
+        }
 
+        HttpResponse nettyResponse = null;
+        try {
+            nettyResponse = future.get();
+        }
+        catch (Exception e) {
+            throw new RuntimeException("error invoking Finagle service", e);
+        }
+        return receive(nettyResponse);
+    }
+
+    /*
+     * Converts the request to Netty and hands it to Finagle
+     */
+    private Future<HttpResponse> send(ClientRequest resteasyRequest)
+            throws Exception {
         if (LOG.isDebugEnabled()) {
             LOG.debug("outbound "
                     + resteasyRequest.getHttpMethod() + " "
@@ -62,23 +172,84 @@ public class FinagleBasedClientExecutor implements ClientExecutor {
             }
         }
 
-        HttpRequest nettyRequest = null;
+        int threshold = this.streamingThreshold;
+        boolean streaming = threshold > 0 && resteasyRequest.getBody() != null;
+        OutboundClientRequest nettyRequest = null;
         try {
-            nettyRequest = new OutboundClientRequest(resteasyRequest);
+            nettyRequest = new OutboundClientRequest(resteasyRequest, !streaming);
         }
         catch (Exception e) {
             throw new RuntimeException(
                     "error converting outbound request (Resteasy --> Netty)", e);
         }
 
-        HttpResponse nettyResponse = null;
+        addDefaultHeaders(nettyRequest, this.preferredMediaType,
+                this.acceptCompressed);
+        return streaming
+                ? stream(resteasyRequest, nettyRequest, threshold)
+                : this.finagleService.apply(nettyRequest);
+    }
+
+    /*
+     * Writes the entity on this thread, dispatching the request once it
+     * outgrows the threshold
+     */
+    private Future<HttpResponse> stream(ClientRequest resteasyRequest,
+                                        OutboundClientRequest nettyRequest,
+                                        int threshold) throws IOException {
+        ChunkedRequestStream stream = new ChunkedRequestStream(nettyRequest,
+                this.finagleService, threshold,
+                OutboundClientRequest.estimateSize(resteasyRequest.getBody()));
         try {
-            nettyResponse = this.finagleService.apply(nettyRequest).get();
+            nettyRequest.writeBody(resteasyRequest, stream);
+            return stream.finish();
         }
-        catch (Exception e) {
-            throw new RuntimeException("error invoking Finagle service", e);
+        catch (IOException e) {
+            stream.abort(e);
+            throw e;
         }
+        catch (RuntimeException e) {
+            stream.abort(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds what every outbound request gets: the deadline of the request
+     * we're serving (if any), the preferred media type and the accepted
+     * content codings
+     * @param nettyRequest an outbound request
+     * @param preferred the preferred media type (may be null)
+     * @param acceptCompressed true to accept compressed responses
+     */
+    static void addDefaultHeaders(HttpRequest nettyRequest,
+                                  MediaType preferred,
+                                  boolean acceptCompressed) {
+        // pass along the deadline of the request we're serving, if any, in
+        // the header it came in
+        RequestDeadline deadline = RequestDeadline.current();
+        if (deadline != null
+                && !nettyRequest.containsHeader(deadline.getHeader())) {
+            nettyRequest.setHeader(deadline.getHeader(), deadline.toString());
+        }
+
+        String accept = nettyRequest.getHeader(ACCEPT);
+        if (preferred != null && acceptsJson(accept)) {
+            nettyRequest.setHeader(ACCEPT, preferred + ", " + accept);
+        }
+
+        if (acceptCompressed && !nettyRequest.containsHeader(ACCEPT_ENCODING)) {
+            nettyRequest.setHeader(ACCEPT_ENCODING, ContentCoding.GZIP.getToken()
+                    + ", " + ContentCoding.DEFLATE.getToken());
+        }
+    }
 
+    /**
+     * Converts a response from Netty
+     * @param nettyResponse the response from the Finagle service
+     * @return the Resteasy response
+     */
+    InboundClientResponse<?> receive(HttpResponse nettyResponse) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("inbound " + nettyResponse.getStatus());
             for (String name : nettyResponse.getHeaderNames()) {
@@ -86,9 +257,10 @@ public class FinagleBasedClientExecutor implements ClientExecutor {
             }
         }
 
-        ClientResponse response = null;
+        InboundClientResponse<?> response = null;
         try {
-            response = new InboundClientResponse(nettyResponse,
+            decodeContent(nettyResponse);
+            response = new InboundClientResponse<Object>(nettyResponse,
                     this.providerFactory);
         }
         catch (Exception e) {
@@ -99,6 +271,84 @@ public class FinagleBasedClientExecutor implements ClientExecutor {
         return response;
     }
 
+    /**
+     * Replaces compressed content with the original, as if it had been
+     * sent uncompressed.  Streamed content isn't here yet, so it's left
+     * to be decoded as it's read.
+     * @param nettyResponse an inbound response
+     * @throws IOException if the content can't be decoded
+     */
+    static void decodeContent(HttpResponse nettyResponse)
+            throws IOException {
+        String encoding = nettyResponse.getHeader(CONTENT_ENCODING);
+        ContentCoding coding = encoding == null
+                ? null
+                : ContentCoding.forToken(encoding);
+        if (coding == null
+                || InboundClientResponse.ResponseStreamFactory.isStreamed(
+                        nettyResponse)) {
+            return;
+        }
+        ChannelBuffer content = coding.decode(nettyResponse.getContent());
+        nettyResponse.setContent(content);
+        nettyResponse.removeHeader(CONTENT_ENCODING);
+        nettyResponse.setHeader(CONTENT_LENGTH, content.readableBytes());
+    }
+
+    /**
+     * Collects the content of streamed responses as it arrives, without
+     * blocking, so that the response can be read on the thread that
+     * completes the Finagle call (waiting for more content on that thread
+     * would keep it from ever arriving)
+     * @param response the response from the Finagle service
+     * @return the response, with all of its content
+     */
+    static Future<HttpResponse> aggregate(Future<HttpResponse> response) {
+        return response.flatMap(
+                new Function<HttpResponse,Future<HttpResponse>>() {
+                    @Override
+                    public Future<HttpResponse> apply(HttpResponse nettyResponse) {
+                        return aggregate(nettyResponse);
+                    }
+                });
+    }
+
+    private static Future<HttpResponse> aggregate(
+            final HttpResponse nettyResponse) {
+        if (!InboundClientResponse.ResponseStreamFactory.isStreamed(
+                nettyResponse)) {
+            return Future.value(nettyResponse);
+        }
+        Future<Buf> content =
+                Reader$.MODULE$.readAll(((Response) nettyResponse).reader());
+        return content.map(new Function<Buf,HttpResponse>() {
+            @Override
+            public HttpResponse apply(Buf buf) {
+                byte[] bytes = new byte[buf.length()];
+                buf.write(bytes, 0);
+                HttpResponse whole = new DefaultHttpResponse(
+                        nettyResponse.getProtocolVersion(),
+                        nettyResponse.getStatus());
+                whole.headers().set(nettyResponse.headers());
+                whole.removeHeader(TRANSFER_ENCODING);
+                whole.setContent(ChannelBuffers.wrappedBuffer(bytes));
+                whole.setHeader(CONTENT_LENGTH, bytes.length);
+                return whole;
+            }
+        });
+    }
+
+    private static boolean acceptsJson(String accept) {
+        for (String value : ServiceUtils.SPLIT_HEADER_VALUES.apply(accept)) {
+            MediaType type = ServiceUtils.TO_MEDIA_TYPE.apply(value.trim());
+            if (!type.isWildcardSubtype()
+                    && JacksonChannelBufferProvider.isJson(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void close() throws Exception {
         // Nothing to do here
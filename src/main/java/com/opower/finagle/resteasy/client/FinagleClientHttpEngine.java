@@ -0,0 +1,272 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.opower.finagle.resteasy.util.ServiceUtils;
+import com.twitter.finagle.Service;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.internal.ClientConfiguration;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponse;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+
+/**
+ * Implementation of the Resteasy (JAX-RS 2.0 client API)
+ * {@link ClientHttpEngine} interface on top of a Finagle
+ * {@link com.twitter.finagle.Service}, so that a
+ * {@link javax.ws.rs.client.Client} and its
+ * {@link javax.ws.rs.client.WebTarget}s send their requests through
+ * Finagle.  Request headers are treated as they are by
+ * {@link FinagleBasedClientExecutor}.
+ *
+ * Resteasy's own {@link javax.ws.rs.client.AsyncInvoker} waits for the
+ * response on one of the client's threads; {@link FinagleAsyncInvoker}
+ * completes from the Finagle callback instead.
+ *
+ * Streamed responses (see {@link StreamingHttpCodec}) are read as they
+ * arrive by synchronous invocations, and collected first by asynchronous
+ * ones.
+ *
+ * SSL is up to the Finagle client, so there's no SSL context or hostname
+ * verifier here.
+ *
+ * @author ed.peters
+ */
+public class FinagleClientHttpEngine implements ClientHttpEngine {
+
+    private static final Log LOG =
+            LogFactory.getLog(FinagleClientHttpEngine.class);
+
+    private final Service<HttpRequest,HttpResponse> finagleService;
+    private volatile MediaType preferredMediaType;
+    private volatile boolean acceptCompressed;
+
+    public FinagleClientHttpEngine(
+            Service<HttpRequest,HttpResponse> finagleService) {
+        this.finagleService = Preconditions.checkNotNull(finagleService,
+                "finagleService");
+        this.acceptCompressed = true;
+    }
+
+    /**
+     * @param accept see {@link FinagleBasedClientExecutor#setAcceptCompressed}
+     */
+    public void setAcceptCompressed(boolean accept) {
+        this.acceptCompressed = accept;
+    }
+
+    public boolean isAcceptCompressed() {
+        return this.acceptCompressed;
+    }
+
+    /**
+     * @param mediaType see
+     *                  {@link FinagleBasedClientExecutor#setPreferredMediaType}
+     */
+    public void setPreferredMediaType(MediaType mediaType) {
+        this.preferredMediaType = mediaType;
+    }
+
+    public MediaType getPreferredMediaType() {
+        return this.preferredMediaType;
+    }
+
+    @Override
+    public SSLContext getSslContext() {
+        return null;
+    }
+
+    @Override
+    public HostnameVerifier getHostnameVerifier() {
+        return null;
+    }
+
+    @Override
+    public ClientResponse invoke(ClientInvocation request) {
+        Future<ClientResponse> future = receive(request, send(request));
+        try {
+            return future.get();
+        }
+        catch (ProcessingException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new ProcessingException("error invoking Finagle service", e);
+        }
+    }
+
+    /**
+     * Sends a request without waiting for the response.  The request's
+     * entity is serialized on the calling thread.  A streamed response is
+     * completed once all of its content is in, so that it can be read on
+     * the thread that completes it.
+     * @param request a request whose filters have already run
+     * @return the response
+     */
+    public Future<ClientResponse> submit(ClientInvocation request) {
+        return receive(request,
+                FinagleBasedClientExecutor.aggregate(send(request)));
+    }
+
+    /*
+     * Converts the request to Netty and hands it to Finagle
+     */
+    private Future<HttpResponse> send(ClientInvocation request) {
+        HttpRequest nettyRequest = null;
+        try {
+            nettyRequest = toNetty(request);
+        }
+        catch (Exception e) {
+            return Future.exception(new ProcessingException(
+                    "error converting outbound request (Resteasy --> Netty)", e));
+        }
+        FinagleBasedClientExecutor.addDefaultHeaders(nettyRequest,
+                this.preferredMediaType, this.acceptCompressed);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("outbound " + nettyRequest.getMethod() + " "
+                    + request.getUri());
+            for (String name : nettyRequest.getHeaderNames()) {
+                LOG.debug(name + ": " + nettyRequest.getHeaders(name));
+            }
+        }
+        return this.finagleService.apply(nettyRequest);
+    }
+
+    private static Future<ClientResponse> receive(
+            ClientInvocation request,
+            Future<HttpResponse> response) {
+        final ClientConfiguration configuration =
+                request.getClientConfiguration();
+        return response.map(
+                new Function<HttpResponse,ClientResponse>() {
+                    @Override
+                    public ClientResponse apply(HttpResponse nettyResponse) {
+                        return fromNetty(configuration, nettyResponse);
+                    }
+                });
+    }
+
+    /*
+     * Writes the entity (which may add headers) and then the headers
+     */
+    private static HttpRequest toNetty(ClientInvocation request)
+            throws IOException {
+        HttpRequest nettyRequest = new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1,
+                HttpMethod.valueOf(request.getMethod()),
+                pathAndQuery(request.getUri()));
+        if (request.getEntity() != null) {
+            ChannelBufferOutputStream out = new ChannelBufferOutputStream(
+                    ChannelBuffers.dynamicBuffer());
+            request.getDelegatingOutputStream().setDelegate(out);
+            request.writeRequestBody(request.getEntityStream());
+            nettyRequest.setContent(out.buffer());
+        }
+        for (Map.Entry<String,List<String>> header
+                : request.getHeaders().asMap().entrySet()) {
+            nettyRequest.setHeader(header.getKey(), header.getValue());
+        }
+        nettyRequest.setHeader(CONTENT_LENGTH,
+                nettyRequest.getContent().readableBytes());
+        return nettyRequest;
+    }
+
+    /*
+     * Since we're going to dispatch all our requests through Netty, we
+     * want relative URIs
+     */
+    private static String pathAndQuery(URI uri) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty()
+                ? "/"
+                : uri.getRawPath();
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    private static ClientResponse fromNetty(ClientConfiguration configuration,
+                                            HttpResponse nettyResponse) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("inbound " + nettyResponse.getStatus());
+            for (String name : nettyResponse.getHeaderNames()) {
+                LOG.debug(name + ": " + nettyResponse.getHeaders(name));
+            }
+        }
+        try {
+            FinagleBasedClientExecutor.decodeContent(nettyResponse);
+        }
+        catch (IOException e) {
+            throw new ProcessingException(
+                    "error converting inbound response (Netty --> Resteasy)", e);
+        }
+        return new InboundResponse(configuration, nettyResponse);
+    }
+
+    @Override
+    public void close() {
+        // the Finagle service belongs to whoever built it
+    }
+
+    /**
+     * Reads the content of a Netty response, the same way as
+     * {@link InboundClientResponse}
+     */
+    private static class InboundResponse extends ClientResponse {
+
+        private final InboundClientResponse.ResponseStreamFactory streams;
+        private InputStream stream;
+
+        InboundResponse(ClientConfiguration configuration,
+                        HttpResponse nettyResponse) {
+            super(configuration);
+            this.streams =
+                    new InboundClientResponse.ResponseStreamFactory(nettyResponse);
+            setStatus(nettyResponse.getStatus().getCode());
+            setHeaders((MultivaluedMap) ServiceUtils.toMultimap(nettyResponse));
+        }
+
+        @Override
+        protected InputStream getInputStream() {
+            if (this.stream == null) {
+                try {
+                    this.stream = this.streams.getInputStream();
+                }
+                catch (IOException e) {
+                    throw new ProcessingException(
+                            "error reading streamed response", e);
+                }
+            }
+            return this.stream;
+        }
+
+        @Override
+        protected void setInputStream(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        protected void releaseConnection() {
+            this.streams.performReleaseConnection();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.resteasy.client.core.BaseClientResponse;
+
+/**
+ * Stands in for a response that hasn't arrived yet, so that a Resteasy
+ * proxy method can return without waiting for it.  Resteasy fills in the
+ * usual details of the call (attributes, reader interceptors, method
+ * annotations) as it would for a real response; they're handed on to the
+ * real response when it arrives.
+ *
+ * @author ed.peters
+ * @param <T> object type of the response content
+ */
+public class FutureClientResponse<T> extends BaseClientResponse<T> {
+
+    private final Future<HttpResponse> nettyResponse;
+    private final FinagleBasedClientExecutor executor;
+
+    public FutureClientResponse(Future<HttpResponse> nettyResponse,
+                                FinagleBasedClientExecutor executor) {
+        super(null, executor);
+        this.nettyResponse = Preconditions.checkNotNull(nettyResponse,
+                "nettyResponse");
+        this.executor = Preconditions.checkNotNull(executor, "executor");
+    }
+
+    /**
+     * @return the real response, once it arrives (converted on the thread
+     * that completes the Finagle call)
+     */
+    public Future<BaseClientResponse<?>> getResponse() {
+        return this.nettyResponse.map(
+                new Function<HttpResponse,BaseClientResponse<?>>() {
+                    @Override
+                    public BaseClientResponse<?> apply(HttpResponse response) {
+                        return receive(response);
+                    }
+                });
+    }
+
+    private BaseClientResponse<?> receive(HttpResponse nettyResponse) {
+        InboundClientResponse<?> response = this.executor.receive(nettyResponse);
+        response.setAttributes(getAttributes());
+        response.setReaderInterceptors(this.readerInterceptors);
+        response.setAnnotations(getAnnotations());
+        response.setAttributeExceptionsTo(getAttributeExceptionsTo());
+        return response;
+    }
+}
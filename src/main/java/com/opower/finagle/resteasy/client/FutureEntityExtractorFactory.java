@@ -0,0 +1,148 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.jboss.resteasy.client.ClientResponseFailure;
+import org.jboss.resteasy.client.core.BaseClientResponse;
+import org.jboss.resteasy.client.core.extractors.ClientErrorHandler;
+import org.jboss.resteasy.client.core.extractors.ClientRequestContext;
+import org.jboss.resteasy.client.core.extractors.DefaultEntityExtractorFactory;
+import org.jboss.resteasy.client.core.extractors.EntityExtractor;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Providers;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Lets Resteasy proxy methods return a future instead of waiting for the
+ * response: either a {@link com.twitter.util.Future} or a
+ * {@link java.util.concurrent.Future}, parameterized with what the method
+ * would otherwise return (an entity type, {@link Void}, or
+ * {@link Response} for the raw response).  The entity is read in a
+ * callback when the response arrives, so no thread waits on the call.
+ *
+ * Requests for these methods must carry
+ * {@link FinagleBasedClientExecutor#DEFERRED_ATTRIBUTE}, so that the
+ * executor returns a {@link FutureClientResponse}; other methods are
+ * handled as usual.
+ *
+ * @author ed.peters
+ */
+public class FutureEntityExtractorFactory extends DefaultEntityExtractorFactory {
+
+    private final ResteasyProviderFactory providerFactory;
+
+    public FutureEntityExtractorFactory(ResteasyProviderFactory providerFactory) {
+        this.providerFactory = Preconditions.checkNotNull(providerFactory,
+                "providerFactory");
+    }
+
+    /**
+     * @param method a proxy interface method
+     * @return true if it returns a future
+     */
+    public static boolean isFuture(Method method) {
+        Class<?> type = method.getReturnType();
+        return type == Future.class || type == java.util.concurrent.Future.class;
+    }
+
+    @Override
+    public EntityExtractor createExtractor(Method method) {
+        return isFuture(method)
+                ? new FutureEntityExtractor(method)
+                : super.createExtractor(method);
+    }
+
+    /**
+     * Maps the future response to the future entity
+     */
+    private class FutureEntityExtractor implements EntityExtractor {
+
+        private final Class<?> entityClass;
+        private final Type entityType;
+        private final boolean javaFuture;
+
+        FutureEntityExtractor(Method method) {
+            Type returnType = method.getGenericReturnType();
+            Preconditions.checkArgument(
+                    returnType instanceof ParameterizedType,
+                    "no result type for " + method);
+            this.entityType =
+                    ((ParameterizedType) returnType).getActualTypeArguments()[0];
+            if (this.entityType instanceof Class) {
+                this.entityClass = (Class<?>) this.entityType;
+            }
+            else if (this.entityType instanceof ParameterizedType) {
+                this.entityClass = (Class<?>)
+                        ((ParameterizedType) this.entityType).getRawType();
+            }
+            else {
+                throw new IllegalArgumentException(
+                        "unsupported result type for " + method);
+            }
+            this.javaFuture = method.getReturnType() != Future.class;
+        }
+
+        @Override
+        public Object extractEntity(final ClientRequestContext context,
+                                    Object... args) {
+            if (!(context.getClientResponse() instanceof FutureClientResponse)) {
+                throw new IllegalStateException(
+                        "requests for futures must be deferred");
+            }
+            FutureClientResponse<?> pending =
+                    (FutureClientResponse<?>) context.getClientResponse();
+            Future<Object> entity = pending.getResponse().map(
+                    new Function<BaseClientResponse<?>,Object>() {
+                        @Override
+                        public Object apply(BaseClientResponse<?> response) {
+                            return extract(context.getErrorHandler(), response);
+                        }
+                    });
+            return this.javaFuture ? new JavaFuture<Object>(entity) : entity;
+        }
+
+        /*
+         * Does what Resteasy's own extractors do for the result type,
+         * with the providers in context (we're on a Finagle thread)
+         */
+        private Object extract(ClientErrorHandler errorHandler,
+                               BaseClientResponse<?> response) {
+            if (Response.class.isAssignableFrom(this.entityClass)) {
+                return response;
+            }
+            ResteasyProviderFactory.addContextDataLevel();
+            ResteasyProviderFactory.pushContext(Providers.class, providerFactory);
+            try {
+                try {
+                    response.checkFailureStatus();
+                }
+                catch (ClientResponseFailure e) {
+                    errorHandler.clientErrorHandling(
+                            (BaseClientResponse) e.getResponse(), e);
+                }
+                catch (RuntimeException e) {
+                    errorHandler.clientErrorHandling(response, e);
+                }
+                if (this.entityClass == Void.class) {
+                    return null;
+                }
+                try {
+                    return response.getEntity(this.entityClass, this.entityType);
+                }
+                catch (RuntimeException e) {
+                    errorHandler.clientErrorHandling(response, e);
+                    throw e;
+                }
+            }
+            finally {
+                response.releaseConnection();
+                ResteasyProviderFactory.removeContextDataLevel();
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.opower.finagle.resteasy.client;
 
+import com.opower.finagle.resteasy.util.ContentCoding;
+import com.opower.finagle.resteasy.util.ContentInputStream;
 import com.opower.finagle.resteasy.util.ServiceUtils;
-import org.jboss.netty.buffer.ChannelBufferInputStream;
+import com.twitter.finagle.http.Response;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.resteasy.client.core.BaseClientResponse;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
@@ -9,12 +11,19 @@ import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+
 /**
  * Provides Resteasy's {@link org.jboss.resteasy.client.ClientResponse}
  * semantics on top of an inbound Netty
  * {@link org.jboss.netty.handler.codec.http.HttpResponse}.  Used when
  * we're making outbound calls via a Resteasy proxy, on the inbound leg.
  *
+ * If the Finagle client streams responses (see {@link StreamingHttpCodec}),
+ * the content of a chunked response is read as it arrives.  A proxy
+ * method that returns an {@link InputStream} gets that stream as is; it
+ * must be closed, and closing it early aborts the transfer.
+ *
  * @author ed.peters
  * @param <T> object type of the response content
  */
@@ -30,25 +39,74 @@ public class InboundClientResponse<T> extends BaseClientResponse<T> {
     }
 
     /**
-     * Helper that wraps a Netty response
+     * Helper that wraps a Netty response.  The content of a streamed
+     * response is decompressed as it's read (see
+     * {@link FinagleBasedClientExecutor#decodeContent}), so its
+     * Content-Encoding header is dropped up front.
      */
     static class ResponseStreamFactory implements BaseClientResponseStreamFactory {
 
-        private final InputStream stream;
+        private final ChunkedContentStream chunks;
+        private final ContentCoding coding;
+        private InputStream stream;
 
         public ResponseStreamFactory(HttpResponse nettyResponse) {
-            this.stream =
-                    new ChannelBufferInputStream(nettyResponse.getContent());
+            if (isStreamed(nettyResponse)) {
+                this.chunks = new ChunkedContentStream(
+                        ((Response) nettyResponse).reader());
+                String encoding = nettyResponse.getHeader(CONTENT_ENCODING);
+                this.coding = encoding == null
+                        ? null
+                        : ContentCoding.forToken(encoding);
+                if (this.coding != null) {
+                    nettyResponse.removeHeader(CONTENT_ENCODING);
+                }
+            }
+            else {
+                this.chunks = null;
+                this.coding = null;
+                this.stream = new ContentInputStream(nettyResponse.getContent());
+            }
         }
 
+        /**
+         * Waits for the start of compressed streamed content, so it must
+         * not be called on a Netty I/O thread
+         */
         @Override
         public InputStream getInputStream() throws IOException {
+            if (this.stream == null) {
+                this.stream = this.coding == null
+                        ? this.chunks
+                        : this.coding.decode(this.chunks);
+            }
             return this.stream;
         }
 
+        /**
+         * Discards whatever is left of a streamed response
+         */
         @Override
         public void performReleaseConnection() {
-            // Not going to do anything here
+            if (this.chunks == null) {
+                return;
+            }
+            try {
+                // closing the decoder also frees its inflater
+                (this.stream == null ? this.chunks : this.stream).close();
+            }
+            catch (IOException e) {
+                this.chunks.close();
+            }
+        }
+
+        /**
+         * @param nettyResponse a response from the Finagle client
+         * @return true if its content is still arriving
+         */
+        static boolean isStreamed(HttpResponse nettyResponse) {
+            return nettyResponse instanceof Response
+                    && nettyResponse.isChunked();
         }
     }
 
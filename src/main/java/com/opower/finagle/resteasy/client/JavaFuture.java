@@ -0,0 +1,86 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.base.Preconditions;
+import com.twitter.util.Await;
+import com.twitter.util.Duration;
+import com.twitter.util.Future;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Presents a Finagle {@link Future} as a {@link java.util.concurrent.Future}.
+ * Unlike {@link Future#toJavaFuture()}, failures are wrapped in an
+ * {@link ExecutionException}, as callers of <code>get()</code> expect.
+ *
+ * @author ed.peters
+ * @param <T> type of the result
+ */
+class JavaFuture<T> implements java.util.concurrent.Future<T> {
+
+    private final Future<T> future;
+    private final AtomicBoolean cancelled;
+
+    JavaFuture(Future<T> future) {
+        this.future = Preconditions.checkNotNull(future, "future");
+        this.cancelled = new AtomicBoolean();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (this.future.isDefined()
+                || !this.cancelled.compareAndSet(false, true)) {
+            return false;
+        }
+        this.future.raise(new CancellationException());
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    @Override
+    public boolean isDone() {
+        return isCancelled() || this.future.isDefined();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            Await.ready(this.future);
+        }
+        catch (com.twitter.util.TimeoutException e) {
+            throw new IllegalStateException("timed out without a timeout", e);
+        }
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            Await.ready(this.future, Duration.fromTimeUnit(timeout, unit));
+        }
+        catch (com.twitter.util.TimeoutException e) {
+            throw new TimeoutException(e.getMessage());
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        try {
+            return this.future.apply();
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+}
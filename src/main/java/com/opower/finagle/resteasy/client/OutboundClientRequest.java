@@ -1,17 +1,19 @@
 package com.opower.finagle.resteasy.client;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.opower.finagle.resteasy.server.NettyHeaderWrapper;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.resteasy.client.ClientRequest;
-import org.jboss.resteasy.util.CaseInsensitiveMap;
 
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.MultivaluedMap;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
 
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
@@ -21,10 +23,21 @@ import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
  * that gets its data from a Resteasy {@link ClientRequest}.  Used when we're
  * making outbound calls via a Resteasy proxy, on the outbound leg.
  *
+ * Headers go straight into the Netty request (providers that alter them
+ * while the body is written see the Netty headers), and the body is
+ * serialized straight into the buffer that Netty sends, so the entity is
+ * never copied out of one byte array into another.
+ *
  * @author ed.peters
  */
 public class OutboundClientRequest extends DefaultHttpRequest {
 
+    /**
+     * Initial size of the buffer for entities whose size we can't tell in
+     * advance
+     */
+    public static final int DEFAULT_BODY_CAPACITY = 256;
+
     /**
      * Wraps up the supplied Resteasy message in a Netty message.  This
      * requires us to get the Resteasy message to serialize itself (to
@@ -35,94 +48,101 @@ public class OutboundClientRequest extends DefaultHttpRequest {
      */
     public OutboundClientRequest(ClientRequest resteasyRequest)
             throws Exception {
+        this(resteasyRequest, true);
+    }
+
+    /**
+     * @param resteasyRequest a Resteasy request
+     * @param withBody false to leave the body to {@link #writeBody}
+     * @throws Exception if something goes wrong
+     */
+    OutboundClientRequest(ClientRequest resteasyRequest, boolean withBody)
+            throws Exception {
 
         super(
             HttpVersion.HTTP_1_1,
             HttpMethod.valueOf(resteasyRequest.getHttpMethod()),
             stripProtocolAndHost(resteasyRequest.getUri()));
 
-        // TODO this implementation will fully serialize the message
-        // into memory -- obviously this sucks for large requests.
-        // will the structure of the APIs allow us to do better?
-
-        HeadersAndBody message = writeMessage(resteasyRequest);
-        for (String name : message.getHeaders().keySet()) {
-            setHeader(name, message.getHeaders().get(name));
+        for (Map.Entry<String,List<String>> header
+                : resteasyRequest.getHeaders().entrySet()) {
+            setHeader(header.getKey(), header.getValue());
         }
-
-        byte [] bytes = message.getBody().toByteArray();
-        if (bytes.length == 0) {
-            setHeader(CONTENT_LENGTH, "0");
+        if (resteasyRequest.getBodyContentType() != null) {
+            setHeader(CONTENT_TYPE,
+                    resteasyRequest.getBodyContentType().toString());
         }
-        else {
-            setHeader(CONTENT_LENGTH, Integer.toString(bytes.length));
-            setContent(ChannelBuffers.wrappedBuffer(bytes));
+
+        if (withBody) {
+            ChannelBuffer body = writeBody(resteasyRequest);
+            setHeader(CONTENT_LENGTH, Integer.toString(body.readableBytes()));
+            setContent(body);
         }
     }
 
     /**
-     * Strips off a preceding "protocol://host/" string, if there is one
-     * at the beginning of the supplied URI.  Since we're going to dispatch
-     * all our requests through Netty, we want relative URIs.
+     * Directs the supplied Resteasy message to serialize its body (if it
+     * has one) into a buffer, writing any headers the providers set into
+     * this request.
      *
-     * @param uri a URI
-     * @return the URI with leading protocol/host removed
+     * @param resteasyRequest a Resteasy request
+     * @return the body
+     * @throws IOException if something goes wrong
      */
-    @VisibleForTesting
-    static String stripProtocolAndHost(String uri) {
-        int idx = uri.indexOf("://");
-        return idx >= 0
-                ? uri.substring(uri.indexOf("/", idx + 3))
-                : uri;
+    private ChannelBuffer writeBody(ClientRequest resteasyRequest)
+            throws IOException {
+        Object body = resteasyRequest.getBody();
+        if (body == null) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        ChannelBufferOutputStream out = new ChannelBufferOutputStream(
+                ChannelBuffers.dynamicBuffer(estimateSize(body)));
+        writeBody(resteasyRequest, out);
+        return out.buffer();
     }
 
     /**
-     * Directs the supplied Resteasy message to serialize itself, and returns
-     * the resulting body content and headers (writing the message might
-     * trigger a JAX-RS provider which alters the original headers).
+     * Serializes the body of the supplied Resteasy message to a stream,
+     * writing any headers the providers set into this request.
      *
-     * @param resteasyRequest a Resteasy request
-     * @return the resulting headers and message body
-     * @throws java.io.IOException if something goes wrong
+     * @param resteasyRequest the Resteasy request this was created from
+     * @param out where to write the body
+     * @throws IOException if something goes wrong
      */
-    @VisibleForTesting
-    static HeadersAndBody writeMessage(ClientRequest resteasyRequest)
+    void writeBody(ClientRequest resteasyRequest, OutputStream out)
             throws IOException {
-        HeadersAndBody message = new HeadersAndBody();
-        message.getHeaders().putAll((MultivaluedMap)resteasyRequest.getHeaders());
-        message.setContentType(resteasyRequest.getBodyContentType());
-        resteasyRequest.writeRequestBody(
-                message.getHeaders(),
-                message.getBody());
-        return message;
+        resteasyRequest.writeRequestBody(new NettyHeaderWrapper(this), out);
     }
 
     /**
-     * Represents an HTTP message that's been serialized.
+     * @param body a request entity
+     * @return a starting size for its serialized form (exact for byte
+     * arrays, and for ASCII strings)
      */
     @VisibleForTesting
-    static class HeadersAndBody {
-
-        private final MultivaluedMap<String,Object> headers;
-        private final ByteArrayOutputStream bytes;
-
-        public HeadersAndBody() {
-            this.headers = new CaseInsensitiveMap<Object>();
-            this.bytes = new ByteArrayOutputStream();
+    static int estimateSize(Object body) {
+        if (body instanceof byte[]) {
+            return Math.max(((byte[]) body).length, 1);
         }
-
-        public ByteArrayOutputStream getBody() {
-            return bytes;
-        }
-
-        public MultivaluedMap<String,Object> getHeaders() {
-            return headers;
+        if (body instanceof String) {
+            return Math.max(((String) body).length(), 1);
         }
+        return DEFAULT_BODY_CAPACITY;
+    }
 
-        public void setContentType(MediaType contentType) {
-            if (contentType != null) {
-                headers.putSingle(CONTENT_TYPE, contentType.toString());
-            }
-        }
+    /**
+     * Strips off a preceding "protocol://host/" string, if there is one
+     * at the beginning of the supplied URI.  Since we're going to dispatch
+     * all our requests through Netty, we want relative URIs.
+     *
+     * @param uri a URI
+     * @return the URI with leading protocol/host removed
+     */
+    @VisibleForTesting
+    static String stripProtocolAndHost(String uri) {
+        int idx = uri.indexOf("://");
+        return idx >= 0
+                ? uri.substring(uri.indexOf("/", idx + 3))
+                : uri;
     }
 }
@@ -8,12 +8,16 @@ import com.twitter.finagle.builder.ClientBuilder;
 import com.twitter.finagle.http.Http;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
-import org.jboss.resteasy.client.ClientExecutor;
 import org.jboss.resteasy.client.ProxyFactory;
+import org.jboss.resteasy.client.core.ClientInvoker;
+import org.jboss.resteasy.client.core.ClientInvokerModifier;
+import org.jboss.resteasy.client.core.marshallers.ResteasyClientProxy;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.core.MediaType;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -24,6 +28,16 @@ import static com.opower.finagle.resteasy.util.LoggingUtils.info;
  * Fluent-style builder for clients that wrap a Finagle client with an
  * annotated service interface via Resteasy.
  *
+ * Interface methods may return a {@link com.twitter.util.Future} or a
+ * {@link java.util.concurrent.Future} of their result, in which case they
+ * return as soon as the request is sent (see
+ * {@link FutureEntityExtractorFactory}); other methods block until the
+ * response arrives.
+ *
+ * {@link #buildClient()} makes a JAX-RS 2.0 {@link javax.ws.rs.client.Client}
+ * that sends its requests through the same kind of Finagle client (see
+ * {@link FinagleClientHttpEngine}).
+ *
  * @author ed.peters
  * @author jeff
  */
@@ -54,8 +68,14 @@ public class ResteasyClientBuilder {
 
     private ResteasyProviderFactory providerFactory;
     private ClientBuilder clientBuilder;
+    private Service<HttpRequest,HttpResponse> service;
+    private MediaType preferredMediaType;
+    private boolean acceptCompressed;
+    private int streamingThreshold;
+    private boolean streamingHttp;
 
     protected ResteasyClientBuilder() {
+        this.acceptCompressed = true;
     }
 
     /**
@@ -76,8 +96,7 @@ public class ResteasyClientBuilder {
         Preconditions.checkNotNull(host, "host");
         Preconditions.checkArgument(port > 0, "invalid port " + port);
         info(LOG, "new HTTP client for %s:%s", host, port);
-        ClientBuilder builder = ClientBuilder
-                .get()
+        ClientBuilder builder = ClientBuilder.get()
                 .codec(Http.get())
                 .hostConnectionLimit(DEFAULT_HOST_CONNECTIONS)
                 .hosts(new InetSocketAddress(host, port));
@@ -108,8 +127,7 @@ public class ResteasyClientBuilder {
         info(LOG, "new Zookeeper client for %s:%s", zkHost, zkPort, zkLocator);
         InetSocketAddress addr = new InetSocketAddress(zkHost, zkPort);
 
-        ClientBuilder builder = ClientBuilder
-                .get()
+        ClientBuilder builder = ClientBuilder.get()
                 .codec(Http.get())
                 .hostConnectionLimit(DEFAULT_HOST_CONNECTIONS);
 
@@ -125,6 +143,17 @@ public class ResteasyClientBuilder {
         return this;
     }
 
+    /**
+     * @param service an already built Finagle client to use instead of a
+     *                {@link ClientBuilder}
+     * @return this (for chaining)
+     */
+    public ResteasyClientBuilder withFinagleService(
+            Service<HttpRequest,HttpResponse> service) {
+        this.service = service;
+        return this;
+    }
+
     /**
      * @param providerFactory an arbitrary {@link ResteasyProviderFactory} to use
      * @return this (for chaining)
@@ -135,20 +164,149 @@ public class ResteasyClientBuilder {
         return this;
     }
 
+    /**
+     * Asks servers for responses in the supplied media type wherever JSON
+     * is acceptable (see
+     * {@link FinagleBasedClientExecutor#setPreferredMediaType}); use
+     * <code>SmileChannelBufferProvider.APPLICATION_SMILE_TYPE</code> for
+     * smaller, cheaper payloads from servers built with this library.
+     * @param mediaType the preferred media type
+     * @return this (for chaining)
+     */
+    public ResteasyClientBuilder withPreferredMediaType(MediaType mediaType) {
+        this.preferredMediaType = mediaType;
+        return this;
+    }
+
+    /**
+     * @param accept true to ask servers for compressed responses (the
+     *               default); compressed responses are decompressed either
+     *               way
+     * @return this (for chaining)
+     */
+    public ResteasyClientBuilder withCompressedResponses(boolean accept) {
+        this.acceptCompressed = accept;
+        return this;
+    }
+
+    /**
+     * Streams request entities larger than the supplied size to the server
+     * in chunks as they're written, instead of serializing them whole (see
+     * {@link FinagleBasedClientExecutor#setStreamingThreshold}).  Applies
+     * to proxies only, and needs a streaming client: {@link #build} fails
+     * unless {@link #withStreamingHttp} is on, since Finagle's default
+     * HTTP codec never sends a streamed request.
+     * @param thresholdBytes entity size at which streaming starts (also the
+     *                       chunk size), or 0 to always serialize the
+     *                       entity first (the default)
+     * @return this (for chaining)
+     */
+    public ResteasyClientBuilder withStreamingThreshold(int thresholdBytes) {
+        Preconditions.checkArgument(thresholdBytes >= 0,
+                "invalid thresholdBytes " + thresholdBytes);
+        this.streamingThreshold = thresholdBytes;
+        return this;
+    }
+
+    /**
+     * Makes the Finagle client use a {@link StreamingHttpCodec}, so that
+     * chunked responses can be read as they arrive and large request
+     * entities can be streamed (see {@link #withStreamingThreshold}).  The
+     * codec replaces that of the {@link ClientBuilder}, whichever way it was
+     * configured; a service supplied to {@link #withFinagleService} is
+     * taken to stream already.
+     * @param stream true to stream, false to collect each response in
+     *               memory before it's handed over (the default)
+     * @return this (for chaining)
+     */
+    public ResteasyClientBuilder withStreamingHttp(boolean stream) {
+        this.streamingHttp = stream;
+        return this;
+    }
+
+    /**
+     * Creates a proxy, preparing the JSON codecs for the interface's entity
+     * types up front (see {@link ServiceUtils#prepareEntityCodecs}).
+     * Methods that return futures don't block.
+     * @param serviceInterface a JAX-RS annotated interface
+     * @return a proxy that invokes the remote service
+     */
     public <T> T build(Class<T> serviceInterface) {
-        Preconditions.checkNotNull(this.clientBuilder, "clientBuilder");
-        if (this.providerFactory == null) {
-            this.providerFactory = ServiceUtils.getDefaultProviderFactory();
-        }
+        Preconditions.checkState(this.streamingThreshold == 0 || this.streamingHttp,
+                "streaming threshold without streaming HTTP");
+        Service<HttpRequest,HttpResponse> finagleService = prepare();
         info(LOG, "creating proxy with interface %s", serviceInterface.getName());
-        Service<HttpRequest,HttpResponse> service =
-                ClientBuilder.safeBuild(this.clientBuilder);
-        ClientExecutor executor =
-                new FinagleBasedClientExecutor(this.providerFactory, service);
-        return ProxyFactory.create(serviceInterface,
+        int prepared = ServiceUtils.prepareEntityCodecs(this.providerFactory,
+                serviceInterface);
+        info(LOG, "prepared JSON codecs for %s entities", prepared);
+        FinagleBasedClientExecutor executor = new FinagleBasedClientExecutor(
+                this.providerFactory, finagleService);
+        executor.setPreferredMediaType(this.preferredMediaType);
+        executor.setAcceptCompressed(this.acceptCompressed);
+        executor.setStreamingThreshold(this.streamingThreshold);
+        T proxy = ProxyFactory.create(serviceInterface,
                 DEFAULT_ENDPOINT_URI,
                 executor,
-                this.providerFactory);
+                this.providerFactory,
+                new FutureEntityExtractorFactory(this.providerFactory));
+        ((ResteasyClientProxy) proxy).applyClientInvokerModifier(
+                new DeferFutureMethods());
+        return proxy;
+    }
+
+    /**
+     * Creates a JAX-RS 2.0 client whose requests go through Finagle.  The
+     * host in target URIs is ignored: the Finagle client decides where
+     * requests go.  For asynchronous requests that complete from Finagle
+     * callbacks, use {@link FinagleAsyncInvoker} rather than
+     * <code>Invocation.Builder.async()</code>.
+     * @return a new client
+     */
+    public ResteasyClient buildClient() {
+        Service<HttpRequest,HttpResponse> finagleService = prepare();
+        info(LOG, "creating JAX-RS client");
+        FinagleClientHttpEngine engine =
+                new FinagleClientHttpEngine(finagleService);
+        engine.setPreferredMediaType(this.preferredMediaType);
+        engine.setAcceptCompressed(this.acceptCompressed);
+        return new org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder()
+                .providerFactory(this.providerFactory)
+                .httpEngine(engine)
+                .build();
+    }
+
+    /*
+     * Fills in the default provider factory and builds the Finagle client
+     */
+    private Service<HttpRequest,HttpResponse> prepare() {
+        Preconditions.checkState(this.clientBuilder != null || this.service != null,
+                "no clientBuilder or service");
+        if (this.providerFactory == null) {
+            this.providerFactory = ServiceUtils.getDefaultProviderFactory();
+        }
+        if (this.service != null) {
+            return this.service;
+        }
+        return this.streamingHttp
+                ? ClientBuilder.safeBuild(
+                        this.clientBuilder.codec(new StreamingHttpCodec()))
+                : ClientBuilder.safeBuild(this.clientBuilder);
+    }
+
+    /**
+     * Marks the requests of methods that return futures, so that the
+     * executor doesn't wait for their responses
+     */
+    private static class DeferFutureMethods implements ClientInvokerModifier {
+
+        @Override
+        public void modify(ClientInvoker invoker) {
+            if (FutureEntityExtractorFactory.isFuture(invoker.getMethod())) {
+                invoker.getAttributes().put(
+                        FinagleBasedClientExecutor.DEFERRED_ATTRIBUTE,
+                        Boolean.TRUE);
+            }
+        }
     }
 
     public static ResteasyClientBuilder get() {
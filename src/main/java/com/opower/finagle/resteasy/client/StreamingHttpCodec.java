@@ -0,0 +1,80 @@
+package com.opower.finagle.resteasy.client;
+
+import com.twitter.finagle.AbstractCodec;
+import com.twitter.finagle.Service;
+import com.twitter.finagle.ServiceFactory;
+import com.twitter.finagle.Stackable;
+import com.twitter.finagle.http.HttpClientTraceInitializer;
+import com.twitter.finagle.http.HttpTransport;
+import com.twitter.finagle.http.codec.HttpClientDispatcher;
+import com.twitter.finagle.stats.StatsReceiver;
+import com.twitter.finagle.transport.Transport;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpClientCodec;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+/**
+ * HTTP client codec that streams message content in both directions,
+ * where Finagle's {@link com.twitter.finagle.http.Http} codec collects
+ * each response in memory (up to its maximum response size) and sends
+ * each request as a single message.
+ *
+ * With this codec, a chunked response arrives as soon as its headers do,
+ * as a {@link com.twitter.finagle.http.Response} whose content is read
+ * chunk by chunk (see {@link InboundClientResponse}), and a chunked
+ * {@link com.twitter.finagle.http.Request} is sent chunk by chunk as its
+ * content is written (see {@link FinagleBasedClientExecutor}).  A
+ * connection stays busy until the response content has been read to the
+ * end or discarded.
+ *
+ * Content isn't decompressed here; the client executor and engine
+ * do that themselves.
+ *
+ * @author ed.peters
+ */
+public class StreamingHttpCodec
+        extends AbstractCodec<HttpRequest,HttpResponse> {
+
+    @Override
+    public ChannelPipelineFactory pipelineFactory() {
+        return new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("httpCodec", new HttpClientCodec());
+                return pipeline;
+            }
+        };
+    }
+
+    @Override
+    public Transport<Object,Object> newClientTransport(
+            Channel channel,
+            StatsReceiver statsReceiver) {
+        return new HttpTransport(
+                super.newClientTransport(channel, statsReceiver));
+    }
+
+    /**
+     * Finagle's streaming dispatcher, which completes with a
+     * {@link com.twitter.finagle.http.Response} (a kind of
+     * {@link HttpResponse})
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Service<HttpRequest,HttpResponse> newClientDispatcher(
+            Transport<Object,Object> transport) {
+        Service dispatcher = new HttpClientDispatcher<HttpRequest>(transport);
+        return (Service<HttpRequest,HttpResponse>) dispatcher;
+    }
+
+    @Override
+    public Stackable<ServiceFactory<HttpRequest,HttpResponse>>
+            newTraceInitializer() {
+        return new HttpClientTraceInitializer<HttpRequest,HttpResponse>();
+    }
+}
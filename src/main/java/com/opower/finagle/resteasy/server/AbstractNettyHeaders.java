@@ -0,0 +1,250 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implements the {@link javax.ws.rs.core.MultivaluedMap} API as a live view
+ * of the headers of a Netty message, so Resteasy can read and write them
+ * without our copying them into (and back out of) a map of its own.
+ * Lookups are case-insensitive (as they are in Netty), changes write
+ * through to the message, and no intermediate maps are built.
+ *
+ * Netty stores every value as a String; values of other types are
+ * converted as they're added.
+ *
+ * @param <V> the value type exposed to Resteasy
+ *
+ * @author ed.peters
+ */
+public abstract class AbstractNettyHeaders<V>
+        extends AbstractMap<String,List<V>>
+        implements MultivaluedMap<String,V> {
+
+    /*
+     * Room for the names of a typical message's headers
+     */
+    private static final int NAMES_CAPACITY = 16;
+
+    private final HttpMessage nettyMessage;
+
+    protected AbstractNettyHeaders(HttpMessage nettyMessage) {
+        this.nettyMessage = Preconditions.checkNotNull(nettyMessage,
+                "nettyMessage");
+    }
+
+    @Override
+    public List<V> get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        List<V> values = values((String) key);
+        return values.isEmpty() ? null : values;
+    }
+
+    /*
+     * The values of a header (an empty list if there aren't any).  The
+     * cast is safe, since we only ever read these lists.
+     */
+    @SuppressWarnings("unchecked")
+    private List<V> values(String key) {
+        return (List) this.nettyMessage.getHeaders(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getFirst(String key) {
+        return (V) this.nettyMessage.getHeader(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String
+                && this.nettyMessage.containsHeader((String) key);
+    }
+
+    @Override
+    public int size() {
+        return names().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.nettyMessage.headers().isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return Iterators.unmodifiableIterator(names().iterator());
+            }
+
+            @Override
+            public int size() {
+                return AbstractNettyHeaders.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return AbstractNettyHeaders.this.isEmpty();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    /*
+     * The header names, in the order they were first added, collected in
+     * one pass over the message's headers.  Names that differ only in case
+     * are the same header, so only the first spelling is kept.  Messages
+     * have few headers, so a linear search is cheaper than a hashed (or
+     * sorted) set.
+     */
+    private List<String> names() {
+        List<String> names = Lists.newArrayListWithCapacity(NAMES_CAPACITY);
+        for (Map.Entry<String,String> header : this.nettyMessage.headers()) {
+            String name = header.getKey();
+            if (!containsIgnoreCase(names, name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<Entry<String,List<V>>> entrySet() {
+        return new AbstractSet<Entry<String,List<V>>>() {
+            @Override
+            public Iterator<Entry<String,List<V>>> iterator() {
+                final Iterator<String> names = names().iterator();
+                return new Iterator<Entry<String,List<V>>>() {
+                    private String current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String,List<V>> next() {
+                        this.current = names.next();
+                        return new SimpleImmutableEntry<String,List<V>>(
+                                this.current,
+                                values(this.current));
+                    }
+
+                    @Override
+                    public void remove() {
+                        Preconditions.checkState(this.current != null,
+                                "next() not called");
+                        nettyMessage.removeHeader(this.current);
+                        this.current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return AbstractNettyHeaders.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return AbstractNettyHeaders.this.isEmpty();
+            }
+        };
+    }
+
+    @Override
+    public void putSingle(String key, V value) {
+        this.nettyMessage.setHeader(key, value);
+    }
+
+    @Override
+    public void add(String key, V value) {
+        this.nettyMessage.addHeader(key, value);
+    }
+
+    @Override
+    public void addAll(String key, V... newValues) {
+        addAll(key, Arrays.asList(newValues));
+    }
+
+    @Override
+    public void addAll(String key, List<V> valueList) {
+        for (V value : valueList) {
+            this.nettyMessage.addHeader(key, value);
+        }
+    }
+
+    @Override
+    public void addFirst(String key, V value) {
+        List<Object> values = Lists.newArrayList();
+        values.add(value);
+        values.addAll(values(key));
+        this.nettyMessage.setHeader(key, values);
+    }
+
+    @Override
+    public List<V> put(String key, List<V> values) {
+        List<V> oldValues = get(key);
+        this.nettyMessage.setHeader(key, values);
+        return oldValues;
+    }
+
+    @Override
+    public List<V> remove(Object key) {
+        List<V> oldValues = get(key);
+        if (oldValues != null) {
+            this.nettyMessage.removeHeader((String) key);
+        }
+        return oldValues;
+    }
+
+    @Override
+    public void clear() {
+        this.nettyMessage.clearHeaders();
+    }
+
+    @Override
+    public boolean equalsIgnoreValueOrder(MultivaluedMap<String,V> otherMap) {
+        if (otherMap == null || size() != otherMap.size()) {
+            return false;
+        }
+        for (Map.Entry<String,List<V>> entry : entrySet()) {
+            List<V> otherValues = otherMap.get(entry.getKey());
+            if (otherValues == null
+                    || entry.getValue().size() != otherValues.size()
+                    || !entry.getValue().containsAll(otherValues)
+                    || !otherValues.containsAll(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests a {@link ResteasyFinagleService} works on
+ * at once, adjusting the limit from observed latency instead of relying on
+ * a hand-tuned thread pool size.
+ *
+ * Uses a gradient algorithm: each completed request's latency is compared
+ * against a slow-moving average of past latencies.  While the two agree,
+ * the limit grows by roughly its square root (an allowance for queueing);
+ * when latency rises above the long-term average (times a tolerance), the
+ * limit shrinks in proportion.  The long-term average follows drifting
+ * downstream latency, so the limit settles without manual tuning.
+ *
+ * @author ed.peters
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * How far (as a ratio) latency may exceed the long-term average before
+     * the limit starts to shrink
+     */
+    public static final double DEFAULT_TOLERANCE = 1.5;
+
+    /**
+     * Weight given to each new limit estimate
+     */
+    public static final double DEFAULT_SMOOTHING = 0.2;
+
+    /**
+     * Number of samples the long-term latency average spans
+     */
+    public static final int DEFAULT_LONG_WINDOW = 600;
+
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final int longWindow;
+    private final AtomicInteger inFlight;
+    private volatile double limit;
+    private double longRtt;
+    private int samples;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit,
+                                      int minLimit,
+                                      int maxLimit) {
+        this(initialLimit, minLimit, maxLimit,
+                DEFAULT_TOLERANCE, DEFAULT_SMOOTHING, DEFAULT_LONG_WINDOW);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit,
+                                      int minLimit,
+                                      int maxLimit,
+                                      double tolerance,
+                                      double smoothing,
+                                      int longWindow) {
+        Preconditions.checkArgument(minLimit > 0, "invalid minLimit " + minLimit);
+        Preconditions.checkArgument(maxLimit >= minLimit,
+                "maxLimit must be at least minLimit");
+        Preconditions.checkArgument(
+                initialLimit >= minLimit && initialLimit <= maxLimit,
+                "initialLimit must be between minLimit and maxLimit");
+        Preconditions.checkArgument(tolerance >= 1,
+                "invalid tolerance " + tolerance);
+        Preconditions.checkArgument(smoothing > 0 && smoothing <= 1,
+                "invalid smoothing " + smoothing);
+        Preconditions.checkArgument(longWindow > 0,
+                "invalid longWindow " + longWindow);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.longWindow = longWindow;
+        this.inFlight = new AtomicInteger();
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Claims a slot for a new request
+     * @return false if the service is already at its limit (in which case
+     * the request should be shed, and {@link #release} not called)
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = this.inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a slot claimed by {@link #tryAcquire()}, and feeds the
+     * request's latency into the limit
+     * @param rttNanos how long the request took, in nanoseconds
+     */
+    public void release(long rttNanos) {
+        int current = this.inFlight.getAndDecrement();
+        if (rttNanos > 0) {
+            update(rttNanos, current);
+        }
+    }
+
+    /*
+     * Recomputes the limit from a new latency sample (inFlight is the
+     * number of requests that were running when this one finished)
+     */
+    private synchronized void update(long rttNanos, int inFlightAtRelease) {
+        double shortRtt = rttNanos;
+        if (this.samples < this.longWindow) {
+            this.samples++;
+        }
+        if (this.longRtt == 0) {
+            this.longRtt = shortRtt;
+        }
+        else {
+            this.longRtt += (shortRtt - this.longRtt) / this.samples;
+        }
+        // if latency has dropped well below the average, let the average
+        // catch up quickly rather than waiting out the whole window
+        if (this.longRtt / shortRtt > 2) {
+            this.longRtt = (this.longRtt + shortRtt) / 2;
+        }
+
+        double current = this.limit;
+        // leave the limit alone when the service isn't using most of it,
+        // since the latency samples don't tell us anything about higher load
+        if (inFlightAtRelease < current / 2) {
+            return;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT,
+                Math.min(1.0, this.tolerance * this.longRtt / shortRtt));
+        double estimate = current * gradient + Math.sqrt(current);
+        double next = current * (1 - this.smoothing) + estimate * this.smoothing;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, next));
+    }
+
+    /**
+     * @return the current limit on concurrent requests
+     */
+    public int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * @return the number of requests currently holding a slot
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+}
@@ -0,0 +1,98 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.jboss.resteasy.core.ResourceInvoker;
+import org.jboss.resteasy.core.ResourceMethodInvoker;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Maps resource classes and resource methods to dedicated executors
+ * ("bulkheads"), so that a slow endpoint can only exhaust its own threads
+ * instead of starving every other endpoint in the service.
+ *
+ * A method assignment takes precedence over a class assignment.  Classes
+ * and methods may be given as interfaces (e.g. the JAX-RS annotated
+ * service interface) as well as the implementing class.
+ *
+ * @author ed.peters
+ */
+public class BulkheadRouter {
+
+    private final Map<Class<?>,Executor> classExecutors;
+    private final Map<Method,Executor> methodExecutors;
+    private final ConcurrentMap<Method,Optional<Executor>> resolved;
+
+    public BulkheadRouter() {
+        this.classExecutors = Maps.newLinkedHashMap();
+        this.methodExecutors = Maps.newLinkedHashMap();
+        this.resolved = Maps.newConcurrentMap();
+    }
+
+    /**
+     * Sends every request handled by the supplied resource class to the
+     * supplied executor.  Should be called before the router is used.
+     */
+    public void assign(Class<?> resourceClass, Executor executor) {
+        Preconditions.checkNotNull(resourceClass, "resourceClass");
+        Preconditions.checkNotNull(executor, "executor");
+        this.classExecutors.put(resourceClass, executor);
+    }
+
+    /**
+     * Sends every request handled by the supplied resource method to the
+     * supplied executor.  Should be called before the router is used.
+     */
+    public void assign(Method resourceMethod, Executor executor) {
+        Preconditions.checkNotNull(resourceMethod, "resourceMethod");
+        Preconditions.checkNotNull(executor, "executor");
+        this.methodExecutors.put(resourceMethod, executor);
+    }
+
+    /**
+     * @param invoker the invoker Resteasy matched to a request
+     * @return the dedicated executor for the invoker's resource method, or
+     * null if it doesn't have one
+     */
+    public Executor route(ResourceInvoker invoker) {
+        if (!(invoker instanceof ResourceMethodInvoker)) {
+            return null;
+        }
+        ResourceMethodInvoker methodInvoker = (ResourceMethodInvoker) invoker;
+        Method method = methodInvoker.getMethod();
+        Optional<Executor> executor = this.resolved.get(method);
+        if (executor == null) {
+            executor = resolve(methodInvoker.getResourceClass(), method);
+            this.resolved.putIfAbsent(method, executor);
+        }
+        return executor.orNull();
+    }
+
+    /*
+     * Looks up the executor for a resource method (absent if it has none)
+     */
+    private Optional<Executor> resolve(Class<?> resourceClass, Method method) {
+        for (Map.Entry<Method,Executor> entry : this.methodExecutors.entrySet()) {
+            Method candidate = entry.getKey();
+            if (candidate.getName().equals(method.getName())
+                    && Arrays.equals(candidate.getParameterTypes(),
+                                     method.getParameterTypes())
+                    && candidate.getDeclaringClass()
+                            .isAssignableFrom(resourceClass)) {
+                return Optional.of(entry.getValue());
+            }
+        }
+        for (Map.Entry<Class<?>,Executor> entry : this.classExecutors.entrySet()) {
+            if (entry.getKey().isAssignableFrom(resourceClass)) {
+                return Optional.of(entry.getValue());
+            }
+        }
+        return Optional.absent();
+    }
+}
@@ -0,0 +1,26 @@
+package com.opower.finagle.resteasy.server;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a GET resource method whose responses a {@link ResponseCache} may
+ * keep for the given time, whether or not the response carries a
+ * Cache-Control header.  May be put on the implementing method or on the
+ * method of a JAX-RS annotated interface.
+ *
+ * @author ed.peters
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CachedResponse {
+
+    /**
+     * How long (in seconds) a response stays fresh
+     */
+    int maxAge();
+}
@@ -0,0 +1,260 @@
+package com.opower.finagle.resteasy.server;
+
+import com.twitter.finagle.http.Response;
+import com.twitter.finagle.netty3.ChannelBufferBuf;
+import com.twitter.util.Promise;
+import com.twitter.util.Return;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+
+/**
+ * Output stream for a response entity that buffers until the entity
+ * outgrows a threshold, then commits the response with chunked transfer
+ * encoding and sends the rest as chunks while the entity is still being
+ * written.  Small responses still go out in one piece, with a
+ * Content-Length.
+ *
+ * Committing satisfies the request's promise with a Finagle
+ * {@link Response}, whose body Finagle's HTTP server reads chunk by chunk.
+ * Each write waits for the previous chunk to be taken by the transport,
+ * so a slow client slows the writer down instead of piling data up in
+ * memory.  Because of that, this must never be written from a Netty I/O
+ * thread.
+ *
+ * The first buffer is sized from the response's size estimate; chunk
+ * buffers come from a {@link ResponseBufferPool}, if there is one, and go
+ * back to it once Finagle is finished with them.
+ *
+ * @author ed.peters
+ */
+class ChunkedResponseStream extends OutputStream {
+
+    private final HttpResponse nettyResponse;
+    private final Promise<HttpResponse> promise;
+    private final int chunkSize;
+    private final OutboundServiceResponse owner;
+    private final ResponseBufferPool pool;
+    private ChannelBuffer buffer;
+    private ChannelBuffer inFlight;
+    private long written;
+    private Response streamed;
+    private boolean bufferOnly;
+    private boolean closed;
+
+    /**
+     * @param nettyResponse the response whose entity is being written
+     * @param promise the request's promise
+     * @param chunkSize streaming threshold, and size of each chunk
+     * @param owner the response this is the output stream for (consulted
+     *              for the size of the first buffer)
+     * @param pool source of chunk buffers, or null to allocate them
+     */
+    ChunkedResponseStream(HttpResponse nettyResponse,
+                          Promise<HttpResponse> promise,
+                          int chunkSize,
+                          OutboundServiceResponse owner,
+                          ResponseBufferPool pool) {
+        this.nettyResponse = nettyResponse;
+        this.promise = promise;
+        this.chunkSize = chunkSize;
+        this.owner = owner;
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of entity bytes written so far
+     */
+    long getBytesWritten() {
+        return this.written;
+    }
+
+    /**
+     * @return true once the status and headers have been sent
+     */
+    boolean isCommitted() {
+        return this.streamed != null;
+    }
+
+    /**
+     * @return the response to send: the buffered Netty response, or the
+     * streaming Finagle response once committed
+     */
+    HttpResponse getResponse() {
+        return this.streamed == null ? this.nettyResponse : this.streamed;
+    }
+
+    /**
+     * Keeps the whole entity in memory from now on (ignored once the
+     * response is committed)
+     */
+    void bufferOnly() {
+        this.bufferOnly = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().writeByte(b);
+        this.written++;
+        maybeSend();
+    }
+
+    /**
+     * Splits large writes at chunk boundaries, so chunk buffers never grow
+     * past the chunk size (unless the whole entity is being buffered)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.written += len;
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ChannelBuffer target = buffer();
+            int count = this.bufferOnly && this.streamed == null
+                    ? remaining
+                    : Math.min(remaining,
+                            Math.max(1, this.chunkSize - target.readableBytes()));
+            target.writeBytes(b, offset, count);
+            offset += count;
+            remaining -= count;
+            maybeSend();
+        }
+    }
+
+    /**
+     * Sends whatever has been written so far, but only once the response
+     * is committed: entity writers flush when they finish, and we don't
+     * want that to turn every response into a chunked one.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.streamed != null
+                && this.buffer != null
+                && this.buffer.readable()) {
+            send();
+        }
+    }
+
+    /**
+     * Same as {@link #finish()}
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * Sends the last chunk, if the response is streaming, and waits for
+     * the client to take it
+     */
+    void finish() throws IOException {
+        if (this.streamed == null || this.closed) {
+            return;
+        }
+        if (this.buffer != null && this.buffer.readable()) {
+            send();
+        }
+        this.closed = true;
+        try {
+            this.streamed.close().get();
+            recycle(this.inFlight);
+        }
+        catch (Exception e) {
+            throw new IOException("error finishing streamed response", e);
+        }
+    }
+
+    /**
+     * Cuts off a streaming response that failed after it was committed
+     * (there's no way to change the status by then)
+     */
+    void abort(Throwable cause) {
+        if (this.streamed != null && !this.closed) {
+            this.closed = true;
+            this.streamed.writer().fail(cause);
+        }
+    }
+
+    /*
+     * Allocates a buffer on the first write after a chunk was sent (or
+     * the first write of all).  While the response is still buffered,
+     * the buffer is also the response's content.
+     */
+    private ChannelBuffer buffer() {
+        if (this.buffer == null) {
+            if (this.pool != null) {
+                this.buffer = this.pool.acquire(this.chunkSize);
+            }
+            else if (this.streamed == null) {
+                this.buffer = ChannelBuffers.dynamicBuffer(
+                        Math.min(this.owner.getSizeHint(), this.chunkSize));
+            }
+            else {
+                this.buffer = ChannelBuffers.dynamicBuffer(this.chunkSize);
+            }
+            if (this.streamed == null) {
+                this.nettyResponse.setContent(this.buffer);
+            }
+        }
+        return this.buffer;
+    }
+
+    private void maybeSend() throws IOException {
+        if (this.buffer.readableBytes() < this.chunkSize) {
+            return;
+        }
+        if (this.streamed == null) {
+            if (this.bufferOnly) {
+                return;
+            }
+            commit();
+        }
+        send();
+    }
+
+    private void commit() throws IOException {
+        this.nettyResponse.removeHeader(CONTENT_LENGTH);
+        this.nettyResponse.setChunked(true);
+        this.nettyResponse.setContent(ChannelBuffers.EMPTY_BUFFER);
+        Response response = Response.apply(this.nettyResponse);
+        if (!this.promise.updateIfEmpty(new Return<HttpResponse>(response))) {
+            throw new IOException("request abandoned before response was sent");
+        }
+        this.streamed = response;
+    }
+
+    /*
+     * Hands the buffered bytes to the transport and waits until they've
+     * been taken.  The transport may still be writing them afterwards, so
+     * we start over with a fresh buffer rather than reusing the old one;
+     * but Finagle doesn't take a chunk until the previous one has been
+     * written, so at that point the previous one can be recycled.
+     */
+    private void send() throws IOException {
+        if (this.closed) {
+            throw new IOException("response already finished");
+        }
+        ChannelBuffer chunk = this.buffer;
+        this.buffer = null;
+        try {
+            this.streamed.writer().write(new ChannelBufferBuf(chunk)).get();
+        }
+        catch (Exception e) {
+            this.closed = true;
+            throw new IOException("error streaming response", e);
+        }
+        recycle(this.inFlight);
+        this.inFlight = chunk;
+    }
+
+    private void recycle(ChannelBuffer chunk) {
+        if (this.pool != null && chunk != null) {
+            this.pool.release(chunk);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.GATEWAY_TIMEOUT;
+
+/**
+ * Empty 504 response used when a request's deadline passed before it
+ * could be dispatched, so there's no point in doing the work.
+ *
+ * @author ed.peters
+ */
+public class DeadlineExceededResponse extends DefaultHttpResponse {
+
+    public DeadlineExceededResponse(HttpVersion version) {
+        super(version, GATEWAY_TIMEOUT);
+        setHeader(CONTENT_LENGTH, "0");
+    }
+}
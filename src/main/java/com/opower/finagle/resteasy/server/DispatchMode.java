@@ -0,0 +1,26 @@
+package com.opower.finagle.resteasy.server;
+
+/**
+ * Determines which thread a {@link ResteasyFinagleService} uses to invoke
+ * the Resteasy dispatcher.
+ *
+ * @author ed.peters
+ */
+public enum DispatchMode {
+
+    /**
+     * Hand every request to the service's executor (the default).  Safe for
+     * resources that block.
+     */
+    EXECUTOR,
+
+    /**
+     * Invoke the dispatcher directly on the calling (Netty I/O) thread,
+     * skipping the executor hop.  Only suitable for resources that never
+     * block; handlers that run past the configured time budget are
+     * reported, but can't be stopped.  Requests with chunked bodies still
+     * go to the executor, since their bodies arrive on that same thread.
+     */
+    INLINE
+
+}
@@ -0,0 +1,277 @@
+package com.opower.finagle.resteasy.server;
+
+import com.twitter.util.Promise;
+import com.twitter.util.Return;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.resteasy.core.AbstractAsynchronousResponse;
+import org.jboss.resteasy.core.AbstractExecutionContext;
+import org.jboss.resteasy.core.SynchronousDispatcher;
+import org.jboss.resteasy.spi.ResteasyAsynchronousResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.opower.finagle.resteasy.util.LoggingUtils.info;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Implements Resteasy's {@link org.jboss.resteasy.spi.ResteasyAsynchronousContext}
+ * on top of a Finagle {@link Promise}.  When a resource method suspends
+ * the request (e.g. by taking a JAX-RS <code>@Suspended AsyncResponse</code>
+ * parameter), the worker thread is released as soon as the method returns;
+ * the promise is satisfied later, from whatever thread resumes, cancels or
+ * times out the response.
+ *
+ * @author ed.peters
+ */
+public class FinagleAsynchronousContext extends AbstractExecutionContext {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FinagleAsynchronousContext.class);
+
+    private final OutboundServiceResponse jaxrsResponse;
+    private final Promise<HttpResponse> promise;
+    private final ScheduledExecutorService timer;
+    private final Object responseLock;
+    private volatile FinagleAsynchronousResponse asyncResponse;
+    private volatile boolean deferred;
+
+    public FinagleAsynchronousContext(SynchronousDispatcher dispatcher,
+                                      InboundServiceRequest jaxrsRequest,
+                                      OutboundServiceResponse jaxrsResponse,
+                                      Promise<HttpResponse> promise,
+                                      ScheduledExecutorService timer) {
+        super(dispatcher, jaxrsRequest, jaxrsResponse);
+        this.jaxrsResponse = jaxrsResponse;
+        this.promise = promise;
+        this.timer = timer;
+        this.responseLock = new Object();
+    }
+
+    @Override
+    public boolean isSuspended() {
+        return this.asyncResponse != null;
+    }
+
+    @Override
+    public ResteasyAsynchronousResponse getAsyncResponse() {
+        return this.asyncResponse;
+    }
+
+    @Override
+    public ResteasyAsynchronousResponse suspend() {
+        return suspend(-1);
+    }
+
+    @Override
+    public ResteasyAsynchronousResponse suspend(long millis) {
+        return suspend(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ResteasyAsynchronousResponse suspend(long time, TimeUnit unit) {
+        synchronized (this.responseLock) {
+            if (this.asyncResponse != null) {
+                throw new IllegalStateException("request already suspended");
+            }
+            // the response may be resumed on a thread that mustn't block
+            // waiting for the client, so it can't be streamed
+            this.jaxrsResponse.disableStreaming();
+            this.asyncResponse = new FinagleAsynchronousResponse();
+            this.asyncResponse.setTimeout(time, unit);
+            return this.asyncResponse;
+        }
+    }
+
+    /**
+     * @return true if the request was suspended and the dispatching thread
+     * has handed responsibility for completing the promise to this context
+     */
+    public boolean isDeferred() {
+        return this.deferred;
+    }
+
+    /**
+     * {@link javax.ws.rs.container.AsyncResponse} that writes the resumed
+     * entity through the dispatcher, then satisfies the Finagle promise
+     * with the resulting Netty response.
+     */
+    protected class FinagleAsynchronousResponse
+            extends AbstractAsynchronousResponse {
+
+        private boolean done;
+        private boolean cancelled;
+        private ScheduledFuture<?> timeoutFuture;
+
+        protected FinagleAsynchronousResponse() {
+            super(FinagleAsynchronousContext.this.dispatcher,
+                    FinagleAsynchronousContext.this.request,
+                    FinagleAsynchronousContext.this.response);
+        }
+
+        @Override
+        public void initialRequestThreadFinished() {
+            deferred = true;
+        }
+
+        @Override
+        public boolean resume(Object entity) {
+            synchronized (responseLock) {
+                if (this.done) {
+                    return false;
+                }
+                this.done = true;
+                cancelTimeout();
+                try {
+                    return internalResume(entity);
+                }
+                finally {
+                    complete();
+                }
+            }
+        }
+
+        @Override
+        public boolean resume(Throwable error) {
+            synchronized (responseLock) {
+                if (this.done) {
+                    return false;
+                }
+                this.done = true;
+                cancelTimeout();
+                try {
+                    return internalResume(error);
+                }
+                finally {
+                    complete();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            return cancel(Response.status(SERVICE_UNAVAILABLE).build());
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return cancel(Response.status(SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                    .build());
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return cancel(Response.status(SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                    .build());
+        }
+
+        protected boolean cancel(Response cancelResponse) {
+            synchronized (responseLock) {
+                if (this.cancelled) {
+                    return true;
+                }
+                if (this.done) {
+                    return false;
+                }
+                this.done = true;
+                this.cancelled = true;
+                cancelTimeout();
+                try {
+                    return internalResume(cancelResponse);
+                }
+                finally {
+                    complete();
+                }
+            }
+        }
+
+        @Override
+        public boolean isSuspended() {
+            synchronized (responseLock) {
+                return !this.done;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (responseLock) {
+                return this.cancelled;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            synchronized (responseLock) {
+                return this.done;
+            }
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            synchronized (responseLock) {
+                if (this.done) {
+                    return false;
+                }
+                cancelTimeout();
+                if (time > 0) {
+                    this.timeoutFuture = timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleTimeout();
+                        }
+                    }, time, unit);
+                }
+                return true;
+            }
+        }
+
+        /*
+         * Gives the registered TimeoutHandler a chance to resume, cancel
+         * or extend the response; if it does none of those, we fall back
+         * to the JAX-RS default of 503 Service Unavailable.
+         */
+        protected void handleTimeout() {
+            synchronized (responseLock) {
+                if (this.done) {
+                    return;
+                }
+                this.timeoutFuture = null;
+                if (this.timeoutHandler != null) {
+                    this.timeoutHandler.handleTimeout(this);
+                }
+                if (!this.done && this.timeoutFuture == null) {
+                    info(LOG, "asynchronous response timed out");
+                    resume(Response.status(SERVICE_UNAVAILABLE).build());
+                }
+            }
+        }
+
+        private void cancelTimeout() {
+            if (this.timeoutFuture != null) {
+                this.timeoutFuture.cancel(false);
+                this.timeoutFuture = null;
+            }
+        }
+
+        private void complete() {
+            try {
+                jaxrsResponse.finish();
+            }
+            catch (IOException e) {
+                info(LOG, e, "error finishing resumed response");
+            }
+            HttpResponse nettyResponse = jaxrsResponse.getNettyResponse();
+            info(LOG, "outbound response %s (resumed)", nettyResponse.getStatus());
+            promise.updateIfEmpty(new Return<HttpResponse>(nettyResponse));
+        }
+    }
+}
@@ -2,10 +2,13 @@ package com.opower.finagle.resteasy.server;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.opower.finagle.resteasy.util.ContentInputStream;
 import com.opower.finagle.resteasy.util.ServiceUtils;
-import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.resteasy.plugins.providers.FormUrlEncodedProvider;
+import org.jboss.resteasy.specimpl.ResteasyHttpHeaders;
 import org.jboss.resteasy.spi.ResteasyAsynchronousContext;
 import org.jboss.resteasy.spi.ResteasyAsynchronousResponse;
 import org.jboss.resteasy.spi.ResteasyUriInfo;
@@ -16,6 +19,7 @@ import javax.ws.rs.core.MultivaluedMap;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -25,7 +29,13 @@ import java.util.concurrent.TimeUnit;
  * Implements Resteasy's {@link org.jboss.resteasy.spi.HttpRequest} interface
  * on top of a Netty {@link org.jboss.netty.handler.codec.http.HttpRequest}
  *
- * Currently doesn't support asynchronous processing.
+ * Supports asynchronous processing once a
+ * {@link FinagleAsynchronousContext} has been installed by the service.
+ *
+ * Everything is built on first use: headers are a live view of the Netty
+ * request (see {@link NettyRequestHeaders}), and the URI info, attribute
+ * map and input stream aren't allocated unless something asks for them,
+ * so a body-less GET that reads a header or two costs very little.
  *
  * @author ed.peters
  *
@@ -33,77 +43,112 @@ import java.util.concurrent.TimeUnit;
  */
 public class InboundServiceRequest implements org.jboss.resteasy.spi.HttpRequest {
 
+    /*
+     * Used when the dispatcher can't deliver responses asynchronously
+     */
+    private static final ResteasyAsynchronousContext NOT_SUSPENDABLE =
+        new ResteasyAsynchronousContext() {
+            @Override
+            public boolean isSuspended() {
+                return false;
+            }
+
+            @Override
+            public ResteasyAsynchronousResponse getAsyncResponse() {
+                return null;
+            }
+
+            @Override
+            public ResteasyAsynchronousResponse suspend() {
+                throw new IllegalStateException("suspend not supported");
+            }
+
+            @Override
+            public ResteasyAsynchronousResponse suspend(long millis) {
+                throw new IllegalStateException("suspend not supported");
+            }
+
+            @Override
+            public ResteasyAsynchronousResponse suspend(long time,
+                                                        TimeUnit unit) {
+                throw new IllegalStateException("suspend not supported");
+            }
+        };
+
     private final HttpRequest nettyRequest;
-    private final Map<String,Object> attributeMap;
-    private final HttpHeaders jaxrsHeaders;
-    private final ResteasyUriInfo jaxrsUriInfo;
+    private final ChannelBuffer content;
+    private Map<String,Object> attributeMap;
+    private NettyRequestHeaders headerView;
+    private HttpHeaders jaxrsHeaders;
+    private ResteasyUriInfo jaxrsUriInfo;
     private InputStream overrideStream;
     private InputStream underlyingStream;
     private String preProcessedPath;
     private MultivaluedMap<String,String> rawFormParams;
     private MultivaluedMap<String,String> decodedFormParams;
+    private ResteasyAsynchronousContext asyncContext;
 
     public InboundServiceRequest(HttpRequest nettyRequest) {
         this.nettyRequest = nettyRequest;
-        this.jaxrsHeaders =
-                ServiceUtils.toHeaders(ServiceUtils.toMultimap(nettyRequest));
-        this.jaxrsUriInfo = (ResteasyUriInfo) ServiceUtils.toUriInfo(nettyRequest);
-        this.attributeMap = Maps.newHashMap();
-        this.overrideStream = null;
-        this.underlyingStream =
-                new ChannelBufferInputStream(nettyRequest.getContent());
+        this.content = nettyRequest.getContent();
+        this.asyncContext = NOT_SUSPENDABLE;
+    }
+
+    /**
+     * @param nettyRequest the request
+     * @param body stream over the request body, used instead of the Netty
+     *             request's content (e.g. for a chunked request whose body
+     *             is still arriving)
+     */
+    public InboundServiceRequest(HttpRequest nettyRequest, InputStream body) {
+        this.nettyRequest = nettyRequest;
+        this.content = null;
+        this.underlyingStream = Preconditions.checkNotNull(body, "body");
+        this.asyncContext = NOT_SUSPENDABLE;
     }
 
     @Override
     public Object getAttribute(String name) {
         Preconditions.checkNotNull(name, "name");
-        return this.attributeMap.get(name);
+        return this.attributeMap == null ? null : this.attributeMap.get(name);
     }
 
     @Override
     public void removeAttribute(String name) {
         Preconditions.checkNotNull(name, "name");
-        this.attributeMap.remove(name);
+        if (this.attributeMap != null) {
+            this.attributeMap.remove(name);
+        }
     }
 
     @Override
     public Enumeration<String> getAttributeNames() {
-        return null;
+        return Collections.enumeration(this.attributeMap == null
+                ? Collections.<String>emptySet()
+                : Sets.newHashSet(this.attributeMap.keySet()));
     }
 
     @Override
     public ResteasyAsynchronousContext getAsyncContext() {
-        return new ResteasyAsynchronousContext() {
-            @Override
-            public boolean isSuspended() {
-                return false;
-            }
-
-            @Override
-            public ResteasyAsynchronousResponse getAsyncResponse() {
-                return null;
-            }
-
-            @Override
-            public ResteasyAsynchronousResponse suspend() throws IllegalStateException {
-                return null;
-            }
-
-            @Override
-            public ResteasyAsynchronousResponse suspend(long millis) throws IllegalStateException {
-                return null;
-            }
+        return this.asyncContext;
+    }
 
-            @Override
-            public ResteasyAsynchronousResponse suspend(long time, TimeUnit unit) throws IllegalStateException {
-                return null;
-            }
-        };
+    /**
+     * Installs the context that will handle suspension of this request.
+     * Until this is called, requests can't be suspended.
+     * @param asyncContext the asynchronous context for this request
+     */
+    public void setAsyncContext(ResteasyAsynchronousContext asyncContext) {
+        this.asyncContext = Preconditions.checkNotNull(asyncContext,
+                "asyncContext");
     }
 
     @Override
     public void setAttribute(String name, Object value) {
         Preconditions.checkNotNull(name, "name");
+        if (this.attributeMap == null) {
+            this.attributeMap = Maps.newHashMap();
+        }
         this.attributeMap.put(name, value);
     }
 
@@ -129,12 +174,18 @@ public class InboundServiceRequest implements org.jboss.resteasy.spi.HttpRequest
 
     @Override
     public HttpHeaders getHttpHeaders() {
+        if (this.jaxrsHeaders == null) {
+            this.jaxrsHeaders = new ResteasyHttpHeaders(getMutableHeaders());
+        }
         return this.jaxrsHeaders;
     }
 
     @Override
     public MultivaluedMap<String, String> getMutableHeaders() {
-        return null;
+        if (this.headerView == null) {
+            this.headerView = new NettyRequestHeaders(this.nettyRequest);
+        }
+        return this.headerView;
     }
 
     @Override
@@ -142,9 +193,13 @@ public class InboundServiceRequest implements org.jboss.resteasy.spi.HttpRequest
         // this is the same way RestEASY implements this on top of
         // HttpServletRequests: as a temporary override of the underlying
         // input stream
-        return this.overrideStream == null
-                ? this.underlyingStream
-                : this.overrideStream;
+        if (this.overrideStream != null) {
+            return this.overrideStream;
+        }
+        if (this.underlyingStream == null) {
+            this.underlyingStream = new ContentInputStream(this.content);
+        }
+        return this.underlyingStream;
     }
 
     @Override
@@ -154,7 +209,11 @@ public class InboundServiceRequest implements org.jboss.resteasy.spi.HttpRequest
 
     @Override
     public ResteasyUriInfo getUri() {
-        return jaxrsUriInfo;
+        if (this.jaxrsUriInfo == null) {
+            this.jaxrsUriInfo =
+                    (ResteasyUriInfo) ServiceUtils.toUriInfo(this.nettyRequest);
+        }
+        return this.jaxrsUriInfo;
     }
 
     @Override
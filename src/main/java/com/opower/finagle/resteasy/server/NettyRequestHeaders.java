@@ -0,0 +1,16 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.handler.codec.http.HttpMessage;
+
+/**
+ * Live view of the headers of a Netty request, used as the JAX-RS request
+ * headers of an {@link InboundServiceRequest}.
+ *
+ * @author ed.peters
+ */
+public class NettyRequestHeaders extends AbstractNettyHeaders<String> {
+
+    public NettyRequestHeaders(HttpMessage nettyMessage) {
+        super(nettyMessage);
+    }
+}
@@ -1,6 +1,12 @@
 package com.opower.finagle.resteasy.server;
 
-import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.opower.finagle.resteasy.util.EntityTags;
+import com.twitter.util.Promise;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponse;
@@ -11,7 +17,12 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.NewCookie;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
 
 /**
@@ -19,6 +30,24 @@ import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
  * Converts Resteasy's {@link org.jboss.resteasy.spi.HttpResponse} to a
  * Netty {@link org.jboss.netty.handler.codec.http.HttpResponse}.
  *
+ * By default the whole entity is buffered.  A streaming response instead
+ * switches to chunked transfer encoding once the entity outgrows a
+ * threshold (see {@link ChunkedResponseStream}); the caller must then
+ * {@link #finish()} the response after the dispatcher is done with it.
+ *
+ * The entity buffer isn't allocated until something is written, by which
+ * time Resteasy has matched the resource method; given a
+ * {@link ResponseSizeEstimator}, the buffer starts out at the method's
+ * typical response size, and {@link #finish()} records the actual size.
+ *
+ * Given a {@link ResponseCompressor}, {@link #finish()} also compresses a
+ * buffered entity for clients that accept it.
+ *
+ * With entity tagging on, {@link #finish()} gives a buffered 200 a strong
+ * ETag (a hash of the entity, computed as it's written) unless the
+ * resource supplied one, and turns it into a 304 (Not Modified) with no
+ * entity if the request's If-None-Match matches.
+ *
  * @author ed.peters
  */
 public class OutboundServiceResponse implements org.jboss.resteasy.spi.HttpResponse {
@@ -27,24 +56,232 @@ public class OutboundServiceResponse implements org.jboss.resteasy.spi.HttpRespo
     // DefaultHttpResponse, but then we couldn't implement the
     // JBoss interface because of all the method name clashes
     // TODO do we want cookie support? does netty even allow it?
-    // TODO no clue how to get #isCommitted() from netty
-    // TODO how would we support chunking?
 
     private final HttpResponse nettyResponse;
     private final MultivaluedMap<String,Object> headerWrapper;
+    private final ChunkedResponseStream chunkedStream;
     private OutputStream outputStream;
+    private ResponseSizeEstimator sizeEstimator;
+    private org.jboss.resteasy.spi.HttpRequest request;
+    private ResponseCompressor compressor;
+    private String acceptEncoding;
+    private boolean entityTagging;
+    private String ifNoneMatch;
+    private Hasher entityHasher;
 
     public OutboundServiceResponse(HttpVersion version) {
-        this.nettyResponse = new DefaultHttpResponse(version, OK);
-        this.nettyResponse.setChunked(false);
-        this.nettyResponse.setContent(ChannelBuffers.dynamicBuffer());
+        this.nettyResponse = newNettyResponse(version);
         this.headerWrapper = new NettyHeaderWrapper(this.nettyResponse);
-        this.outputStream =
-                new ChannelBufferOutputStream(this.nettyResponse.getContent());
+        this.chunkedStream = null;
+        this.outputStream = new BufferedEntityStream();
     }
 
+    /**
+     * Creates a streaming response
+     * @param version the HTTP version of the request
+     * @param promise the request's promise, which is satisfied as soon as
+     *                the response is committed
+     * @param threshold size (in bytes) at which the entity starts being
+     *                  streamed, and the size of each chunk after that
+     */
+    public OutboundServiceResponse(HttpVersion version,
+                                   Promise<HttpResponse> promise,
+                                   int threshold) {
+        this(version, promise, threshold, null);
+    }
+
+    /**
+     * Creates a streaming response whose chunks are pooled
+     * @param version the HTTP version of the request
+     * @param promise the request's promise, which is satisfied as soon as
+     *                the response is committed
+     * @param threshold size (in bytes) at which the entity starts being
+     *                  streamed, and the size of each chunk after that
+     * @param pool where chunk buffers come from and go back to, or null
+     *             to allocate a new buffer for each chunk
+     */
+    public OutboundServiceResponse(HttpVersion version,
+                                   Promise<HttpResponse> promise,
+                                   int threshold,
+                                   ResponseBufferPool pool) {
+        Preconditions.checkNotNull(promise, "promise");
+        Preconditions.checkArgument(threshold > 0,
+                "invalid threshold " + threshold);
+        this.nettyResponse = newNettyResponse(version);
+        this.headerWrapper = new NettyHeaderWrapper(this.nettyResponse);
+        this.chunkedStream = new ChunkedResponseStream(this.nettyResponse,
+                promise, threshold, this, pool);
+        this.outputStream = this.chunkedStream;
+    }
+
+    private static HttpResponse newNettyResponse(HttpVersion version) {
+        HttpResponse response = new DefaultHttpResponse(version, OK);
+        response.setChunked(false);
+        response.setContent(ChannelBuffers.EMPTY_BUFFER);
+        return response;
+    }
+
+    /**
+     * Sizes the entity buffer from the running average for the resource
+     * method that handles the request
+     * @param estimator the running averages
+     * @param request the request this is the response to
+     */
+    public void setSizeEstimator(ResponseSizeEstimator estimator,
+                                 org.jboss.resteasy.spi.HttpRequest request) {
+        this.sizeEstimator = Preconditions.checkNotNull(estimator, "estimator");
+        this.request = Preconditions.checkNotNull(request, "request");
+    }
+
+    /**
+     * Compresses the entity when the response is finished, if it's buffered
+     * @param compressor decides whether and how to compress
+     * @param acceptEncoding the request's Accept-Encoding header (may be
+     *                       null)
+     */
+    public void setCompressor(ResponseCompressor compressor,
+                              String acceptEncoding) {
+        this.compressor = Preconditions.checkNotNull(compressor, "compressor");
+        this.acceptEncoding = acceptEncoding;
+    }
+
+    /**
+     * Tags the entity and answers conditional requests when the response
+     * is finished, if it's buffered
+     * @param ifNoneMatch the request's If-None-Match header (may be null)
+     */
+    public void setEntityTagging(String ifNoneMatch) {
+        this.entityTagging = true;
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    /**
+     * @return how many bytes to allocate for the entity
+     */
+    int getSizeHint() {
+        return this.sizeEstimator == null
+                ? ResponseSizeEstimator.DEFAULT_ESTIMATE
+                : this.sizeEstimator.estimate(
+                        ResponseSizeEstimator.getResourceMethod(this.request));
+    }
+
+    /**
+     * @return the response to send (for a streaming response that's been
+     * committed, a Finagle response whose body is still being written)
+     */
     public HttpResponse getNettyResponse() {
-        return this.nettyResponse;
+        return this.chunkedStream == null
+                ? this.nettyResponse
+                : this.chunkedStream.getResponse();
+    }
+
+    /**
+     * Records the size of a successful response, and sends the rest of a
+     * streaming response (sending does nothing if the response is
+     * buffered, or was never committed).  A buffered entity is then tagged
+     * and compressed, if those are turned on.
+     * @throws IOException if the client went away, or compression failed
+     */
+    public void finish() throws IOException {
+        recordSize();
+        if (this.chunkedStream != null) {
+            this.chunkedStream.finish();
+        }
+        if (isCommitted()) {
+            return;
+        }
+        if (this.entityTagging) {
+            tagEntity();
+        }
+        if (this.compressor != null) {
+            this.compressor.compress(this.acceptEncoding, this.nettyResponse);
+        }
+    }
+
+    /*
+     * Sets the ETag of a 200, and drops the entity if the client already
+     * has it
+     */
+    private void tagEntity() {
+        if (!OK.equals(this.nettyResponse.getStatus())) {
+            return;
+        }
+        String tag = this.nettyResponse.getHeader(ETAG);
+        if (tag == null) {
+            // the entity of a streaming response that never got as far as
+            // streaming wasn't hashed on the way in
+            HashCode hash = this.entityHasher == null
+                    ? hashOf(this.nettyResponse.getContent())
+                    : this.entityHasher.hash();
+            tag = EntityTags.fromHash(hash);
+            this.nettyResponse.setHeader(ETAG, tag);
+        }
+        if (EntityTags.matches(this.ifNoneMatch, tag)) {
+            this.nettyResponse.setStatus(NOT_MODIFIED);
+            this.nettyResponse.setContent(ChannelBuffers.EMPTY_BUFFER);
+            this.nettyResponse.removeHeader(CONTENT_LENGTH);
+            this.nettyResponse.removeHeader(CONTENT_TYPE);
+        }
+    }
+
+    private static HashCode hashOf(ChannelBuffer content) {
+        Hasher hasher = newEntityHasher();
+        if (content.hasArray()) {
+            hasher.putBytes(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        else {
+            byte [] bytes = new byte[content.readableBytes()];
+            content.getBytes(content.readerIndex(), bytes);
+            hasher.putBytes(bytes);
+        }
+        return hasher.hash();
+    }
+
+    /*
+     * Entity tags only need to tell versions of an entity apart, so a fast
+     * non-cryptographic hash will do
+     */
+    private static Hasher newEntityHasher() {
+        return Hashing.murmur3_128().newHasher();
+    }
+
+    /*
+     * Error responses would drag the average down, so only successful
+     * responses count
+     */
+    private void recordSize() {
+        if (this.sizeEstimator == null
+                || this.nettyResponse.getStatus().getCode() / 100 != 2) {
+            return;
+        }
+        Method method = ResponseSizeEstimator.getResourceMethod(this.request);
+        if (method != null) {
+            this.sizeEstimator.record(method, this.chunkedStream == null
+                    ? this.nettyResponse.getContent().readableBytes()
+                    : this.chunkedStream.getBytesWritten());
+        }
+    }
+
+    /**
+     * Cuts off a streaming response that failed after it was committed
+     */
+    public void abort(Throwable cause) {
+        if (this.chunkedStream != null) {
+            this.chunkedStream.abort(cause);
+        }
+    }
+
+    /**
+     * Keeps the whole entity in memory from now on, even if this is a
+     * streaming response (used once a request is suspended, since it may
+     * be resumed on a thread that mustn't block)
+     */
+    public void disableStreaming() {
+        if (this.chunkedStream != null) {
+            this.chunkedStream.bufferOnly();
+        }
     }
 
     @Override
@@ -92,7 +329,7 @@ public class OutboundServiceResponse implements org.jboss.resteasy.spi.HttpRespo
 
     @Override
     public boolean isCommitted() {
-        return false;
+        return this.chunkedStream != null && this.chunkedStream.isCommitted();
     }
 
     @Override
@@ -102,4 +339,44 @@ public class OutboundServiceResponse implements org.jboss.resteasy.spi.HttpRespo
         // we can
         this.nettyResponse.clearHeaders();
     }
+
+    /**
+     * Writes to the response content, allocating it on the first write (and
+     * hashing what's written, if the entity will be tagged)
+     */
+    private class BufferedEntityStream extends OutputStream {
+
+        private ChannelBuffer content;
+
+        @Override
+        public void write(int b) {
+            content().writeByte(b);
+            if (entityTagging) {
+                entityHasher().putByte((byte) b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            content().writeBytes(b, off, len);
+            if (entityTagging) {
+                entityHasher().putBytes(b, off, len);
+            }
+        }
+
+        private Hasher entityHasher() {
+            if (entityHasher == null) {
+                entityHasher = newEntityHasher();
+            }
+            return entityHasher;
+        }
+
+        private ChannelBuffer content() {
+            if (this.content == null) {
+                this.content = ChannelBuffers.dynamicBuffer(getSizeHint());
+                nettyResponse.setContent(this.content);
+            }
+            return this.content;
+        }
+    }
 }
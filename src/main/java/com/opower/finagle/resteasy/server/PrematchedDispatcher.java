@@ -0,0 +1,67 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.resteasy.core.ResourceInvoker;
+import org.jboss.resteasy.core.SynchronousDispatcher;
+import org.jboss.resteasy.spi.HttpRequest;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+
+/**
+ * Dispatcher that can match a request to its resource method ahead of
+ * dispatch (e.g. to pick the request's executor, see
+ * {@link BulkheadRouter}), and then reuses that match instead of looking
+ * the request up again when it's invoked.  A request that doesn't match
+ * anything fails when it's invoked, as it would have anyway.
+ *
+ * @author ed.peters
+ */
+public class PrematchedDispatcher extends SynchronousDispatcher {
+
+    /*
+     * Request attribute holding the match: either the invoker, or the
+     * exception that the lookup failed with
+     */
+    private static final String MATCH_ATTRIBUTE =
+            PrematchedDispatcher.class.getName() + ".match";
+
+    public PrematchedDispatcher(ResteasyProviderFactory providerFactory) {
+        super(providerFactory);
+    }
+
+    /**
+     * Matches a request to a resource method, and keeps the result in the
+     * request for when it's invoked
+     * @param request a request that hasn't been dispatched yet
+     * @return the matching invoker, or null if the request doesn't match
+     * anything
+     */
+    public ResourceInvoker match(HttpRequest request) {
+        try {
+            ResourceInvoker invoker = super.getInvoker(request);
+            request.setAttribute(MATCH_ATTRIBUTE, invoker);
+            return invoker;
+        }
+        catch (RuntimeException e) {
+            request.setAttribute(MATCH_ATTRIBUTE, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the invoker the request was matched to by {@link #match},
+     * if it was, and a fresh lookup otherwise
+     * @throws RuntimeException if the request doesn't match anything (e.g.
+     * a {@link javax.ws.rs.NotFoundException})
+     */
+    @Override
+    public ResourceInvoker getInvoker(HttpRequest request) {
+        Object match = request.getAttribute(MATCH_ATTRIBUTE);
+        if (match == null) {
+            return super.getInvoker(request);
+        }
+        request.removeAttribute(MATCH_ATTRIBUTE);
+        if (match instanceof RuntimeException) {
+            throw (RuntimeException) match;
+        }
+        return (ResourceInvoker) match;
+    }
+}
@@ -0,0 +1,26 @@
+package com.opower.finagle.resteasy.server;
+
+/**
+ * Determines what a {@link ResteasyFinagleService} does when its executor
+ * refuses a request (e.g. because its queue is full).
+ *
+ * @author ed.peters
+ */
+public enum RejectionPolicy {
+
+    /**
+     * Answer the new request immediately with a 503 and a Retry-After
+     * header (the default).
+     */
+    REJECT_NEW,
+
+    /**
+     * Answer the oldest queued request with a 503 and queue the new one in
+     * its place, on the theory that the oldest caller is the most likely to
+     * have given up already.  Only possible when the executor is a
+     * {@link java.util.concurrent.ThreadPoolExecutor}; otherwise behaves
+     * like {@link #REJECT_NEW}.
+     */
+    DROP_OLDEST
+
+}
@@ -0,0 +1,166 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.finagle.Service;
+import com.twitter.util.Future;
+import com.twitter.util.FutureEventListener;
+import com.twitter.util.Promise;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses identical GET requests that arrive while the first of them is
+ * still being handled ("single flight"): only the first is dispatched, and
+ * the others get copies of its response.  Requests are identical if they
+ * have the same URI and the same values for a set of request headers (by
+ * default {@link #DEFAULT_HEADERS}, which covers content negotiation,
+ * credentials and conditional requests).
+ *
+ * Streamed responses can't be copied, so requests waiting on one are
+ * dispatched on their own once it's sent; the same goes for requests
+ * waiting on one that failed (e.g. because its client went away).
+ *
+ * @author ed.peters
+ */
+public class RequestCoalescer {
+
+    /**
+     * Request headers that distinguish otherwise identical requests, unless
+     * others are given
+     */
+    public static final List<String> DEFAULT_HEADERS = ImmutableList.of(
+            HttpHeaders.Names.ACCEPT,
+            HttpHeaders.Names.ACCEPT_ENCODING,
+            HttpHeaders.Names.ACCEPT_LANGUAGE,
+            HttpHeaders.Names.AUTHORIZATION,
+            HttpHeaders.Names.COOKIE,
+            HttpHeaders.Names.IF_NONE_MATCH);
+
+    private final List<String> headers;
+    private final ConcurrentMap<List<Object>,Promise<HttpResponse>> inFlight;
+    private final AtomicLong coalesced;
+
+    public RequestCoalescer() {
+        this(DEFAULT_HEADERS);
+    }
+
+    /**
+     * @param headers names of the request headers that must match for two
+     *                requests to be coalesced
+     */
+    public RequestCoalescer(List<String> headers) {
+        this.headers = ImmutableList.copyOf(
+                Preconditions.checkNotNull(headers, "headers"));
+        this.inFlight = Maps.newConcurrentMap();
+        this.coalesced = new AtomicLong();
+    }
+
+    public List<String> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @return the number of requests answered with a copy of another
+     * request's response
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    /**
+     * @return the number of distinct requests being handled
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Dispatches a request, unless an identical one is already in flight
+     * @param request an inbound request
+     * @param service dispatches requests that can't be coalesced
+     * @return the response
+     */
+    public Future<HttpResponse> apply(
+            final HttpRequest request,
+            final Service<HttpRequest,HttpResponse> service) {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            return service.apply(request);
+        }
+        final List<Object> key = keyFor(request);
+        final Promise<HttpResponse> shared = new Promise<HttpResponse>();
+        Promise<HttpResponse> leader = this.inFlight.putIfAbsent(key, shared);
+        if (leader == null) {
+            shared.addEventListener(new FutureEventListener<HttpResponse>() {
+                @Override
+                public void onSuccess(HttpResponse response) {
+                    inFlight.remove(key, shared);
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    inFlight.remove(key, shared);
+                }
+            });
+            // interrupting the first caller's future cancels its request
+            // (and sends the others off on their own), but interrupting a
+            // copy doesn't
+            Future<HttpResponse> response = service.apply(request);
+            response.proxyTo(shared);
+            return response;
+        }
+        final Promise<HttpResponse> copy = new Promise<HttpResponse>();
+        leader.addEventListener(new FutureEventListener<HttpResponse>() {
+            @Override
+            public void onSuccess(HttpResponse response) {
+                if (response.isChunked()) {
+                    copy.become(service.apply(request));
+                }
+                else {
+                    coalesced.incrementAndGet();
+                    copy.setValue(copyOf(request, response));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                copy.become(service.apply(request));
+            }
+        });
+        return copy;
+    }
+
+    private List<Object> keyFor(HttpRequest request) {
+        List<Object> key = Lists.newArrayListWithCapacity(this.headers.size() + 1);
+        key.add(request.getUri());
+        for (String name : this.headers) {
+            key.add(request.getHeaders(name));
+        }
+        return key;
+    }
+
+    /*
+     * The entity bytes are shared; Netty doesn't modify a buffered entity
+     * when it writes it
+     */
+    private static HttpResponse copyOf(HttpRequest request,
+                                       HttpResponse response) {
+        HttpResponse copy = new DefaultHttpResponse(
+                request.getProtocolVersion(), response.getStatus());
+        for (Map.Entry<String,String> header : response.getHeaders()) {
+            copy.addHeader(header.getKey(), header.getValue());
+        }
+        copy.setContent(response.getContent().duplicate());
+        return copy;
+    }
+}
@@ -0,0 +1,112 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Reuses response buffers across requests.  Buffers are dynamic buffers
+ * whose capacity is a power of two, pooled separately for each capacity.
+ *
+ * A buffer may only be returned to the pool once nothing else can touch
+ * it.  Netty keeps the content of a buffered response until it's been
+ * written, and doesn't tell us when that is, so only the chunks of
+ * streamed responses are pooled (see
+ * {@link ResteasyFinagleService#setStreamingThreshold}): Finagle doesn't
+ * take the next chunk until it's finished writing the previous one.
+ *
+ * @author ed.peters
+ */
+public class ResponseBufferPool {
+
+    /**
+     * Largest buffer that will be pooled
+     */
+    public static final int MAX_POOLED_CAPACITY = 4 * 1024 * 1024;
+
+    private static final int SIZE_CLASSES =
+            Integer.numberOfTrailingZeros(MAX_POOLED_CAPACITY) + 1;
+
+    private final int maxPerSize;
+    private final List<Queue<ChannelBuffer>> pools;
+    private final AtomicIntegerArray counts;
+
+    /**
+     * @param maxPerSize most buffers of each capacity to keep around
+     */
+    public ResponseBufferPool(int maxPerSize) {
+        Preconditions.checkArgument(maxPerSize > 0,
+                "invalid maxPerSize " + maxPerSize);
+        this.maxPerSize = maxPerSize;
+        this.pools = Lists.newArrayListWithCapacity(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            this.pools.add(new ConcurrentLinkedQueue<ChannelBuffer>());
+        }
+        this.counts = new AtomicIntegerArray(SIZE_CLASSES);
+    }
+
+    /**
+     * @param capacity minimum capacity needed
+     * @return an empty dynamic buffer, from the pool if there's one of the
+     * right size
+     */
+    public ChannelBuffer acquire(int capacity) {
+        Preconditions.checkArgument(capacity >= 0,
+                "invalid capacity " + capacity);
+        if (capacity > MAX_POOLED_CAPACITY) {
+            return ChannelBuffers.dynamicBuffer(capacity);
+        }
+        int sizeClass = sizeClass(capacity);
+        ChannelBuffer buffer = this.pools.get(sizeClass).poll();
+        if (buffer == null) {
+            return ChannelBuffers.dynamicBuffer(1 << sizeClass);
+        }
+        this.counts.decrementAndGet(sizeClass);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer (which should have come from {@link #acquire}) to
+     * the pool, unless it's grown too large or the pool is full
+     */
+    public void release(ChannelBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity > MAX_POOLED_CAPACITY
+                || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (this.counts.incrementAndGet(sizeClass) > this.maxPerSize) {
+            this.counts.decrementAndGet(sizeClass);
+            return;
+        }
+        this.pools.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * @return the number of buffers currently in the pool
+     */
+    public int getPooledCount() {
+        int total = 0;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            total += this.counts.get(i);
+        }
+        return total;
+    }
+
+    /*
+     * Smallest power of two that's at least the supplied capacity
+     */
+    private static int sizeClass(int capacity) {
+        return capacity <= 1
+                ? 0
+                : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+}
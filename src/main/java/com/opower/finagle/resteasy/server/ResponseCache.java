@@ -0,0 +1,411 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.opower.finagle.resteasy.util.EntityTags;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.AGE;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.AUTHORIZATION;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.PRAGMA;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.VARY;
+
+/**
+ * Keeps fully serialized responses to GET requests in memory, so that
+ * repeated reads of the same resource are answered without dispatching
+ * them (or even handing them to an executor).
+ *
+ * A response is kept if it's a buffered 200 without cookies, and either
+ * its resource method is annotated with {@link CachedResponse} or its
+ * Cache-Control header allows shared caching (s-maxage or max-age, and
+ * none of no-store, no-cache or private).  Entries are keyed by request
+ * URI, with one variant per combination of the request headers the
+ * response's Vary header names.  Requests with credentials are never
+ * cached, and requests that send "Cache-Control: no-cache" skip the
+ * lookup.  Any other method (POST, PUT, DELETE...) handled for a URI
+ * drops the entries for that URI.  A hit whose ETag matches the request's
+ * If-None-Match is answered with a 304 (Not Modified).
+ *
+ * The cache is bounded by the total size of the stored entities, and
+ * evicts the least recently used URIs first.
+ *
+ * @author ed.peters
+ */
+public class ResponseCache {
+
+    /*
+     * Most variants kept per URI (the oldest is dropped beyond that)
+     */
+    private static final int MAX_VARIANTS = 8;
+
+    /*
+     * Cached marker for resource methods that aren't annotated
+     */
+    private static final Long NOT_ANNOTATED = Long.valueOf(-1L);
+
+    private static final Joiner COMMA_JOINER = Joiner.on(',');
+
+    private final Cache<String,Variants> entries;
+    private final ConcurrentMap<Method,Long> annotatedMaxAges;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * @param maxBytes total size of the response entities to keep
+     */
+    public ResponseCache(long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "invalid maxBytes " + maxBytes);
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String,Variants>() {
+                    @Override
+                    public int weigh(String uri, Variants variants) {
+                        return variants.weight;
+                    }
+                })
+                .<String,Variants>build();
+        this.annotatedMaxAges = Maps.newConcurrentMap();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of cacheable requests that had to be dispatched
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the number of URIs with cached responses
+     */
+    public long getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * Drops every cached response
+     */
+    public void invalidateAll() {
+        this.entries.invalidateAll();
+    }
+
+    /**
+     * @param request an inbound request
+     * @return a fresh copy of the cached response to the request, or null
+     * if it has to be dispatched
+     */
+    public HttpResponse lookup(HttpRequest request) {
+        if (!isCacheable(request)
+                || contains(request.getHeaders(CACHE_CONTROL), "no-cache")
+                || contains(request.getHeaders(PRAGMA), "no-cache")) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Variants variants = this.entries.getIfPresent(request.getUri());
+        Variant variant = variants == null ? null : variants.find(request, now);
+        if (variant == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return variant.newResponse(request.getProtocolVersion(), now,
+                EntityTags.matches(request.getHeader(IF_NONE_MATCH),
+                        variant.tag));
+    }
+
+    /**
+     * Stores the response to a GET request, if it may be cached, or drops
+     * the cached responses for the URI of any other kind of request
+     * @param request the request that was dispatched
+     * @param resourceMethod the resource method that handled it (may be
+     *                       null)
+     * @param response the response about to be sent
+     */
+    public void update(HttpRequest request,
+                       Method resourceMethod,
+                       HttpResponse response) {
+        HttpMethod method = request.getMethod();
+        if (!HttpMethod.GET.equals(method)
+                && !HttpMethod.HEAD.equals(method)
+                && !HttpMethod.OPTIONS.equals(method)
+                && !HttpMethod.TRACE.equals(method)) {
+            this.entries.invalidate(request.getUri());
+            return;
+        }
+        if (!isCacheable(request) || !isStorable(response)) {
+            return;
+        }
+        long maxAgeMillis = maxAgeMillis(resourceMethod, response);
+        if (maxAgeMillis <= 0L) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Variant variant = new Variant(request, response, now, now + maxAgeMillis);
+        // racing updates for the same URI may lose a variant, which only
+        // costs a later miss
+        Variants current = this.entries.getIfPresent(request.getUri());
+        this.entries.put(request.getUri(), current == null
+                ? new Variants(ImmutableList.of(variant))
+                : current.with(variant, now));
+    }
+
+    private static boolean isCacheable(HttpRequest request) {
+        return HttpMethod.GET.equals(request.getMethod())
+                && !request.containsHeader(AUTHORIZATION);
+    }
+
+    private static boolean isStorable(HttpResponse response) {
+        if (!HttpResponseStatus.OK.equals(response.getStatus())
+                || response.isChunked()
+                || response.containsHeader(SET_COOKIE)
+                || contains(response.getHeaders(VARY), "*")) {
+            return false;
+        }
+        List<String> cacheControl = response.getHeaders(CACHE_CONTROL);
+        return !contains(cacheControl, "no-store")
+                && !contains(cacheControl, "no-cache")
+                && !contains(cacheControl, "private");
+    }
+
+    /*
+     * The annotation takes precedence over Cache-Control, and s-maxage
+     * (meant for shared caches like this one) over max-age
+     */
+    private long maxAgeMillis(Method resourceMethod, HttpResponse response) {
+        if (resourceMethod != null) {
+            Long annotated = this.annotatedMaxAges.get(resourceMethod);
+            if (annotated == null) {
+                annotated = findAnnotatedMaxAge(resourceMethod);
+                this.annotatedMaxAges.putIfAbsent(resourceMethod, annotated);
+            }
+            if (annotated.longValue() >= 0L) {
+                return annotated.longValue();
+            }
+        }
+        long maxAge = -1L;
+        for (String directive : directives(response.getHeaders(CACHE_CONTROL))) {
+            if (directive.startsWith("s-maxage=")) {
+                return parseSeconds(directive.substring("s-maxage=".length()));
+            }
+            if (directive.startsWith("max-age=")) {
+                maxAge = parseSeconds(directive.substring("max-age=".length()));
+            }
+        }
+        return maxAge;
+    }
+
+    private static Long findAnnotatedMaxAge(Method method) {
+        CachedResponse annotation = method.getAnnotation(CachedResponse.class);
+        for (Class<?> type : method.getDeclaringClass().getInterfaces()) {
+            if (annotation != null) {
+                break;
+            }
+            try {
+                annotation = type.getMethod(method.getName(),
+                        method.getParameterTypes())
+                        .getAnnotation(CachedResponse.class);
+            }
+            catch (NoSuchMethodException e) {
+                continue;
+            }
+        }
+        return annotation == null
+                ? NOT_ANNOTATED
+                : Long.valueOf(TimeUnit.SECONDS.toMillis(annotation.maxAge()));
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static List<String> directives(List<String> headers) {
+        List<String> directives = Lists.newArrayList();
+        for (String header : headers) {
+            for (String directive : header.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.ENGLISH);
+                if (directive.length() > 0) {
+                    directives.add(directive);
+                }
+            }
+        }
+        return directives;
+    }
+
+    private static boolean contains(List<String> headers, String directive) {
+        for (String value : directives(headers)) {
+            if (value.equals(directive) || value.startsWith(directive + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String headerValue(HttpRequest request, String name) {
+        List<String> values = request.getHeaders(name);
+        return values.isEmpty() ? null : COMMA_JOINER.join(values);
+    }
+
+    /**
+     * The cached responses for one URI (immutable, so that lookups don't
+     * need to lock)
+     */
+    private static final class Variants {
+
+        private final List<Variant> variants;
+        private final int weight;
+
+        Variants(List<Variant> variants) {
+            this.variants = variants;
+            int total = 0;
+            for (Variant variant : variants) {
+                total += variant.weight;
+            }
+            this.weight = total;
+        }
+
+        Variant find(HttpRequest request, long now) {
+            for (Variant variant : this.variants) {
+                if (variant.expiresMillis > now && variant.matches(request)) {
+                    return variant;
+                }
+            }
+            return null;
+        }
+
+        /*
+         * Replaces the variant for the same request headers (and any that
+         * have expired) with the new one
+         */
+        Variants with(Variant added, long now) {
+            List<Variant> kept = Lists.newArrayList(added);
+            for (Variant variant : this.variants) {
+                if (kept.size() < MAX_VARIANTS
+                        && variant.expiresMillis > now
+                        && !variant.sameVariantAs(added)) {
+                    kept.add(variant);
+                }
+            }
+            return new Variants(ImmutableList.copyOf(kept));
+        }
+    }
+
+    /**
+     * One cached response, with the request header values it was selected
+     * by
+     */
+    private static final class Variant {
+
+        private final List<String> varyNames;
+        private final List<String> varyValues;
+        private final HttpResponseStatus status;
+        private final List<Map.Entry<String,String>> headers;
+        private final ChannelBuffer content;
+        private final String tag;
+        private final long storedMillis;
+        private final long expiresMillis;
+        private final int weight;
+
+        Variant(HttpRequest request,
+                HttpResponse response,
+                long storedMillis,
+                long expiresMillis) {
+            this.varyNames = Lists.newArrayList();
+            this.varyValues = Lists.newArrayList();
+            for (String name : directives(response.getHeaders(VARY))) {
+                this.varyNames.add(name);
+                this.varyValues.add(headerValue(request, name));
+            }
+            this.status = response.getStatus();
+            this.headers = ImmutableList.copyOf(response.getHeaders());
+            // buffered entities aren't written to once they're sent, so
+            // the bytes can be shared without copying
+            this.content = response.getContent().duplicate();
+            this.tag = response.getHeader(ETAG);
+            this.storedMillis = storedMillis;
+            this.expiresMillis = expiresMillis;
+            int size = this.content.readableBytes();
+            for (Map.Entry<String,String> header : this.headers) {
+                size += header.getKey().length() + header.getValue().length();
+            }
+            this.weight = size;
+        }
+
+        boolean matches(HttpRequest request) {
+            for (int i = 0; i < this.varyNames.size(); i++) {
+                if (!Objects.equal(this.varyValues.get(i),
+                        headerValue(request, this.varyNames.get(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean sameVariantAs(Variant other) {
+            return this.varyNames.equals(other.varyNames)
+                    && this.varyValues.equals(other.varyValues);
+        }
+
+        HttpResponse newResponse(HttpVersion version,
+                                 long now,
+                                 boolean notModified) {
+            HttpResponse response = new DefaultHttpResponse(version, notModified
+                    ? HttpResponseStatus.NOT_MODIFIED
+                    : this.status);
+            for (Map.Entry<String,String> header : this.headers) {
+                response.addHeader(header.getKey(), header.getValue());
+            }
+            response.setHeader(AGE,
+                    TimeUnit.MILLISECONDS.toSeconds(now - this.storedMillis));
+            if (notModified) {
+                response.removeHeader(CONTENT_ENCODING);
+                response.removeHeader(CONTENT_LENGTH);
+                response.removeHeader(CONTENT_TYPE);
+            }
+            else {
+                response.setContent(this.content.duplicate());
+            }
+            return response;
+        }
+    }
+}
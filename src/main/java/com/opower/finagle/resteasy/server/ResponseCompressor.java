@@ -0,0 +1,291 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.opower.finagle.resteasy.util.ContentCoding;
+import com.opower.finagle.resteasy.util.EntityTags;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.VARY;
+
+/**
+ * Compresses buffered response entities for clients that accept it
+ * (gzip is preferred over deflate).  Small entities aren't worth the CPU,
+ * and neither are entities that are compressed already (images and the
+ * like), so only textual and structured media types (text, JSON, XML,
+ * JavaScript, Smile and forms) at or above a threshold are compressed.
+ * Streamed responses are sent as they are.
+ *
+ * Optionally, the compressed bytes of cacheable responses (those with an
+ * ETag, or a Cache-Control header that allows caching) are kept, keyed by
+ * a digest of the original entity, so that serving the same entity again
+ * only costs the digest.
+ *
+ * @author ed.peters
+ */
+public class ResponseCompressor {
+
+    /**
+     * Default size below which entities aren't compressed
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final int threshold;
+    private final int level;
+    private final Cache<CacheKey,ChannelBuffer> cache;
+
+    /**
+     * Creates a compressor that doesn't cache
+     * @param threshold smallest entity (in bytes) to compress
+     * @param level compression level, from {@link Deflater#BEST_SPEED} to
+     *              {@link Deflater#BEST_COMPRESSION}
+     */
+    public ResponseCompressor(int threshold, int level) {
+        this(threshold, level, 0L);
+    }
+
+    /**
+     * @param threshold smallest entity (in bytes) to compress
+     * @param level compression level, from {@link Deflater#BEST_SPEED} to
+     *              {@link Deflater#BEST_COMPRESSION}
+     * @param maxCacheBytes total size of the compressed entities to keep
+     *                      for cacheable responses, or 0 for no cache
+     */
+    public ResponseCompressor(int threshold, int level, long maxCacheBytes) {
+        Preconditions.checkArgument(threshold >= 0,
+                "invalid threshold " + threshold);
+        Preconditions.checkArgument(level >= Deflater.BEST_SPEED
+                && level <= Deflater.BEST_COMPRESSION,
+                "invalid level " + level);
+        Preconditions.checkArgument(maxCacheBytes >= 0,
+                "invalid maxCacheBytes " + maxCacheBytes);
+        this.threshold = threshold;
+        this.level = level;
+        this.cache = maxCacheBytes == 0
+                ? null
+                : CacheBuilder.newBuilder()
+                        .maximumWeight(maxCacheBytes)
+                        .weigher(new Weigher<CacheKey,ChannelBuffer>() {
+                            @Override
+                            public int weigh(CacheKey key, ChannelBuffer value) {
+                                return value.readableBytes();
+                            }
+                        })
+                        .<CacheKey,ChannelBuffer>build();
+    }
+
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * @return the number of compressed entities cached
+     */
+    public long getCachedCount() {
+        return this.cache == null ? 0L : this.cache.size();
+    }
+
+    /**
+     * Compresses the content of a buffered response, if the client accepts
+     * a coding we support and the content is worth compressing
+     * @param acceptEncoding the request's Accept-Encoding header (may be
+     *                       null)
+     * @param response the response to send, which is modified in place
+     * @throws IOException if compression fails
+     */
+    public void compress(String acceptEncoding, HttpResponse response)
+            throws IOException {
+        ChannelBuffer content = response.getContent();
+        if (response.isChunked()
+                || content.readableBytes() < this.threshold
+                || content.readableBytes() == 0
+                || response.containsHeader(CONTENT_ENCODING)
+                || !isCompressible(response.getHeader(CONTENT_TYPE))) {
+            return;
+        }
+        // whatever we pick, a different Accept-Encoding might get another
+        response.addHeader(VARY, ACCEPT_ENCODING);
+        ContentCoding coding = negotiate(acceptEncoding);
+        if (coding == null) {
+            return;
+        }
+        ChannelBuffer compressed = null;
+        CacheKey key = null;
+        if (this.cache != null && isCacheable(response)) {
+            key = new CacheKey(coding, digest(content));
+            compressed = this.cache.getIfPresent(key);
+        }
+        if (compressed == null) {
+            compressed = coding.encode(content, this.level);
+            if (key != null) {
+                this.cache.put(key, compressed);
+            }
+        }
+        // cached buffers are shared, so each response reads a duplicate
+        response.setContent(compressed.duplicate());
+        response.setHeader(CONTENT_ENCODING, coding.getToken());
+        response.setHeader(CONTENT_LENGTH, compressed.readableBytes());
+        // the compressed bytes are a different entity, so need a different tag
+        String tag = response.getHeader(ETAG);
+        if (tag != null) {
+            response.setHeader(ETAG, EntityTags.withCoding(tag, coding));
+        }
+    }
+
+    /**
+     * @param acceptEncoding an Accept-Encoding header (may be null)
+     * @return the coding to use, or null to send the content as it is
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        ContentCoding best = null;
+        double bestQuality = 0.0;
+        double wildcard = 0.0;
+        EnumSet<ContentCoding> listed = EnumSet.noneOf(ContentCoding.class);
+        for (String value : acceptEncoding.split(",")) {
+            String [] parts = value.split(";");
+            String token = parts[0].trim();
+            double quality = quality(parts);
+            if ("*".equals(token)) {
+                wildcard = quality;
+                continue;
+            }
+            ContentCoding coding = ContentCoding.forToken(token);
+            if (coding == null) {
+                continue;
+            }
+            listed.add(coding);
+            if (isBetter(coding, quality, best, bestQuality)) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        // "*" stands for every coding that wasn't listed on its own
+        for (ContentCoding coding : EnumSet.complementOf(listed)) {
+            if (isBetter(coding, wildcard, best, bestQuality)) {
+                best = coding;
+                bestQuality = wildcard;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Codings the caller accepts equally are picked in the order we
+     * declare them
+     */
+    private static boolean isBetter(ContentCoding coding, double quality,
+                                    ContentCoding best, double bestQuality) {
+        return quality > bestQuality
+                || (quality == bestQuality && quality > 0.0
+                        && coding.ordinal() < best.ordinal());
+    }
+
+    private static double quality(String [] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                }
+                catch (NumberFormatException e) {
+                    return 0.0;
+                }
+            }
+        }
+        return 1.0;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ENGLISH);
+        return type.startsWith("text/")
+                || type.contains("json")
+                || type.contains("xml")
+                || type.contains("javascript")
+                || type.contains("smile")
+                || type.startsWith("application/x-www-form-urlencoded");
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        if (response.getStatus().getCode() != 200) {
+            return false;
+        }
+        String cacheControl = response.getHeader(CACHE_CONTROL);
+        if (cacheControl == null) {
+            return response.containsHeader(ETAG);
+        }
+        cacheControl = cacheControl.toLowerCase(Locale.ENGLISH);
+        if (cacheControl.contains("no-store")
+                || cacheControl.contains("private")) {
+            return false;
+        }
+        return response.containsHeader(ETAG)
+                || cacheControl.contains("public")
+                || cacheControl.contains("max-age");
+    }
+
+    private static HashCode digest(ChannelBuffer content) {
+        if (content.hasArray()) {
+            return Hashing.sha256().hashBytes(content.array(),
+                    content.arrayOffset() + content.readerIndex(),
+                    content.readableBytes());
+        }
+        byte [] bytes = new byte[content.readableBytes()];
+        content.getBytes(content.readerIndex(), bytes);
+        return Hashing.sha256().hashBytes(bytes);
+    }
+
+    /**
+     * Compressed entities are cached per coding and original content
+     */
+    private static final class CacheKey {
+
+        private final ContentCoding coding;
+        private final HashCode digest;
+
+        CacheKey(ContentCoding coding, HashCode digest) {
+            this.coding = coding;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) other;
+            return this.coding == that.coding && this.digest.equals(that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.coding, this.digest);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.jboss.resteasy.core.ResourceMethodInvoker;
+import org.jboss.resteasy.spi.HttpRequest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a running average of the size of the entities each resource
+ * method produces, so that response buffers can start out big enough for
+ * the typical response instead of growing (and copying) their way up from
+ * Netty's default size.
+ *
+ * The average is exponentially weighted, so it follows a method whose
+ * responses grow over time, and a single outlier doesn't make every later
+ * buffer huge.
+ *
+ * @author ed.peters
+ */
+public class ResponseSizeEstimator {
+
+    /**
+     * Estimate for methods we haven't seen yet (the same as Netty's
+     * default for a dynamic buffer)
+     */
+    public static final int DEFAULT_ESTIMATE = 256;
+
+    /**
+     * Largest estimate we'll ever give out
+     */
+    public static final int MAX_ESTIMATE = 4 * 1024 * 1024;
+
+    /*
+     * Each new sample moves the average 1/WEIGHT of the way towards it
+     */
+    private static final int WEIGHT = 8;
+
+    private final ConcurrentMap<Method,AtomicInteger> averages;
+
+    public ResponseSizeEstimator() {
+        this.averages = Maps.newConcurrentMap();
+    }
+
+    /**
+     * @param method a resource method, or null if it isn't known
+     * @return the size to allocate for the method's next response (the
+     * running average plus a quarter, for headroom)
+     */
+    public int estimate(Method method) {
+        AtomicInteger average = method == null ? null : this.averages.get(method);
+        if (average == null) {
+            return DEFAULT_ESTIMATE;
+        }
+        long estimate = average.get() + average.get() / 4L;
+        return (int) Math.max(DEFAULT_ESTIMATE,
+                Math.min(MAX_ESTIMATE, estimate));
+    }
+
+    /**
+     * Adds a sample to a method's running average
+     * @param method the resource method that produced the response
+     * @param size size of the response entity, in bytes
+     */
+    public void record(Method method, long size) {
+        Preconditions.checkNotNull(method, "method");
+        Preconditions.checkArgument(size >= 0, "invalid size " + size);
+        int sample = (int) Math.min(MAX_ESTIMATE, size);
+        AtomicInteger average = this.averages.get(method);
+        if (average == null) {
+            average = this.averages.putIfAbsent(method,
+                    new AtomicInteger(sample));
+            if (average == null) {
+                return;
+            }
+        }
+        int current;
+        do {
+            current = average.get();
+        } while (!average.compareAndSet(current,
+                current + (sample - current) / WEIGHT));
+    }
+
+    /**
+     * @param request a request that's been (or is being) dispatched
+     * @return the resource method Resteasy matched to the request, or null
+     * if it hasn't matched one
+     */
+    public static Method getResourceMethod(HttpRequest request) {
+        Object invoker = request.getAttribute(
+                ResourceMethodInvoker.class.getName());
+        return invoker instanceof ResourceMethodInvoker
+                ? ((ResourceMethodInvoker) invoker).getMethod()
+                : null;
+    }
+}
@@ -1,19 +1,43 @@
 package com.opower.finagle.resteasy.server;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.opower.finagle.resteasy.util.RequestDeadline;
 import com.twitter.finagle.Service;
 import com.twitter.util.Future;
+import com.twitter.util.Function;
+import com.twitter.util.FutureEventListener;
 import com.twitter.util.Promise;
+import com.twitter.util.Return;
+import com.twitter.util.Throw;
+import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpVersion;
 import org.jboss.resteasy.core.Dispatcher;
+import org.jboss.resteasy.core.ResourceInvoker;
+import org.jboss.resteasy.core.SynchronousDispatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.runtime.BoxedUnit;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.opower.finagle.resteasy.util.LoggingUtils.debug;
 import static com.opower.finagle.resteasy.util.LoggingUtils.info;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
 import static org.jboss.netty.util.CharsetUtil.UTF_8;
 
 /**
@@ -21,19 +45,392 @@ import static org.jboss.netty.util.CharsetUtil.UTF_8;
  * wrapping inbound requests and passing them into a RestEASY
  * {@link org.jboss.resteasy.core.Dispatcher}.
  *
+ * If the dispatcher is a {@link SynchronousDispatcher}, resource methods
+ * may suspend the request (JAX-RS <code>@Suspended AsyncResponse</code>).
+ * In that case the worker thread is released when the method returns and
+ * the promise is satisfied when the response is resumed.
+ *
+ * By default every request is handed to the executor; see
+ * {@link DispatchMode#INLINE} for skipping that hop.  Requests the executor
+ * refuses are shed with a {@link ServiceUnavailableResponse}, according to
+ * the service's {@link RejectionPolicy}, as are requests beyond the limit
+ * of an (optional) {@link AdaptiveConcurrencyLimiter}.  A
+ * {@link BulkheadRouter} can give individual resources executors of their
+ * own.
+ *
+ * When the returned future is interrupted (the client went away, or a
+ * Finagle timeout fired), queued requests are dropped without being
+ * dispatched, suspended responses are cancelled, and running handlers can
+ * optionally be interrupted.
+ *
+ * Callers can send a deadline (see {@link RequestDeadline}); requests that
+ * are still queued when their deadline passes are answered with a
+ * {@link DeadlineExceededResponse} instead of being dispatched.
+ *
+ * Large responses can optionally be streamed to the client with chunked
+ * transfer encoding (see {@link #setStreamingThreshold}), with chunk buffers
+ * optionally reused across requests (see {@link ResponseBufferPool}).
+ * Response buffers start out at the typical size for their resource method
+ * (see {@link ResponseSizeEstimator}).  Chunked request
+ * bodies are read as they arrive, instead of being aggregated first (see
+ * {@link #setRequestBodySpooling}).  Buffered responses can be compressed
+ * (see {@link ResponseCompressor}).
+ *
+ * Given a {@link ResponseCache}, cacheable GET responses are kept in
+ * memory, and later requests for them are answered straight from the
+ * cache, without being queued or dispatched.  Identical GET requests that
+ * arrive while one of them is being handled can be collapsed into one
+ * dispatch (see {@link RequestCoalescer}).
+ *
+ * With entity tagging on, buffered responses to GET requests get ETags, and
+ * conditional requests whose copy is current are answered with a 304
+ * (see {@link OutboundServiceResponse#setEntityTagging}).  Resources can
+ * avoid producing the entity at all by checking their own (cheaper) tag
+ * with <code>Request.evaluatePreconditions(EntityTag)</code>.
+ *
  * @author ed.peters
  */
 public class ResteasyFinagleService extends Service<HttpRequest,HttpResponse> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ResteasyFinagleService.class);
 
+    /**
+     * Default number of bytes of a chunked request body kept in memory
+     */
+    public static final int DEFAULT_BODY_MEMORY_LIMIT = 1024 * 1024;
+
+    /*
+     * Shared timer for asynchronous response timeouts, used when the
+     * service isn't given one of its own
+     */
+    private static final ScheduledExecutorService DEFAULT_TIMER =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("resteasy-finagle-timer-%d")
+                    .build());
+
+    /*
+     * Shared thread that stores the chunks of streamed request bodies, so
+     * the transport's I/O threads never write to a spool file
+     */
+    private static final Executor SPOOLER =
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("resteasy-finagle-spool-%d")
+                    .build());
+
     private final Dispatcher dispatcher;
     private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong slowInlineRequests;
+    private final AtomicLong rejectedRequests;
+    private final AtomicLong cancelledRequests;
+    private final AtomicLong expiredRequests;
+    private final ResponseSizeEstimator sizeEstimator;
+    private DispatchMode dispatchMode;
+    private long inlineBudgetNanos;
+    private RejectionPolicy rejectionPolicy;
+    private int retryAfterSeconds;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private BulkheadRouter bulkheads;
+    private boolean interruptRunningWorkers;
+    private String deadlineHeader;
+    private int streamingThreshold;
+    private int bodyMemoryLimit;
+    private File spoolDirectory;
+    private ResponseBufferPool bufferPool;
+    private ResponseCompressor compressor;
+    private ResponseCache responseCache;
+    private RequestCoalescer coalescer;
+    private boolean entityTagging;
 
     public ResteasyFinagleService(Dispatcher dispatcher,
                                   Executor executor) {
+        this(dispatcher, executor, DEFAULT_TIMER);
+    }
+
+    public ResteasyFinagleService(Dispatcher dispatcher,
+                                  Executor executor,
+                                  ScheduledExecutorService timer) {
         this.dispatcher = Preconditions.checkNotNull(dispatcher, "dispatcher");
         this.executor = Preconditions.checkNotNull(executor, "executor");
+        this.timer = Preconditions.checkNotNull(timer, "timer");
+        this.slowInlineRequests = new AtomicLong();
+        this.rejectedRequests = new AtomicLong();
+        this.cancelledRequests = new AtomicLong();
+        this.expiredRequests = new AtomicLong();
+        this.sizeEstimator = new ResponseSizeEstimator();
+        this.dispatchMode = DispatchMode.EXECUTOR;
+        this.rejectionPolicy = RejectionPolicy.REJECT_NEW;
+        this.deadlineHeader = RequestDeadline.DEFAULT_HEADER;
+        this.bodyMemoryLimit = DEFAULT_BODY_MEMORY_LIMIT;
+    }
+
+    /**
+     * Sets the thread on which requests are dispatched.  Should be called
+     * before the service starts handling requests.
+     * @param mode the dispatch mode
+     * @param budget how long an inline handler may run before it's
+     *               reported as slow (ignored for
+     *               {@link DispatchMode#EXECUTOR})
+     * @param unit unit for the budget
+     */
+    public void setDispatchMode(DispatchMode mode, long budget, TimeUnit unit) {
+        Preconditions.checkNotNull(mode, "mode");
+        Preconditions.checkArgument(budget > 0, "invalid budget " + budget);
+        this.dispatchMode = mode;
+        this.inlineBudgetNanos = unit.toNanos(budget);
+    }
+
+    public DispatchMode getDispatchMode() {
+        return this.dispatchMode;
+    }
+
+    /**
+     * @return the number of inline requests that ran past their time budget
+     */
+    public long getSlowInlineRequestCount() {
+        return this.slowInlineRequests.get();
+    }
+
+    /**
+     * Sets what happens when the executor refuses a request.  Should be
+     * called before the service starts handling requests.
+     * @param policy the rejection policy
+     * @param retryAfter value of the Retry-After header on shed requests,
+     *                   in seconds (zero to leave it off)
+     */
+    public void setRejectionPolicy(RejectionPolicy policy, int retryAfter) {
+        Preconditions.checkNotNull(policy, "policy");
+        Preconditions.checkArgument(retryAfter >= 0,
+                "invalid retryAfter " + retryAfter);
+        this.rejectionPolicy = policy;
+        this.retryAfterSeconds = retryAfter;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return this.rejectionPolicy;
+    }
+
+    /**
+     * @return the number of requests shed with a 503 because the executor
+     * refused them
+     */
+    public long getRejectedRequestCount() {
+        return this.rejectedRequests.get();
+    }
+
+    /**
+     * Caps the number of requests in progress (queued, running or
+     * suspended) with an adaptive limit; requests beyond the limit are
+     * shed with a 503.  Should be called before the service starts
+     * handling requests.
+     * @param limiter the limiter to use, or null for no limit
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return this.concurrencyLimiter;
+    }
+
+    /**
+     * Routes requests for particular resource classes or methods to their
+     * own executors, instead of the default one.  Should be called before
+     * the service starts handling requests.
+     * Requests are matched to their resource methods as they arrive, so
+     * this needs a {@link PrematchedDispatcher}, which reuses the match.
+     * @param router the routing table, or null to use the default executor
+     *               for everything
+     */
+    public void setBulkheadRouter(BulkheadRouter router) {
+        Preconditions.checkState(router == null
+                        || this.dispatcher instanceof PrematchedDispatcher,
+                "bulkheads need a PrematchedDispatcher");
+        this.bulkheads = router;
+    }
+
+    /**
+     * Determines whether a handler that's already running on a pool thread
+     * gets {@link Thread#interrupt()}ed when its request is interrupted.
+     * Off by default, since not every handler tolerates interruption;
+     * inline handlers are never interrupted.
+     * @param interrupt true to interrupt running handlers
+     */
+    public void setInterruptRunningWorkers(boolean interrupt) {
+        this.interruptRunningWorkers = interrupt;
+    }
+
+    /**
+     * @return the number of requests abandoned because their future was
+     * interrupted
+     */
+    public long getCancelledRequestCount() {
+        return this.cancelledRequests.get();
+    }
+
+    /**
+     * Sets the header from which request deadlines are read (by default
+     * {@link RequestDeadline#DEFAULT_HEADER}).  Should be called before the
+     * service starts handling requests.
+     * @param header the header name, or null to ignore deadlines
+     */
+    public void setDeadlineHeader(String header) {
+        this.deadlineHeader = header;
+    }
+
+    public String getDeadlineHeader() {
+        return this.deadlineHeader;
+    }
+
+    /**
+     * Streams response entities larger than the supplied size to the
+     * client with chunked transfer encoding, instead of buffering them
+     * whole.  The promise is satisfied with a Finagle
+     * {@link com.twitter.finagle.http.Response} as soon as the threshold is
+     * reached, so the service must be served with Finagle's HTTP codec.
+     * Only applies to HTTP/1.1 requests running on the executor (inline and
+     * suspended requests are always buffered).  Should be called before
+     * the service starts handling requests.
+     * @param threshold size in bytes (and size of each chunk), or 0 to
+     *                  always buffer (the default)
+     */
+    public void setStreamingThreshold(int threshold) {
+        Preconditions.checkArgument(threshold >= 0,
+                "invalid threshold " + threshold);
+        this.streamingThreshold = threshold;
+    }
+
+    public int getStreamingThreshold() {
+        return this.streamingThreshold;
+    }
+
+    /**
+     * Reuses the chunk buffers of streamed responses across requests.
+     * Should be called before the service starts handling requests.
+     * @param pool the pool to use, or null to allocate every buffer
+     */
+    public void setResponseBufferPool(ResponseBufferPool pool) {
+        this.bufferPool = pool;
+    }
+
+    public ResponseBufferPool getResponseBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Compresses buffered responses for clients that accept it.  Should be
+     * called before the service starts handling requests.
+     * @param compressor the compressor to use, or null to send entities as
+     *                   they are (the default)
+     */
+    public void setResponseCompressor(ResponseCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    public ResponseCompressor getResponseCompressor() {
+        return this.compressor;
+    }
+
+    /**
+     * Answers repeated GET requests from memory.  Should be called before
+     * the service starts handling requests.
+     * @param cache the cache to use, or null to dispatch every request (the
+     *              default)
+     */
+    public void setResponseCache(ResponseCache cache) {
+        this.responseCache = cache;
+    }
+
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Dispatches only one of a set of identical GET requests that are in
+     * flight at the same time, and answers the rest with copies of its
+     * response.  Should be called before the service starts handling
+     * requests.
+     * @param coalescer the coalescer to use, or null to dispatch every
+     *                  request (the default)
+     */
+    public void setRequestCoalescer(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public RequestCoalescer getRequestCoalescer() {
+        return this.coalescer;
+    }
+
+    /**
+     * Determines whether buffered responses to GET requests are tagged with
+     * a hash of their entity (unless the resource set an ETag itself), and
+     * replaced with a 304 when the request's If-None-Match matches.  Should
+     * be called before the service starts handling requests.
+     * @param tagging true to tag entities (default false)
+     */
+    public void setEntityTagging(boolean tagging) {
+        this.entityTagging = tagging;
+    }
+
+    public boolean isEntityTagging() {
+        return this.entityTagging;
+    }
+
+    /**
+     * @return the running response sizes used to size response buffers
+     */
+    public ResponseSizeEstimator getResponseSizeEstimator() {
+        return this.sizeEstimator;
+    }
+
+    /**
+     * Sets how chunked request bodies are buffered.  Finagle only hands
+     * the service a chunked {@link com.twitter.finagle.http.Request} when
+     * the server's HTTP codec passes chunks through instead of aggregating
+     * them (see {@link StreamingHttpServerCodec}); the resource's input
+     * stream is then fed as the chunks arrive.
+     * Up to the memory limit is kept on the heap, and the rest of the body
+     * is spilled to a temporary file, which is deleted when the resource
+     * method returns (so suspended requests must read their body first).
+     * Should be called before the service starts handling requests.
+     * @param memoryLimit bytes of each body to keep in memory (by default
+     *                    {@link #DEFAULT_BODY_MEMORY_LIMIT})
+     * @param directory where to create temporary files, or null for the
+     *                  system default
+     */
+    public void setRequestBodySpooling(int memoryLimit, File directory) {
+        Preconditions.checkArgument(memoryLimit >= 0,
+                "invalid memoryLimit " + memoryLimit);
+        this.bodyMemoryLimit = memoryLimit;
+        this.spoolDirectory = directory;
+    }
+
+    public int getBodyMemoryLimit() {
+        return this.bodyMemoryLimit;
+    }
+
+    public File getSpoolDirectory() {
+        return this.spoolDirectory;
+    }
+
+    /**
+     * @return the number of requests answered with a 504 because their
+     * deadline passed before they were dispatched
+     */
+    public long getExpiredRequestCount() {
+        return this.expiredRequests.get();
+    }
+
+    /**
+     * @return the number of requests waiting for a worker thread, or -1 if
+     * the executor isn't a {@link ThreadPoolExecutor}
+     */
+    public int getQueueDepth() {
+        return this.executor instanceof ThreadPoolExecutor
+                ? ((ThreadPoolExecutor) this.executor).getQueue().size()
+                : -1;
     }
 
     /**
@@ -47,28 +444,357 @@ public class ResteasyFinagleService extends Service<HttpRequest,HttpResponse> {
         info(LOG, "inbound request %s %s",
                 request.getMethod().getName(),
                 request.getUri());
+        if (this.responseCache != null) {
+            HttpResponse cached = this.responseCache.lookup(request);
+            if (cached != null) {
+                debug(LOG, "cached response to %s", request.getUri());
+                return Future.value(cached);
+            }
+        }
+        if (this.coalescer != null) {
+            return this.coalescer.apply(request, new Dispatch());
+        }
+        return dispatch(request);
+    }
+
+    /*
+     * Queues (or runs) a worker for the request
+     */
+    private Future<HttpResponse> dispatch(HttpRequest request) {
         Promise<HttpResponse> promise = new Promise<HttpResponse>();
-        this.executor.execute(new ResponseWorker(request, promise));
+        ResponseWorker worker = new ResponseWorker(request, promise);
+        promise.setInterruptHandler(new CancelOnInterrupt(worker));
+        if (this.concurrencyLimiter != null) {
+            if (!this.concurrencyLimiter.tryAcquire()) {
+                worker.reject();
+                return promise;
+            }
+            promise.addEventListener(new LimiterRelease(System.nanoTime()));
+        }
+        Executor bulkhead = findBulkhead(worker);
+        if (bulkhead != null) {
+            submit(worker, bulkhead);
+        }
+        else if (this.dispatchMode == DispatchMode.INLINE
+                && !request.isChunked()) {
+            // a chunked body arrives on the I/O thread, so a handler that
+            // waited for it there would never see it
+            runInline(worker, request);
+        }
+        else {
+            submit(worker, this.executor);
+        }
         return promise;
     }
 
+    /*
+     * Matches the request to a resource method, and returns that method's
+     * dedicated executor (if it has one).  The dispatcher reuses the match;
+     * requests that don't match anything go to the default executor, where
+     * the dispatcher reports the error.
+     */
+    private Executor findBulkhead(ResponseWorker worker) {
+        if (this.bulkheads == null) {
+            return null;
+        }
+        ResourceInvoker invoker = ((PrematchedDispatcher) this.dispatcher)
+                .match(worker.getJaxrsRequest());
+        return invoker == null ? null : this.bulkheads.route(invoker);
+    }
+
+    /*
+     * Starts collecting the body of a chunked request, or returns null if
+     * the body has already been aggregated
+     */
+    private SpooledRequestBody spoolBody(HttpRequest request) {
+        if (!request.isChunked()
+                || !(request instanceof com.twitter.finagle.http.Request)) {
+            return null;
+        }
+        SpooledRequestBody body = new SpooledRequestBody(
+                ((com.twitter.finagle.http.Request) request).reader(),
+                this.bodyMemoryLimit,
+                this.spoolDirectory,
+                SPOOLER);
+        body.start();
+        return body;
+    }
+
+    /*
+     * Hands the worker to an executor, shedding load according to the
+     * rejection policy if the executor refuses it.
+     */
+    private void submit(ResponseWorker worker, Executor target) {
+        worker.setTarget(target);
+        try {
+            target.execute(worker);
+            return;
+        }
+        catch (RejectedExecutionException e) {
+            if (this.rejectionPolicy != RejectionPolicy.DROP_OLDEST
+                    || !(target instanceof ThreadPoolExecutor)) {
+                worker.reject();
+                return;
+            }
+        }
+        // only ever drop our own workers, in case the executor is shared
+        BlockingQueue<Runnable> queue =
+                ((ThreadPoolExecutor) target).getQueue();
+        Runnable oldest = queue.peek();
+        if (oldest instanceof ResponseWorker && queue.remove(oldest)) {
+            ((ResponseWorker) oldest).reject();
+        }
+        try {
+            target.execute(worker);
+        }
+        catch (RejectedExecutionException e) {
+            worker.reject();
+        }
+    }
+
+    /*
+     * Runs the worker on the calling thread, with a watchdog that reports
+     * (but can't interrupt) handlers that exceed the inline time budget.
+     */
+    private void runInline(ResponseWorker worker, HttpRequest request) {
+        ScheduledFuture<?> watchdog = this.timer.schedule(
+                new SlowHandlerReporter(Thread.currentThread(), request),
+                this.inlineBudgetNanos,
+                TimeUnit.NANOSECONDS);
+        try {
+            worker.run();
+        }
+        finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    /**
+     * Lets the coalescer dispatch the requests it doesn't answer itself
+     */
+    private class Dispatch extends Service<HttpRequest,HttpResponse> {
+
+        @Override
+        public Future<HttpResponse> apply(HttpRequest request) {
+            return dispatch(request);
+        }
+    }
+
+    /**
+     * Returns a request's slot to the concurrency limiter when its response
+     * is complete.  Shed and expired requests don't count as latency
+     * samples.
+     */
+    private class LimiterRelease implements FutureEventListener<HttpResponse> {
+
+        private final long startNanos;
+
+        LimiterRelease(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onSuccess(HttpResponse response) {
+            concurrencyLimiter.release(
+                    response instanceof ServiceUnavailableResponse
+                            || response instanceof DeadlineExceededResponse
+                            ? 0
+                            : System.nanoTime() - this.startNanos);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            concurrencyLimiter.release(0);
+        }
+    }
+
+    /**
+     * Cancels a request's worker when its future is interrupted
+     */
+    private class CancelOnInterrupt extends Function<Throwable,BoxedUnit> {
+
+        private final ResponseWorker worker;
+
+        CancelOnInterrupt(ResponseWorker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public BoxedUnit apply(Throwable cause) {
+            this.worker.cancel(cause);
+            return BoxedUnit.UNIT;
+        }
+    }
+
+    /**
+     * Logs the stack of an inline handler that has run past its budget,
+     * since it's blocking a Netty I/O thread.
+     */
+    private class SlowHandlerReporter implements Runnable {
+
+        private final Thread thread;
+        private final HttpRequest request;
+
+        SlowHandlerReporter(Thread thread, HttpRequest request) {
+            this.thread = thread;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            slowInlineRequests.incrementAndGet();
+            if (LOG.isWarnEnabled()) {
+                StringBuilder trace = new StringBuilder();
+                for (StackTraceElement frame : this.thread.getStackTrace()) {
+                    trace.append("\n\tat ").append(frame);
+                }
+                LOG.warn(String.format(
+                        "inline handler for %s %s exceeded %sms on %s%s",
+                        this.request.getMethod().getName(),
+                        this.request.getUri(),
+                        TimeUnit.NANOSECONDS.toMillis(inlineBudgetNanos),
+                        this.thread.getName(),
+                        trace));
+            }
+        }
+    }
+
     /**
      * {@link Runnable} implementation that converts a Netty request to
      * Resteasy, then uses the Resteasy Dispatcher to satisfy the call.
      */
     protected class ResponseWorker implements Runnable {
 
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int FINISHED = 2;
+        private static final int CANCELLED = 3;
+
         private final HttpRequest nettyRequest;
         private final Promise<HttpResponse> promise;
+        private final AtomicInteger state;
+        private final RequestDeadline deadline;
+        private final SpooledRequestBody body;
+        private InboundServiceRequest inboundRequest;
+        private volatile Executor target;
+        private volatile Thread runner;
+        private volatile FinagleAsynchronousContext asyncContext;
 
         public ResponseWorker(HttpRequest nettyRequest,
                               Promise<HttpResponse> promise) {
             this.nettyRequest = nettyRequest;
             this.promise = promise;
+            this.state = new AtomicInteger(QUEUED);
+            this.deadline = deadlineHeader == null
+                    ? null
+                    : RequestDeadline.fromHeader(nettyRequest, deadlineHeader);
+            this.body = spoolBody(nettyRequest);
+        }
+
+        /**
+         * @return the request as it will be handed to the dispatcher
+         */
+        InboundServiceRequest getJaxrsRequest() {
+            if (this.inboundRequest == null) {
+                this.inboundRequest = this.body == null
+                        ? new InboundServiceRequest(nettyRequest)
+                        : new InboundServiceRequest(nettyRequest,
+                                this.body.getInputStream());
+            }
+            return this.inboundRequest;
+        }
+
+        /**
+         * Records the executor this worker is queued on, so it can be
+         * removed if it's cancelled
+         */
+        void setTarget(Executor target) {
+            this.target = target;
+        }
+
+        /**
+         * Abandons the request: drops it from the queue if it hasn't
+         * started, flags (and optionally interrupts) it if it's running,
+         * and cancels it if it's suspended
+         * @param cause the interrupt raised on the request's future
+         */
+        public void cancel(Throwable cause) {
+            info(LOG, "cancelled request %s %s (%s)",
+                    nettyRequest.getMethod().getName(),
+                    nettyRequest.getUri(),
+                    cause);
+            this.promise.updateIfEmpty(new Throw<HttpResponse>(cause));
+            if (this.state.compareAndSet(QUEUED, CANCELLED)) {
+                if (this.target instanceof ThreadPoolExecutor) {
+                    ((ThreadPoolExecutor) this.target).remove(this);
+                }
+                releaseBody();
+                cancelledRequests.incrementAndGet();
+                return;
+            }
+            synchronized (this) {
+                if (this.state.compareAndSet(RUNNING, CANCELLED)) {
+                    cancelledRequests.incrementAndGet();
+                    if (interruptRunningWorkers
+                            && this.target != null
+                            && this.runner != null) {
+                        this.runner.interrupt();
+                    }
+                    return;
+                }
+            }
+            // the worker has finished, but the request may be suspended
+            FinagleAsynchronousContext context = this.asyncContext;
+            if (context != null
+                    && context.isSuspended()
+                    && context.getAsyncResponse().cancel()) {
+                cancelledRequests.incrementAndGet();
+            }
+        }
+
+        /**
+         * Answers the request with a 503 without dispatching it
+         */
+        public void reject() {
+            this.state.set(FINISHED);
+            releaseBody();
+            rejectedRequests.incrementAndGet();
+            info(LOG, "rejected request %s %s",
+                    nettyRequest.getMethod().getName(),
+                    nettyRequest.getUri());
+            this.promise.updateIfEmpty(new Return<HttpResponse>(
+                    new ServiceUnavailableResponse(
+                            nettyRequest.getProtocolVersion(),
+                            retryAfterSeconds)));
+        }
+
+        /**
+         * Answers the request with a 504 without dispatching it
+         */
+        public void expire() {
+            this.state.set(FINISHED);
+            releaseBody();
+            expiredRequests.incrementAndGet();
+            info(LOG, "expired request %s %s (deadline %s)",
+                    nettyRequest.getMethod().getName(),
+                    nettyRequest.getUri(),
+                    this.deadline);
+            this.promise.updateIfEmpty(new Return<HttpResponse>(
+                    new DeadlineExceededResponse(
+                            nettyRequest.getProtocolVersion())));
         }
 
         @Override
         public void run() {
+            if (!this.state.compareAndSet(QUEUED, RUNNING)) {
+                debug(LOG, "skipping cancelled request %s", nettyRequest.getUri());
+                return;
+            }
+            if (this.deadline != null && this.deadline.isExpired()) {
+                expire();
+                return;
+            }
+            this.runner = Thread.currentThread();
             HttpVersion version = nettyRequest.getProtocolVersion();
             HttpResponse nettyResponse = null;
             try {
@@ -78,10 +804,48 @@ public class ResteasyFinagleService extends Service<HttpRequest,HttpResponse> {
                 info(LOG, e, "unhandled error creating HTTP response");
                 nettyResponse = new UnhandledErrorResponse(version, e);
             }
+            finally {
+                releaseBody();
+                finish();
+            }
+            if (nettyResponse == null) {
+                debug(LOG, "request suspended %s", nettyRequest.getUri());
+                return;
+            }
             info(LOG, "outbound response %s", nettyResponse.getStatus());
-            this.promise.setValue(nettyResponse);
+            // the promise may already be satisfied, if the request was
+            // suspended and resumed before the resource method failed
+            this.promise.updateIfEmpty(new Return<HttpResponse>(nettyResponse));
+        }
+
+        /*
+         * Stops reading a chunked body and deletes any temporary file
+         */
+        private void releaseBody() {
+            if (this.body != null) {
+                this.body.release();
+            }
         }
 
+        /*
+         * Marks the worker finished, making sure an interrupt meant for this
+         * request can't leak into the next task on the same pool thread
+         */
+        private void finish() {
+            synchronized (this) {
+                this.runner = null;
+                this.state.compareAndSet(RUNNING, FINISHED);
+            }
+            if (interruptRunningWorkers && this.target != null) {
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * @return the response to send, or null if the request was
+         * suspended (in which case the promise will be satisfied when the
+         * asynchronous response is resumed)
+         */
         protected HttpResponse computeResponse(HttpVersion version) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("incoming " + nettyRequest.getUri());
@@ -91,13 +855,70 @@ public class ResteasyFinagleService extends Service<HttpRequest,HttpResponse> {
                 LOG.debug("body: " +
                         nettyRequest.getContent().toString(UTF_8));
             }
-            InboundServiceRequest jaxrsRequest =
-                    new InboundServiceRequest(nettyRequest);
+            InboundServiceRequest jaxrsRequest = getJaxrsRequest();
 
+            // streaming blocks the writing thread until the client catches
+            // up, so it's off limits for inline (I/O thread) dispatch
             OutboundServiceResponse jaxrsResponse =
-                    new OutboundServiceResponse(version);
-            dispatcher.invoke(jaxrsRequest, jaxrsResponse);
-            return jaxrsResponse.getNettyResponse();
+                    streamingThreshold > 0
+                            && this.target != null
+                            && HttpVersion.HTTP_1_1.equals(version)
+                    ? new OutboundServiceResponse(version,
+                            this.promise,
+                            streamingThreshold,
+                            bufferPool)
+                    : new OutboundServiceResponse(version);
+            jaxrsResponse.setSizeEstimator(sizeEstimator, jaxrsRequest);
+            if (compressor != null) {
+                jaxrsResponse.setCompressor(compressor,
+                        nettyRequest.getHeader(ACCEPT_ENCODING));
+            }
+            if (entityTagging && HttpMethod.GET.equals(nettyRequest.getMethod())) {
+                jaxrsResponse.setEntityTagging(
+                        nettyRequest.getHeader(IF_NONE_MATCH));
+            }
+            FinagleAsynchronousContext context = null;
+            if (dispatcher instanceof SynchronousDispatcher) {
+                context = new FinagleAsynchronousContext(
+                        (SynchronousDispatcher) dispatcher,
+                        jaxrsRequest,
+                        jaxrsResponse,
+                        this.promise,
+                        timer);
+                jaxrsRequest.setAsyncContext(context);
+                this.asyncContext = context;
+            }
+            if (this.deadline != null) {
+                jaxrsRequest.setAttribute(RequestDeadline.ATTRIBUTE, this.deadline);
+            }
+            RequestDeadline.setCurrent(this.deadline);
+            try {
+                dispatcher.invoke(jaxrsRequest, jaxrsResponse);
+            }
+            catch (RuntimeException e) {
+                jaxrsResponse.abort(e);
+                throw e;
+            }
+            finally {
+                RequestDeadline.clearCurrent();
+            }
+            if (context != null && context.isDeferred()) {
+                return null;
+            }
+            try {
+                jaxrsResponse.finish();
+            }
+            catch (IOException e) {
+                info(LOG, e, "error finishing response to %s",
+                        nettyRequest.getUri());
+            }
+            HttpResponse nettyResponse = jaxrsResponse.getNettyResponse();
+            if (responseCache != null) {
+                responseCache.update(nettyRequest,
+                        ResponseSizeEstimator.getResourceMethod(jaxrsRequest),
+                        nettyResponse);
+            }
+            return nettyResponse;
         }
 
     }
@@ -4,21 +4,27 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.opower.finagle.resteasy.util.RequestDeadline;
 import com.opower.finagle.resteasy.util.ServiceUtils;
 import com.twitter.finagle.Service;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.resteasy.core.Dispatcher;
-import org.jboss.resteasy.core.SynchronousDispatcher;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.jboss.resteasy.util.GetRestful;
 
 import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Builder for a Finagle {@link com.twitter.finagle.Service} that knows how to
@@ -31,6 +37,16 @@ import java.util.concurrent.Executors;
  */
 public class ResteasyServiceBuilder {
 
+    /**
+     * Default time an inline handler may run before it's reported as slow
+     */
+    public static final long DEFAULT_INLINE_BUDGET_MILLIS = 10;
+
+    /**
+     * Default Retry-After value (in seconds) for requests that are shed
+     */
+    public static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
     /**
      * Default set of file-extension-to-MIME-type mappings
      */
@@ -46,11 +62,37 @@ public class ResteasyServiceBuilder {
     private Map<String,String> languages;
     private List<Object> beans;
     private Executor executor;
+    private int threadPoolSize;
+    private int queueLimit;
+    private RejectionPolicy rejectionPolicy;
+    private int retryAfterSeconds;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private BulkheadRouter bulkheads;
+    private boolean interruptOnCancel;
+    private String deadlineHeader;
+    private int streamingThreshold;
+    private int bodyMemoryLimit;
+    private File spoolDirectory;
+    private ResponseBufferPool bufferPool;
+    private ResponseCompressor compressor;
+    private ResponseCache responseCache;
+    private RequestCoalescer coalescer;
+    private boolean entityTagging;
+    private ScheduledExecutorService timer;
+    private DispatchMode dispatchMode;
+    private long inlineBudgetMillis;
 
     protected ResteasyServiceBuilder() {
         this.mediaTypes = Maps.newHashMap(DEFAULT_MEDIA_TYPES);
         this.languages = Maps.newHashMap();
         this.beans = Lists.newArrayList();
+        this.dispatchMode = DispatchMode.EXECUTOR;
+        this.inlineBudgetMillis = DEFAULT_INLINE_BUDGET_MILLIS;
+        this.threadPoolSize = 1;
+        this.rejectionPolicy = RejectionPolicy.REJECT_NEW;
+        this.retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+        this.deadlineHeader = RequestDeadline.DEFAULT_HEADER;
+        this.bodyMemoryLimit = ResteasyFinagleService.DEFAULT_BODY_MEMORY_LIMIT;
     }
 
     /**
@@ -59,7 +101,282 @@ public class ResteasyServiceBuilder {
      * @return this (for chaining)
      */
     public ResteasyServiceBuilder withThreadPoolSize(int size) {
-        return withExecutor(Executors.newFixedThreadPool(size));
+        Preconditions.checkArgument(size > 0, "invalid size " + size);
+        this.threadPoolSize = size;
+        this.executor = null;
+        return this;
+    }
+
+    /**
+     * Bounds the queue of requests waiting for a thread from the pool
+     * (by default the queue is unbounded).  Requests that don't fit are
+     * answered immediately with a 503.  Doesn't apply to a custom
+     * executor.
+     * @param limit maximum number of queued requests
+     * @param policy whether to shed the new request or the oldest queued one
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withQueueLimit(int limit,
+                                                 RejectionPolicy policy) {
+        Preconditions.checkArgument(limit > 0, "invalid limit " + limit);
+        this.queueLimit = limit;
+        this.rejectionPolicy = Preconditions.checkNotNull(policy, "policy");
+        return this;
+    }
+
+    /**
+     * Caps the number of requests in progress with a limit that adapts to
+     * observed latency; requests beyond the limit are answered immediately
+     * with a 503.  The thread pool should be at least as large as the
+     * maximum limit, or requests will queue behind it.
+     * @param initialLimit starting limit
+     * @param minLimit the limit never drops below this
+     * @param maxLimit the limit never rises above this
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withAdaptiveConcurrencyLimit(int initialLimit,
+                                                               int minLimit,
+                                                               int maxLimit) {
+        return withConcurrencyLimiter(new AdaptiveConcurrencyLimiter(
+                initialLimit, minLimit, maxLimit));
+    }
+
+    /**
+     * @param limiter a custom-tuned concurrency limiter
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withConcurrencyLimiter(
+            AdaptiveConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+        return this;
+    }
+
+    /**
+     * Gives a resource class its own fixed-size pool, so it can't starve
+     * the other endpoints of threads.
+     * @param resourceClass the resource class (or an interface it implements)
+     * @param threads size of the dedicated pool
+     * @param queueLimit maximum number of requests queued for the pool
+     *                   (requests beyond this get a 503)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withBulkhead(Class<?> resourceClass,
+                                               int threads,
+                                               int queueLimit) {
+        Preconditions.checkArgument(queueLimit > 0,
+                "invalid queueLimit " + queueLimit);
+        return withBulkhead(resourceClass, newThreadPool(threads, queueLimit));
+    }
+
+    /**
+     * Same as {@link #withBulkhead(Class, int, int)}, for a single resource
+     * method
+     */
+    public ResteasyServiceBuilder withBulkhead(Method resourceMethod,
+                                               int threads,
+                                               int queueLimit) {
+        Preconditions.checkArgument(queueLimit > 0,
+                "invalid queueLimit " + queueLimit);
+        return withBulkhead(resourceMethod, newThreadPool(threads, queueLimit));
+    }
+
+    /**
+     * Sends requests for a resource class to a custom executor
+     * @param resourceClass the resource class (or an interface it implements)
+     * @param executor the executor to use
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withBulkhead(Class<?> resourceClass,
+                                               Executor executor) {
+        getBulkheads().assign(resourceClass, executor);
+        return this;
+    }
+
+    /**
+     * Sends requests for a resource method to a custom executor
+     * @param resourceMethod the resource method (or the interface method
+     *                       it implements)
+     * @param executor the executor to use
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withBulkhead(Method resourceMethod,
+                                               Executor executor) {
+        getBulkheads().assign(resourceMethod, executor);
+        return this;
+    }
+
+    private BulkheadRouter getBulkheads() {
+        if (this.bulkheads == null) {
+            this.bulkheads = new BulkheadRouter();
+        }
+        return this.bulkheads;
+    }
+
+    /**
+     * Determines whether handlers running on a pool thread get
+     * {@link Thread#interrupt()}ed when their request is interrupted (the
+     * client disconnected or timed out).  Queued requests are always
+     * dropped; this only matters for handlers that are already running.
+     * @param interrupt true to interrupt running handlers (default false)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withInterruptOnCancel(boolean interrupt) {
+        this.interruptOnCancel = interrupt;
+        return this;
+    }
+
+    /**
+     * Sets the header callers use to send their deadline (milliseconds
+     * since the epoch).  Requests whose deadline has passed by the time a
+     * thread picks them up are answered with a 504 instead of dispatched.
+     * Client calls made while handling a request send its deadline on in
+     * the same header.
+     * @param header the header name (default
+     *               {@link RequestDeadline#DEFAULT_HEADER}), or null to
+     *               ignore deadlines
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withDeadlineHeader(String header) {
+        this.deadlineHeader = header;
+        return this;
+    }
+
+    /**
+     * Streams response entities larger than the supplied size to the
+     * client in chunks, instead of buffering them whole.  Requires the
+     * service to be served with Finagle's HTTP codec.
+     * @param thresholdBytes entity size at which streaming starts (also the
+     *                       chunk size), or 0 to always buffer (the
+     *                       default)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withStreamingThreshold(int thresholdBytes) {
+        Preconditions.checkArgument(thresholdBytes >= 0,
+                "invalid thresholdBytes " + thresholdBytes);
+        this.streamingThreshold = thresholdBytes;
+        return this;
+    }
+
+    /**
+     * Reuses the chunk buffers of streamed responses across requests (only
+     * useful together with {@link #withStreamingThreshold}).
+     * @param maxPerSize most idle buffers of each size to keep
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withResponseBufferPool(int maxPerSize) {
+        return withResponseBufferPool(new ResponseBufferPool(maxPerSize));
+    }
+
+    /**
+     * @param pool a pool of response buffers, possibly shared with other
+     *             services
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withResponseBufferPool(ResponseBufferPool pool) {
+        this.bufferPool = pool;
+        return this;
+    }
+
+    /**
+     * Compresses buffered response entities (gzip or deflate) for clients
+     * that accept it
+     * @param thresholdBytes smallest entity to compress (e.g.
+     *                       {@link ResponseCompressor#DEFAULT_THRESHOLD})
+     * @param level compression level, from 1 (fastest) to 9 (smallest)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withCompression(int thresholdBytes, int level) {
+        return withCompression(new ResponseCompressor(thresholdBytes, level));
+    }
+
+    /**
+     * @param compressor a custom compressor (e.g. one that caches the
+     *                   compressed bytes of cacheable responses)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withCompression(ResponseCompressor compressor) {
+        this.compressor = compressor;
+        return this;
+    }
+
+    /**
+     * Keeps cacheable GET responses in memory (see {@link ResponseCache}),
+     * and answers repeated requests for them without dispatching
+     * @param maxBytes total size of the response entities to keep
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withResponseCache(long maxBytes) {
+        return withResponseCache(new ResponseCache(maxBytes));
+    }
+
+    /**
+     * @param cache a response cache (e.g. one that's shared with other
+     *              services, or invalidated by the application)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withResponseCache(ResponseCache cache) {
+        this.responseCache = cache;
+        return this;
+    }
+
+    /**
+     * Collapses identical GET requests that are in flight at the same time
+     * into one dispatch (see {@link RequestCoalescer})
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withRequestCoalescing() {
+        return withRequestCoalescing(new RequestCoalescer());
+    }
+
+    /**
+     * @param coalescer a coalescer (e.g. one that compares a different set
+     *                  of request headers)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withRequestCoalescing(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    /**
+     * Tags buffered responses to GET requests with a hash of their entity,
+     * and answers requests whose If-None-Match matches with a 304 (see
+     * {@link ResteasyFinagleService#setEntityTagging})
+     * @param tagging true to tag entities (default false)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withEntityTags(boolean tagging) {
+        this.entityTagging = tagging;
+        return this;
+    }
+
+    /**
+     * Sets how chunked request bodies are buffered while they arrive (see
+     * {@link ResteasyFinagleService#setRequestBodySpooling}).
+     * @param memoryLimitBytes bytes of each body to keep in memory before
+     *                         spilling the rest to a temporary file
+     * @param directory where to create temporary files, or null for the
+     *                  system default
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withRequestBodySpooling(int memoryLimitBytes,
+                                                          File directory) {
+        Preconditions.checkArgument(memoryLimitBytes >= 0,
+                "invalid memoryLimitBytes " + memoryLimitBytes);
+        this.bodyMemoryLimit = memoryLimitBytes;
+        this.spoolDirectory = directory;
+        return this;
+    }
+
+    /**
+     * @param seconds Retry-After value sent with shed requests (zero to
+     *                leave the header off)
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withRetryAfter(int seconds) {
+        Preconditions.checkArgument(seconds >= 0, "invalid seconds " + seconds);
+        this.retryAfterSeconds = seconds;
+        return this;
     }
 
     /**
@@ -72,6 +389,42 @@ public class ResteasyServiceBuilder {
         return this;
     }
 
+    /**
+     * Same as <code>withDispatchMode(mode, DEFAULT_INLINE_BUDGET_MILLIS)</code>
+     */
+    public ResteasyServiceBuilder withDispatchMode(DispatchMode mode) {
+        return withDispatchMode(mode, DEFAULT_INLINE_BUDGET_MILLIS);
+    }
+
+    /**
+     * Sets the thread on which requests are dispatched
+     * @param mode {@link DispatchMode#INLINE} to run handlers on the Netty
+     *             I/O thread, {@link DispatchMode#EXECUTOR} (the default) to
+     *             hand them to the executor
+     * @param budgetMillis how long an inline handler may run before it's
+     *                     logged as slow
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withDispatchMode(DispatchMode mode,
+                                                   long budgetMillis) {
+        Preconditions.checkArgument(budgetMillis > 0,
+                "invalid budgetMillis " + budgetMillis);
+        this.dispatchMode = Preconditions.checkNotNull(mode, "mode");
+        this.inlineBudgetMillis = budgetMillis;
+        return this;
+    }
+
+    /**
+     * Sets the scheduler used to time out suspended (asynchronous)
+     * responses.  By default a shared daemon thread is used.
+     * @param timer the scheduler to use
+     * @return this (for chaining)
+     */
+    public ResteasyServiceBuilder withTimer(ScheduledExecutorService timer) {
+        this.timer = timer;
+        return this;
+    }
+
     /**
      * Adds a REST-annotated bean to the dispatcher for this service
      * @param endpoint a service bean
@@ -137,6 +490,8 @@ public class ResteasyServiceBuilder {
     }
 
     /**
+     * Builds the service, preparing the JSON codecs for the endpoints' entity
+     * types up front (see {@link ServiceUtils#prepareEntityCodecs})
      * @return a new service
      */
     public Service<HttpRequest,HttpResponse> build() {
@@ -144,19 +499,70 @@ public class ResteasyServiceBuilder {
             this.providerFactory = ServiceUtils.getDefaultProviderFactory();
         }
         if (this.executor == null) {
-            this.executor = Executors.newSingleThreadExecutor();
+            this.executor = newThreadPool(this.threadPoolSize, this.queueLimit);
         }
-        Dispatcher dispatcher = new SynchronousDispatcher(this.providerFactory);
+        Dispatcher dispatcher = new PrematchedDispatcher(this.providerFactory);
 
         for (Object bean : this.beans) {
             dispatcher.getRegistry().addSingletonResource(bean);
+            ServiceUtils.prepareEntityCodecs(this.providerFactory,
+                    bean.getClass());
         }
 
-        return new ResteasyFinagleService(dispatcher, executor);
+        ResteasyFinagleService service = this.timer == null
+                ? new ResteasyFinagleService(dispatcher, executor)
+                : new ResteasyFinagleService(dispatcher, executor, timer);
+        service.setDispatchMode(this.dispatchMode,
+                this.inlineBudgetMillis,
+                TimeUnit.MILLISECONDS);
+        service.setRejectionPolicy(this.rejectionPolicy,
+                this.retryAfterSeconds);
+        service.setConcurrencyLimiter(this.concurrencyLimiter);
+        service.setBulkheadRouter(this.bulkheads);
+        service.setInterruptRunningWorkers(this.interruptOnCancel);
+        service.setDeadlineHeader(this.deadlineHeader);
+        service.setStreamingThreshold(this.streamingThreshold);
+        service.setRequestBodySpooling(this.bodyMemoryLimit,
+                this.spoolDirectory);
+        service.setResponseBufferPool(this.bufferPool);
+        service.setResponseCompressor(this.compressor);
+        service.setResponseCache(this.responseCache);
+        service.setRequestCoalescer(this.coalescer);
+        service.setEntityTagging(this.entityTagging);
+        return service;
+    }
+
+    /*
+     * Creates a fixed-size pool, with a bounded queue unless the limit is 0
+     */
+    private static Executor newThreadPool(int size, int queueLimit) {
+        Preconditions.checkArgument(size > 0, "invalid size " + size);
+        if (queueLimit == 0) {
+            return Executors.newFixedThreadPool(size);
+        }
+        return new ThreadPoolExecutor(
+                size,
+                size,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueLimit));
     }
 
     public static ResteasyServiceBuilder get() {
         return new ResteasyServiceBuilder();
     }
 
+    /**
+     * Server codec for services whose resources should read large request
+     * bodies as they arrive (pass it to
+     * {@link com.twitter.finagle.builder.ServerBuilder#codec} in place of
+     * {@link com.twitter.finagle.http.Http#get()}).  The bodies are then
+     * buffered as set by {@link #withRequestBodySpooling}, rather than
+     * aggregated in memory before dispatch.
+     * @return a new {@link StreamingHttpServerCodec}
+     */
+    public static StreamingHttpServerCodec streamingCodec() {
+        return new StreamingHttpServerCodec();
+    }
+
 }
@@ -0,0 +1,25 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.RETRY_AFTER;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * Empty 503 response used when a request is shed without ever reaching
+ * the Resteasy dispatcher, so it's cheap to build under overload.
+ *
+ * @author ed.peters
+ */
+public class ServiceUnavailableResponse extends DefaultHttpResponse {
+
+    public ServiceUnavailableResponse(HttpVersion version, int retryAfterSeconds) {
+        super(version, SERVICE_UNAVAILABLE);
+        setHeader(CONTENT_LENGTH, "0");
+        if (retryAfterSeconds > 0) {
+            setHeader(RETRY_AFTER, Integer.toString(retryAfterSeconds));
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.opower.finagle.resteasy.server;
+
+import com.twitter.io.Buf;
+import com.twitter.io.Reader;
+import com.twitter.util.FutureEventListener;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+import static com.opower.finagle.resteasy.util.LoggingUtils.debug;
+import static com.opower.finagle.resteasy.util.LoggingUtils.info;
+
+/**
+ * Body of a chunked request, collected as its chunks arrive rather than
+ * aggregated by the codec before dispatch.  The first bytes are kept in
+ * memory, up to a per-request limit; anything beyond that is spilled to a
+ * temporary file.  The stream returned by {@link #getInputStream()} can be
+ * read while the upload is still in progress, and blocks until more of the
+ * body arrives.
+ *
+ * Chunks are pulled from the request as fast as the client sends them
+ * (whether or not the request has been dispatched yet), so an upload
+ * never holds more than the memory limit in the heap.  Each chunk is
+ * stored by the spooling executor rather than on the transport's I/O
+ * thread, which never touches the file or waits on a reader; the next
+ * chunk isn't asked for until the last one is stored.  {@link #release()}
+ * must be called once the request is done with, to stop reading and
+ * delete the temporary file.
+ *
+ * @author ed.peters
+ */
+class SpooledRequestBody {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SpooledRequestBody.class);
+
+    /*
+     * Most we ask the transport for at a time
+     */
+    private static final int READ_SIZE = 8192;
+
+    private final Reader reader;
+    private final int memoryLimit;
+    private final File directory;
+    private final Executor spooler;
+    private final ChannelBuffer memory;
+    private File spoolFile;
+    private FileChannel spool;
+    private long size;
+    private boolean complete;
+    private boolean released;
+    private Throwable failure;
+
+    /**
+     * @param reader source of the request's chunks
+     * @param memoryLimit how many bytes to keep in memory before spilling
+     *                    to disk
+     * @param directory where to create the temporary file, or null for the
+     *                  system default
+     * @param spooler where chunks are stored as they arrive
+     */
+    SpooledRequestBody(Reader reader, int memoryLimit, File directory,
+                       Executor spooler) {
+        this.reader = reader;
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+        this.spooler = spooler;
+        this.memory = ChannelBuffers.dynamicBuffer(
+                Math.max(1, Math.min(memoryLimit, READ_SIZE)));
+    }
+
+    /**
+     * Starts collecting chunks
+     */
+    void start() {
+        readNext();
+    }
+
+    /**
+     * @return a stream over the whole body (each call returns a new stream
+     * starting from the beginning)
+     */
+    InputStream getInputStream() {
+        return new SpoolInputStream();
+    }
+
+    /**
+     * @return the number of bytes received so far
+     */
+    synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return true if part of the body has been written to disk
+     */
+    synchronized boolean isSpooled() {
+        return this.spool != null;
+    }
+
+    /**
+     * Stops collecting chunks (if the body hasn't all arrived), fails any
+     * reads in progress, and deletes the temporary file
+     */
+    void release() {
+        boolean discard;
+        synchronized (this) {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            discard = !this.complete && this.failure == null;
+            notifyAll();
+        }
+        if (discard) {
+            this.reader.discard();
+        }
+        this.spooler.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeSpool();
+            }
+        });
+    }
+
+    /*
+     * Asks for the next chunk, and stores it on the spooler when it comes
+     */
+    private void readNext() {
+        this.reader.read(READ_SIZE).addEventListener(
+                new FutureEventListener<Option<Buf>>() {
+                    @Override
+                    public void onSuccess(final Option<Buf> chunk) {
+                        spooler.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (chunk.isEmpty()) {
+                                    completed(null);
+                                }
+                                else if (append(chunk.get())) {
+                                    readNext();
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable cause) {
+                        spooler.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                completed(cause);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /*
+     * Stores a chunk, returning false if we should stop reading.  Chunks
+     * arrive one at a time, so only the bookkeeping needs the lock; the
+     * file is written outside it, and the bytes are only made visible to
+     * readers once they're there.
+     */
+    private boolean append(Buf chunk) {
+        byte [] bytes = new byte[chunk.length()];
+        chunk.write(bytes, 0);
+        long spoolPosition;
+        int inMemory;
+        FileChannel channel;
+        synchronized (this) {
+            if (this.released) {
+                return false;
+            }
+            spoolPosition = this.size - this.memory.writerIndex();
+            inMemory = Math.min(bytes.length,
+                    this.memoryLimit - this.memory.writerIndex());
+            this.memory.writeBytes(bytes, 0, inMemory);
+            if (inMemory == bytes.length) {
+                this.size += bytes.length;
+                notifyAll();
+                return true;
+            }
+            channel = this.spool;
+        }
+        try {
+            if (channel == null) {
+                channel = openSpool();
+                if (channel == null) {
+                    return false;
+                }
+            }
+            ByteBuffer rest = ByteBuffer.wrap(bytes, inMemory,
+                    bytes.length - inMemory);
+            while (rest.hasRemaining()) {
+                spoolPosition += channel.write(rest, spoolPosition);
+            }
+        }
+        catch (IOException e) {
+            spoolFailed(e);
+            return false;
+        }
+        synchronized (this) {
+            this.size += bytes.length;
+            notifyAll();
+            return !this.released;
+        }
+    }
+
+    private void spoolFailed(IOException cause) {
+        synchronized (this) {
+            if (this.released) {
+                return;
+            }
+            info(LOG, cause, "error spooling request body");
+            this.failure = cause;
+            notifyAll();
+        }
+        this.reader.discard();
+    }
+
+    private synchronized void completed(Throwable cause) {
+        if (cause == null) {
+            this.complete = true;
+        }
+        else if (!this.released) {
+            debug(LOG, cause, "error receiving request body");
+            this.failure = cause;
+        }
+        notifyAll();
+    }
+
+    /*
+     * Creates the temporary file, or returns null if the body was released
+     * in the meantime
+     */
+    private FileChannel openSpool() throws IOException {
+        File file = File.createTempFile("resteasy-finagle-", ".body",
+                this.directory);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        synchronized (this) {
+            if (!this.released) {
+                this.spoolFile = file;
+                this.spool = channel;
+                debug(LOG, "spooling request body to %s", file);
+                return channel;
+            }
+        }
+        close(channel, file);
+        return null;
+    }
+
+    private void closeSpool() {
+        FileChannel channel;
+        File file;
+        synchronized (this) {
+            channel = this.spool;
+            file = this.spoolFile;
+        }
+        close(channel, file);
+    }
+
+    private static void close(FileChannel channel, File file) {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                debug(LOG, e, "error closing %s", file);
+            }
+        }
+        if (file != null && !file.delete()) {
+            info(LOG, "couldn't delete %s", file);
+        }
+    }
+
+    /*
+     * Reads from memory, then from the spool file, waiting for the
+     * rest of the body as necessary
+     */
+    private int readAt(long position, byte [] b, int off, int len)
+            throws IOException {
+        FileChannel channel;
+        long spoolPosition;
+        int count;
+        synchronized (this) {
+            while (position >= this.size
+                    && !this.complete
+                    && this.failure == null
+                    && !this.released) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "interrupted waiting for request body");
+                }
+            }
+            if (this.released) {
+                throw new IOException("request body released");
+            }
+            if (position >= this.size) {
+                if (this.failure != null) {
+                    throw new IOException("error receiving request body",
+                            this.failure);
+                }
+                return -1;
+            }
+            count = (int) Math.min(len, this.size - position);
+            int inMemory = this.memory.writerIndex();
+            if (position < inMemory) {
+                count = Math.min(count, inMemory - (int) position);
+                this.memory.getBytes((int) position, b, off, count);
+                return count;
+            }
+            channel = this.spool;
+            spoolPosition = position - inMemory;
+        }
+        // bytes below the size are already in the file, so no lock needed
+        return channel.read(ByteBuffer.wrap(b, off, count), spoolPosition);
+    }
+
+    /**
+     * Independent stream over the body
+     */
+    private class SpoolInputStream extends InputStream {
+
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte [] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = readAt(this.position, b, off, len);
+            if (count > 0) {
+                this.position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE,
+                    getSize() - this.position);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.opower.finagle.resteasy.server;
+
+import com.twitter.finagle.AbstractCodec;
+import com.twitter.finagle.Service;
+import com.twitter.finagle.ServiceFactory;
+import com.twitter.finagle.Stackable;
+import com.twitter.finagle.http.CheckHttpRequestFilter;
+import com.twitter.finagle.http.HttpServerTraceInitializer;
+import com.twitter.finagle.http.HttpTransport;
+import com.twitter.finagle.http.SafeHttpServerCodec;
+import com.twitter.finagle.http.codec.HttpServerDispatcher;
+import com.twitter.finagle.http.codec.RespondToExpectContinue;
+import com.twitter.finagle.transport.Transport;
+import com.twitter.util.Closable;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+
+/**
+ * HTTP server codec that hands requests to the service as soon as their
+ * headers arrive, where Finagle's {@link com.twitter.finagle.http.Http}
+ * codec collects each request body in memory (up to its maximum request
+ * size) before dispatching it.
+ *
+ * A request whose body is chunked, or longer than a chunk, reaches the
+ * service as a chunked {@link com.twitter.finagle.http.Request} whose
+ * content is read chunk by chunk; {@link ResteasyFinagleService} feeds it
+ * to the resource as it arrives (see
+ * {@link ResteasyFinagleService#setRequestBodySpooling}).  Responses are
+ * sent as with the standard codec, chunked ones included.
+ *
+ * @author ed.peters
+ */
+public class StreamingHttpServerCodec
+        extends AbstractCodec<HttpRequest,HttpResponse> {
+
+    /*
+     * Netty's defaults for the request line and headers; bodies are
+     * split into chunks of at most this many bytes
+     */
+    private static final int MAX_INITIAL_LINE_LENGTH = 4096;
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final int MAX_CHUNK_SIZE = 8192;
+
+    @Override
+    public ChannelPipelineFactory pipelineFactory() {
+        return new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("httpCodec", new SafeHttpServerCodec(
+                        MAX_INITIAL_LINE_LENGTH,
+                        MAX_HEADER_SIZE,
+                        MAX_CHUNK_SIZE));
+                pipeline.addLast("respondToExpectContinue",
+                        new RespondToExpectContinue());
+                return pipeline;
+            }
+        };
+    }
+
+    /**
+     * Finagle's server dispatcher, which reads the chunks that follow a
+     * request into its {@link com.twitter.finagle.http.Request#reader()}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Closable newServerDispatcher(
+            Transport<Object,Object> transport,
+            Service<HttpRequest,HttpResponse> service) {
+        return new HttpServerDispatcher(new HttpTransport(transport), service);
+    }
+
+    /**
+     * Answers requests the codec couldn't decode with a 400
+     */
+    @Override
+    public ServiceFactory<HttpRequest,HttpResponse> prepareConnFactory(
+            ServiceFactory<HttpRequest,HttpResponse> underlying) {
+        return new CheckHttpRequestFilter().andThen(underlying);
+    }
+
+    @Override
+    public Stackable<ServiceFactory<HttpRequest,HttpResponse>>
+            newTraceInitializer() {
+        return new HttpServerTraceInitializer<HttpRequest,HttpResponse>();
+    }
+}
@@ -12,7 +12,8 @@
  *
  *     <li>The outbound response is either a regular
  *     {@link OutboundServiceResponse} or an {@link UnhandledErrorResponse}
- *     if something goes badly wrong.</li>
+ *     if something goes badly wrong; if the resource suspends the request,
+ *     a {@link FinagleAsynchronousContext} sends it when it's resumed.</li>
  *
  * </ol>
  */
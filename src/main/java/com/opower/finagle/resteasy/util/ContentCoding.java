@@ -0,0 +1,174 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.io.ByteStreams;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The HTTP content codings we know how to produce and undo (the values of
+ * the Content-Encoding and Accept-Encoding headers).
+ *
+ * @author ed.peters
+ */
+public enum ContentCoding {
+
+    GZIP("gzip") {
+        @Override
+        protected OutputStream encoder(OutputStream out, final int level)
+                throws IOException {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+
+        @Override
+        protected InputStream decoder(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+
+    /**
+     * "deflate" is the zlib format; some servers send raw deflate data
+     * instead, which {@link #decode} also accepts
+     */
+    DEFLATE("deflate") {
+        @Override
+        protected OutputStream encoder(OutputStream out, int level) {
+            final Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(out, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected InputStream decoder(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+
+        @Override
+        public ChannelBuffer decode(ChannelBuffer content) throws IOException {
+            try {
+                return super.decode(content);
+            }
+            catch (ZipException e) {
+                Inflater inflater = new Inflater(true);
+                try {
+                    return copy(new InflaterInputStream(
+                            new ChannelBufferInputStream(content.duplicate()),
+                            inflater), content.readableBytes());
+                }
+                finally {
+                    inflater.end();
+                }
+            }
+        }
+    };
+
+    private final String token;
+
+    private ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return the name used in HTTP headers
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    protected abstract OutputStream encoder(OutputStream out, int level)
+            throws IOException;
+
+    protected abstract InputStream decoder(InputStream in) throws IOException;
+
+    /**
+     * @param content the bytes to compress (left unread)
+     * @param level a {@link Deflater} compression level (0-9)
+     * @return a new buffer with the compressed bytes
+     */
+    public ChannelBuffer encode(ChannelBuffer content, int level)
+            throws IOException {
+        ChannelBuffer encoded =
+                ChannelBuffers.dynamicBuffer(content.readableBytes() / 4 + 64);
+        OutputStream out = encoder(new ChannelBufferOutputStream(encoded), level);
+        try {
+            content.getBytes(content.readerIndex(), out, content.readableBytes());
+        }
+        finally {
+            out.close();
+        }
+        return encoded;
+    }
+
+    /**
+     * @param content the bytes to decompress (left unread)
+     * @return a new buffer with the original bytes
+     */
+    public ChannelBuffer decode(ChannelBuffer content) throws IOException {
+        return copy(decoder(new ChannelBufferInputStream(content.duplicate())),
+                content.readableBytes());
+    }
+
+    /**
+     * Decodes content as it's read, for content that isn't all there yet.
+     * Unlike {@link #decode(ChannelBuffer)}, this only accepts the
+     * standard (zlib) form of "deflate".
+     * @param content the bytes to decompress
+     * @return a stream of the original bytes (closing it closes
+     * <code>content</code>)
+     * @throws IOException if the coding's header can't be read
+     */
+    public InputStream decode(InputStream content) throws IOException {
+        return decoder(content);
+    }
+
+    protected static ChannelBuffer copy(InputStream in, int encodedSize)
+            throws IOException {
+        ChannelBuffer decoded =
+                ChannelBuffers.dynamicBuffer(Math.max(256, encodedSize * 4));
+        try {
+            ByteStreams.copy(in, new ChannelBufferOutputStream(decoded));
+        }
+        finally {
+            in.close();
+        }
+        return decoded;
+    }
+
+    /**
+     * @param token a content coding, as it appears in a header
+     * @return the matching coding, or null if we don't support it
+     */
+    public static ContentCoding forToken(String token) {
+        for (ContentCoding coding : values()) {
+            if (coding.token.equalsIgnoreCase(token.trim())) {
+                return coding;
+            }
+        }
+        return null;
+    }
+}
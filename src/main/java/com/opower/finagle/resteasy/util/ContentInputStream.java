@@ -0,0 +1,33 @@
+package com.opower.finagle.resteasy.util;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+
+/**
+ * Input stream over the content of a Netty message, which can also hand
+ * over its unread bytes as a {@link ChannelBuffer}.  Providers that know
+ * about it (see {@link JacksonChannelBufferProvider}) can then parse the
+ * content in place, instead of copying it through the stream.
+ *
+ * @author ed.peters
+ */
+public class ContentInputStream extends ChannelBufferInputStream {
+
+    private final ChannelBuffer content;
+
+    public ContentInputStream(ChannelBuffer content) {
+        super(content);
+        this.content = content;
+    }
+
+    /**
+     * @return the bytes that haven't been read yet, which are then
+     * considered read (the returned buffer shares the content, so it
+     * mustn't be modified)
+     */
+    public ChannelBuffer readRemaining() {
+        ChannelBuffer remaining = this.content.slice();
+        this.content.skipBytes(remaining.readableBytes());
+        return remaining;
+    }
+}
@@ -0,0 +1,78 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Helpers for entity tags (the values of the ETag and If-None-Match
+ * headers).
+ *
+ * A compressed entity gets its own tag (the original tag with the content
+ * coding appended, e.g. <code>"abc-gzip"</code>), since its bytes differ;
+ * comparisons ignore the coding, as well as weakness, since If-None-Match
+ * only asks whether the client's copy is still good.
+ *
+ * @author ed.peters
+ */
+public final class EntityTags {
+
+    private EntityTags() {}
+
+    /**
+     * @param hash a hash of an entity
+     * @return a strong entity tag for the entity
+     */
+    public static String fromHash(HashCode hash) {
+        return "\"" + hash + "\"";
+    }
+
+    /**
+     * @param tag an entity tag
+     * @param coding the content coding applied to the entity
+     * @return the tag for the encoded entity
+     */
+    public static String withCoding(String tag, ContentCoding coding) {
+        if (!tag.endsWith("\"") || tag.length() < 2) {
+            return tag;
+        }
+        return tag.substring(0, tag.length() - 1)
+                + "-" + coding.getToken() + "\"";
+    }
+
+    /**
+     * @param ifNoneMatch an If-None-Match header (may be null)
+     * @param tag the current entity tag (may be null)
+     * @return true if the client's copy is current, i.e. a 304 (Not
+     * Modified) may be sent instead of the entity
+     */
+    public static boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null || tag == null) {
+            return false;
+        }
+        String current = normalize(tag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate) || normalize(candidate).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Strips the weakness indicator and any content coding suffix
+     */
+    private static String normalize(String tag) {
+        String opaque = tag.trim();
+        if (opaque.startsWith("W/")) {
+            opaque = opaque.substring(2);
+        }
+        for (ContentCoding coding : ContentCoding.values()) {
+            String suffix = "-" + coding.getToken() + "\"";
+            if (opaque.endsWith(suffix)) {
+                return opaque.substring(0, opaque.length() - suffix.length())
+                        + "\"";
+            }
+        }
+        return opaque;
+    }
+}
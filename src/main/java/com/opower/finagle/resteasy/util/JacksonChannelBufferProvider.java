@@ -0,0 +1,448 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.annotate.JsonView;
+import org.codehaus.jackson.map.introspect.JacksonAnnotationIntrospector;
+import org.codehaus.jackson.type.JavaType;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.resteasy.annotations.providers.NoJackson;
+import org.jboss.resteasy.util.FindAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Set;
+
+import static com.opower.finagle.resteasy.util.LoggingUtils.debug;
+
+/**
+ * JSON provider that does what Resteasy's Jackson provider does, but
+ * resolves type information once per entity type and media type, instead
+ * of on every call, and parses content that's already in a
+ * {@link ChannelBuffer} in place (see {@link ContentInputStream}).
+ * Generated JSON goes straight from Jackson's (recycled) output buffer to
+ * the entity stream, which for this integration writes into a
+ * {@link ChannelBuffer}.
+ *
+ * Registered ahead of Resteasy's Jackson provider by
+ * {@link ServiceUtils#getDefaultProviderFactory()}, so it's used on both
+ * the server and the client side.  Like Resteasy's provider, it honors
+ * <code>ContextResolver&lt;ObjectMapper&gt;</code>s,
+ * <code>@JsonView</code> and <code>@NoJackson</code>.
+ *
+ * @author ed.peters
+ */
+@Provider
+@Consumes({"application/json", "application/*+json", "text/json"})
+@Produces({"application/json", "application/*+json", "text/json"})
+public class JacksonChannelBufferProvider
+        implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    /**
+     * Maximum number of readers (and of writers) kept in the cache
+     */
+    public static final int CACHE_SIZE = 1024;
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(JacksonChannelBufferProvider.class);
+
+    /*
+     * Types that other providers handle, even when they're sent as JSON
+     */
+    private static final Set<Class<?>> UNTOUCHABLES = ImmutableSet.<Class<?>>of(
+            InputStream.class,
+            Reader.class,
+            OutputStream.class,
+            Writer.class,
+            byte[].class,
+            char[].class,
+            String.class,
+            StreamingOutput.class,
+            Response.class);
+
+    private final ObjectMapper defaultMapper;
+    private final Cache<CacheKey,Coder<ObjectReader>> readers;
+    private final Cache<CacheKey,Coder<ObjectWriter>> writers;
+
+    @Context
+    private Providers providers;
+
+    /**
+     * Creates a provider that understands both Jackson and JAXB
+     * annotations (the same as Resteasy's provider), or just Jackson's
+     * if the JAXB annotations aren't on the classpath
+     */
+    public JacksonChannelBufferProvider() {
+        this(newDefaultMapper(new MappingJsonFactory()));
+    }
+
+    /**
+     * @param mapper the mapper to use when there's no
+     *               <code>ContextResolver</code> for one (or the one it
+     *               supplies is for a different format)
+     */
+    public JacksonChannelBufferProvider(ObjectMapper mapper) {
+        this.defaultMapper = Preconditions.checkNotNull(mapper, "mapper");
+        this.readers = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .build();
+        this.writers = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .build();
+    }
+
+    /**
+     * @param factory the factory for the format's parsers and generators
+     * @return a mapper that understands Jackson annotations, and JAXB
+     * annotations if they're available
+     */
+    protected static ObjectMapper newDefaultMapper(JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
+        try {
+            mapper.setAnnotationIntrospector(new AnnotationIntrospector.Pair(
+                    new JacksonAnnotationIntrospector(),
+                    new JaxbAnnotationIntrospector()));
+        }
+        catch (NoClassDefFoundError e) {
+            debug(LOG, "JAXB not available, using Jackson annotations only");
+        }
+        return mapper;
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type,
+                              Type genericType,
+                              Annotation[] annotations,
+                              MediaType mediaType) {
+        return isSupported(mediaType)
+                && !UNTOUCHABLES.contains(type)
+                && !InputStream.class.isAssignableFrom(type)
+                && !Reader.class.isAssignableFrom(type)
+                && FindAnnotation.findAnnotation(type, annotations,
+                        NoJackson.class) == null;
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type,
+                           Type genericType,
+                           Annotation[] annotations,
+                           MediaType mediaType,
+                           MultivaluedMap<String,String> httpHeaders,
+                           InputStream entityStream) throws IOException {
+        Coder<ObjectReader> reader = readerFor(type, genericType, mediaType);
+        JsonParser parser = createParser(reader.mapper, entityStream);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            return reader.coder.readValue(parser);
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads a JSON array one element at a time, as the content arrives,
+     * using the same (cached) reader as for a single element
+     * @param elementType the type of each element
+     * @param mediaType the media type of the content
+     * @param entityStream the content, e.g. the stream a proxy method
+     *                     returns for a streamed response
+     * @return the elements, in an iterator that must be closed if it isn't
+     * read to the end
+     * @throws IOException if the content doesn't start with an array
+     */
+    public <T> JsonArrayIterator<T> readArray(Class<T> elementType,
+                                              MediaType mediaType,
+                                              InputStream entityStream)
+            throws IOException {
+        Coder<ObjectReader> reader = readerFor(elementType, null, mediaType);
+        return new JsonArrayIterator<T>(reader.coder,
+                createParser(reader.mapper, entityStream));
+    }
+
+    private Coder<ObjectReader> readerFor(Class<?> type,
+                                          Type genericType,
+                                          MediaType mediaType) {
+        Type actualType = genericType == null ? type : genericType;
+        CacheKey key = new CacheKey(actualType, mediaType);
+        Coder<ObjectReader> reader = this.readers.getIfPresent(key);
+        if (reader == null) {
+            ObjectMapper mapper = locateMapper(type, mediaType);
+            JavaType javaType = mapper.constructType(actualType);
+            reader = new Coder<ObjectReader>(mapper, javaType,
+                    mapper.reader(javaType));
+            this.readers.put(key, reader);
+        }
+        return reader;
+    }
+
+    /*
+     * Parses heap buffers in place; anything else is read as a stream
+     */
+    private static JsonParser createParser(ObjectMapper mapper,
+                                           InputStream entityStream)
+            throws IOException {
+        if (entityStream instanceof ContentInputStream) {
+            ChannelBuffer content =
+                    ((ContentInputStream) entityStream).readRemaining();
+            if (content.hasArray()) {
+                return mapper.getJsonFactory().createJsonParser(
+                        content.array(),
+                        content.arrayOffset() + content.readerIndex(),
+                        content.readableBytes());
+            }
+            return mapper.getJsonFactory().createJsonParser(
+                    new ChannelBufferInputStream(content));
+        }
+        return mapper.getJsonFactory().createJsonParser(entityStream);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type,
+                               Type genericType,
+                               Annotation[] annotations,
+                               MediaType mediaType) {
+        return isSupported(mediaType)
+                && !UNTOUCHABLES.contains(type)
+                && !OutputStream.class.isAssignableFrom(type)
+                && !Writer.class.isAssignableFrom(type)
+                && !StreamingOutput.class.isAssignableFrom(type)
+                && !Response.class.isAssignableFrom(type)
+                && FindAnnotation.findAnnotation(type, annotations,
+                        NoJackson.class) == null;
+    }
+
+    @Override
+    public long getSize(Object value,
+                        Class<?> type,
+                        Type genericType,
+                        Annotation[] annotations,
+                        MediaType mediaType) {
+        return -1L;
+    }
+
+    @Override
+    public void writeTo(Object value,
+                        Class<?> type,
+                        Type genericType,
+                        Annotation[] annotations,
+                        MediaType mediaType,
+                        MultivaluedMap<String,Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        Coder<ObjectWriter> coder = writerFor(type, genericType, mediaType);
+        ObjectMapper mapper = coder.mapper;
+        ObjectWriter writer = coder.coder;
+        Class<?> view = findView(annotations);
+        if (view != null) {
+            writer = writer.withView(view);
+        }
+        JsonGenerator generator = mapper.getJsonFactory()
+                .createJsonGenerator(entityStream, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (mapper.getSerializationConfig().isEnabled(
+                SerializationConfig.Feature.INDENT_OUTPUT)) {
+            generator.useDefaultPrettyPrinter();
+        }
+        try {
+            writer.writeValue(generator, value);
+        }
+        finally {
+            generator.close();
+        }
+    }
+
+    /*
+     * Writers for generic types know the declared type; for plain classes
+     * (or Object) the runtime type of the value is used, as Resteasy's
+     * provider does
+     */
+    private Coder<ObjectWriter> writerFor(Class<?> type,
+                                          Type genericType,
+                                          MediaType mediaType) {
+        Type rootType = genericType == null || genericType instanceof Class
+                ? type
+                : genericType;
+        CacheKey key = new CacheKey(rootType, mediaType);
+        Coder<ObjectWriter> writer = this.writers.getIfPresent(key);
+        if (writer == null) {
+            ObjectMapper mapper = locateMapper(type, mediaType);
+            JavaType javaType = mapper.constructType(rootType);
+            writer = new Coder<ObjectWriter>(mapper, javaType,
+                    rootType instanceof Class
+                            || javaType.getRawClass() == Object.class
+                            ? mapper.writer()
+                            : mapper.writerWithType(javaType));
+            this.writers.put(key, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Resolves the reader and writer for an entity type ahead of time,
+     * along with the Jackson deserializers and serializers behind them, so
+     * that the first request to use the type doesn't pay for introspecting
+     * it (see {@link ServiceUtils#prepareEntityCodecs}).
+     * @param type the entity class
+     * @param genericType the declared type of the entity (may be null)
+     * @param mediaType the media type the entity is exchanged as
+     */
+    public void prepare(Class<?> type, Type genericType, MediaType mediaType) {
+        Coder<ObjectReader> reader = readerFor(type, genericType, mediaType);
+        reader.mapper.canDeserialize(reader.type);
+        Coder<ObjectWriter> writer = writerFor(type, genericType, mediaType);
+        prepareSerializers(writer.mapper, writer.type);
+    }
+
+    /*
+     * Serializers are looked up by class, so the ones for type parameters
+     * (e.g. the elements of a list) are prepared separately
+     */
+    private static void prepareSerializers(ObjectMapper mapper, JavaType type) {
+        if (type.getRawClass() != Object.class) {
+            mapper.canSerialize(type.getRawClass());
+        }
+        for (int i = 0; i < type.containedTypeCount(); i++) {
+            prepareSerializers(mapper, type.containedType(i));
+        }
+    }
+
+    private ObjectMapper locateMapper(Class<?> type, MediaType mediaType) {
+        if (this.providers != null) {
+            ContextResolver<ObjectMapper> resolver =
+                    this.providers.getContextResolver(ObjectMapper.class,
+                            mediaType);
+            if (resolver != null) {
+                ObjectMapper mapper = resolver.getContext(type);
+                if (mapper != null && isSameFormat(mapper)) {
+                    return mapper;
+                }
+            }
+        }
+        return this.defaultMapper;
+    }
+
+    private static Class<?> findView(Annotation[] annotations) {
+        if (annotations == null) {
+            return null;
+        }
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof JsonView) {
+                Class<?>[] views = ((JsonView) annotation).value();
+                Preconditions.checkState(views.length == 1,
+                        "@JsonView must name exactly one view");
+                return views[0];
+            }
+        }
+        return null;
+    }
+
+    private boolean isSameFormat(ObjectMapper mapper) {
+        return mapper.getJsonFactory().getFormatName().equals(
+                this.defaultMapper.getJsonFactory().getFormatName());
+    }
+
+    /**
+     * @param mediaType the media type of an entity (null if unknown)
+     * @return true if this provider's format is used for the media type
+     */
+    protected boolean isSupported(MediaType mediaType) {
+        return isJson(mediaType);
+    }
+
+    /**
+     * @param mediaType a media type (null if unknown)
+     * @return true for JSON (including "+json") media types
+     */
+    public static boolean isJson(MediaType mediaType) {
+        if (mediaType == null) {
+            return true;
+        }
+        String subtype = mediaType.getSubtype();
+        return "json".equalsIgnoreCase(subtype) || subtype.endsWith("+json");
+    }
+
+    /**
+     * A cached reader or writer, with the mapper it came from and the type
+     * it was resolved for
+     */
+    private static final class Coder<T> {
+
+        private final ObjectMapper mapper;
+        private final JavaType type;
+        private final T coder;
+
+        Coder(ObjectMapper mapper, JavaType type, T coder) {
+            this.mapper = mapper;
+            this.type = type;
+            this.coder = coder;
+        }
+    }
+
+    /**
+     * Readers and writers are cached per entity type and media type, since
+     * a <code>ContextResolver</code> may supply a different mapper for each.
+     * Media type parameters (e.g. the charset) are ignored.
+     */
+    private static final class CacheKey {
+
+        private final Type type;
+        private final String mediaType;
+        private final String mediaSubtype;
+
+        CacheKey(Type type, MediaType mediaType) {
+            this.type = type;
+            this.mediaType = mediaType == null ? null : mediaType.getType();
+            this.mediaSubtype = mediaType == null ? null : mediaType.getSubtype();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) other;
+            return this.type.equals(that.type)
+                    && Objects.equal(this.mediaType, that.mediaType)
+                    && Objects.equal(this.mediaSubtype, that.mediaSubtype);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.type, this.mediaType, this.mediaSubtype);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.base.Preconditions;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the elements of a JSON array one at a time, so that a large array
+ * (e.g. the content of a streamed response) can be processed as it
+ * arrives, instead of being held in memory as a whole.
+ *
+ * The iterator closes the underlying stream when it gets to the end of the
+ * array, or fails to parse it.  One that's abandoned before then must be
+ * closed, which for a streamed response aborts the transfer.  Parse errors
+ * surface from {@link #hasNext()} and {@link #next()} as runtime
+ * exceptions.
+ *
+ * @author ed.peters
+ * @param <T> element type
+ */
+public class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+
+    private final ObjectReader reader;
+    private final JsonParser parser;
+    private boolean pending;
+    private boolean closed;
+
+    /**
+     * @param mapper the mapper to parse the elements with
+     * @param elementType the type of each element
+     * @param entityStream the JSON content
+     * @throws IOException if the content doesn't start with an array
+     */
+    public JsonArrayIterator(ObjectMapper mapper,
+                             Class<T> elementType,
+                             InputStream entityStream) throws IOException {
+        this(mapper.reader(elementType),
+                mapper.getJsonFactory().createJsonParser(entityStream));
+    }
+
+    JsonArrayIterator(ObjectReader reader, JsonParser parser)
+            throws IOException {
+        this.reader = Preconditions.checkNotNull(reader, "reader");
+        this.parser = Preconditions.checkNotNull(parser, "parser");
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException("expected a JSON array",
+                        parser.getCurrentLocation());
+            }
+        }
+        catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.closed) {
+            return false;
+        }
+        if (!this.pending) {
+            try {
+                JsonToken token = this.parser.nextToken();
+                if (token == null) {
+                    throw new JsonParseException("unterminated JSON array",
+                            this.parser.getCurrentLocation());
+                }
+                if (token == JsonToken.END_ARRAY) {
+                    close();
+                    return false;
+                }
+            }
+            catch (IOException e) {
+                throw failed(e);
+            }
+            this.pending = true;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.pending = false;
+        try {
+            return this.reader.<T>readValue(this.parser);
+        }
+        catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("read-only iterator");
+    }
+
+    /**
+     * Stops reading, and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            this.parser.close();
+        }
+    }
+
+    private RuntimeException failed(IOException cause) {
+        try {
+            close();
+        }
+        catch (IOException e) {
+            // the parse error is the one worth reporting
+        }
+        return new RuntimeException("error reading JSON array", cause);
+    }
+}
@@ -0,0 +1,143 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which a caller needs a response, carried between services as
+ * an HTTP header holding milliseconds since the epoch.  A deadline keeps the
+ * name of the header it arrived in, and is sent on in that same header, so
+ * services configured with a header of their own pass it along intact.
+ * On the server, the
+ * deadline of the request being handled is available as a request
+ * attribute (see {@link #ATTRIBUTE}) and, on the dispatching thread, from
+ * {@link #current()}; outbound client calls made from that thread pass it
+ * along.
+ *
+ * @author ed.peters
+ */
+public final class RequestDeadline {
+
+    /**
+     * Default header used to carry the deadline
+     */
+    public static final String DEFAULT_HEADER = "X-Request-Deadline";
+
+    /**
+     * Name of the request attribute holding the deadline of the request
+     * being served
+     */
+    public static final String ATTRIBUTE = RequestDeadline.class.getName();
+
+    private static final ThreadLocal<RequestDeadline> CURRENT =
+            new ThreadLocal<RequestDeadline>();
+
+    private final long deadlineMillis;
+    private final String header;
+
+    /**
+     * Same as <code>new RequestDeadline(deadlineMillis, DEFAULT_HEADER)</code>
+     */
+    public RequestDeadline(long deadlineMillis) {
+        this(deadlineMillis, DEFAULT_HEADER);
+    }
+
+    /**
+     * @param deadlineMillis the deadline, in milliseconds since the epoch
+     * @param header the header that carries the deadline
+     */
+    public RequestDeadline(long deadlineMillis, String header) {
+        this.deadlineMillis = deadlineMillis;
+        this.header = Preconditions.checkNotNull(header, "header");
+    }
+
+    /**
+     * @return the deadline, in milliseconds since the epoch
+     */
+    public long getDeadlineMillis() {
+        return this.deadlineMillis;
+    }
+
+    /**
+     * @return the header that carries the deadline
+     */
+    public String getHeader() {
+        return this.header;
+    }
+
+    /**
+     * @return how much time is left before the deadline (negative once it
+     * has passed)
+     */
+    public long getRemaining(TimeUnit unit) {
+        return unit.convert(
+                this.deadlineMillis - System.currentTimeMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= this.deadlineMillis;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(this.deadlineMillis);
+    }
+
+    /**
+     * @param message a Netty message
+     * @param header the header carrying the deadline
+     * @return the deadline from the supplied message, or null if there
+     * isn't one (or it can't be parsed)
+     */
+    public static RequestDeadline fromHeader(HttpMessage message, String header) {
+        String value = message.getHeader(header);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new RequestDeadline(Long.parseLong(value.trim()), header);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the deadline of the request being dispatched on this thread,
+     * or null if there isn't one
+     */
+    public static RequestDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets (or, given null, clears) the deadline for this thread
+     */
+    public static void setCurrent(RequestDeadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * Same as <code>setCurrent(null)</code>
+     */
+    public static void clearCurrent() {
+        setCurrent(null);
+    }
+
+    /**
+     * @return a deadline the supplied time from now
+     */
+    public static RequestDeadline in(long time, TimeUnit unit) {
+        Preconditions.checkNotNull(unit, "unit");
+        return new RequestDeadline(
+                System.currentTimeMillis() + unit.toMillis(time));
+    }
+}
@@ -0,0 +1,192 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.base.Preconditions;
+import org.jboss.resteasy.specimpl.ResteasyUriBuilder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * The pieces of an inbound request URI (as it appears on the request line)
+ * combined with the request's Host header.  Parsing is done in a single
+ * pass by hand, rather than with regular expressions and a
+ * {@link ResteasyUriBuilder} round trip.
+ *
+ * Instances are immutable.
+ *
+ * @author ed.peters
+ */
+public final class RequestUri {
+
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 80;
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final String path;
+    private final String rawQuery;
+    private final URI absoluteUri;
+
+    private RequestUri(String host,
+                       int port,
+                       boolean secure,
+                       String path,
+                       String rawQuery) {
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.path = path;
+        this.rawQuery = rawQuery;
+        this.absoluteUri = buildAbsoluteUri();
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public boolean isSecure() {
+        return this.secure;
+    }
+
+    /**
+     * @return the (still encoded) path, always starting with "/"
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return the (still encoded) query string, or null if there isn't one
+     */
+    public String getRawQuery() {
+        return this.rawQuery;
+    }
+
+    /**
+     * @return the full request URI, including the query string
+     */
+    public URI getAbsoluteUri() {
+        return this.absoluteUri;
+    }
+
+    @Override
+    public String toString() {
+        return this.absoluteUri.toString();
+    }
+
+    /**
+     * @param uri a request URI, as it appears on the request line (either a
+     *            path with optional query, or an absolute URI)
+     * @param hostHeader the Host header of the request, or null if it
+     *                   didn't have one
+     * @param secure did the request come in on a secure channel?
+     * @return the parsed URI
+     * @throws IllegalArgumentException if the Host header (or the
+     * authority of an absolute URI) has an invalid port
+     */
+    public static RequestUri parse(String uri, String hostHeader, boolean secure) {
+        Preconditions.checkNotNull(uri, "uri");
+        String authority = hostHeader;
+        int start = 0;
+        // absolute-form request line ("http://host:port/path?query")
+        int scheme = uri.indexOf("://");
+        if (scheme > 0 && uri.charAt(0) != '/') {
+            int authorityStart = scheme + 3;
+            int authorityEnd = authorityStart;
+            while (authorityEnd < uri.length()) {
+                char c = uri.charAt(authorityEnd);
+                if (c == '/' || c == '?') {
+                    break;
+                }
+                authorityEnd++;
+            }
+            authority = uri.substring(authorityStart, authorityEnd);
+            start = authorityEnd;
+        }
+
+        String path = null;
+        String rawQuery = null;
+        for (int i = start; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == '?' || c == '#') {
+                path = uri.substring(start, i);
+                if (c == '?') {
+                    int end = uri.indexOf('#', i + 1);
+                    rawQuery = uri.substring(i + 1, end < 0 ? uri.length() : end);
+                }
+                break;
+            }
+        }
+        if (path == null) {
+            path = start == 0 ? uri : uri.substring(start);
+        }
+        if (path.length() == 0 || path.charAt(0) != '/') {
+            path = "/" + path;
+        }
+
+        String host = DEFAULT_HOST;
+        int port = DEFAULT_PORT;
+        if (authority != null && authority.length() > 0) {
+            // skip over an IPv6 literal ("[::1]:8080") before looking for
+            // the port separator
+            int colon = authority.lastIndexOf(':');
+            if (colon >= 0 && authority.indexOf(']', colon) >= 0) {
+                colon = -1;
+            }
+            if (colon < 0) {
+                host = authority;
+            }
+            else {
+                host = authority.substring(0, colon);
+                try {
+                    port = Integer.parseInt(authority.substring(colon + 1));
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                            "bad host header: " + authority, e);
+                }
+            }
+            if (host.length() == 0) {
+                host = DEFAULT_HOST;
+            }
+        }
+        return new RequestUri(host, port, secure, path, rawQuery);
+    }
+
+    /*
+     * Assembles the URI directly from its (already encoded) parts; if the
+     * request contains characters that aren't legal in a URI, we fall back
+     * to the builder, which escapes them
+     */
+    private URI buildAbsoluteUri() {
+        StringBuilder buf = new StringBuilder(
+                this.host.length() + this.path.length()
+                        + (this.rawQuery == null ? 0 : this.rawQuery.length() + 1)
+                        + 16);
+        buf.append(this.secure ? "https://" : "http://")
+                .append(this.host)
+                .append(':')
+                .append(this.port)
+                .append(this.path);
+        if (this.rawQuery != null) {
+            buf.append('?').append(this.rawQuery);
+        }
+        try {
+            return new URI(buf.toString());
+        }
+        catch (URISyntaxException e) {
+            return new ResteasyUriBuilder()
+                    .scheme(this.secure ? "https" : "http")
+                    .host(this.host)
+                    .port(this.port)
+                    .path(this.path)
+                    .replaceQuery(this.rawQuery)
+                    .build();
+        }
+    }
+}
@@ -7,15 +7,21 @@ import org.jboss.netty.handler.codec.http.HttpMessage;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.resteasy.client.ClientRequest;
 import org.jboss.resteasy.plugins.providers.RegisterBuiltin;
-import org.jboss.resteasy.specimpl.PathSegmentImpl;
 import org.jboss.resteasy.specimpl.ResteasyHttpHeaders;
-import org.jboss.resteasy.specimpl.ResteasyUriBuilder;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.jboss.resteasy.spi.ResteasyUriInfo;
+import org.jboss.resteasy.spi.metadata.MethodParameter;
+import org.jboss.resteasy.spi.metadata.Parameter;
+import org.jboss.resteasy.spi.metadata.ResourceBuilder;
+import org.jboss.resteasy.spi.metadata.ResourceMethod;
 import org.jboss.resteasy.util.CaseInsensitiveMap;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.core.*;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
@@ -138,24 +144,12 @@ public final class ServiceUtils {
      * @return a {@link javax.ws.rs.core.UriInfo} object for the specified URI
      */
     public static UriInfo toUriInfo(HttpRequest nettyRequest) {
-        String host = "localhost";
-        int port = 80;
-        String hostHeader = nettyRequest.getHeader(HOST);
-        if (hostHeader != null) {
-            try {
-                String [] split = hostHeader.split(":");
-                host = split[0];
-                if (split.length > 1) {
-                    port = Integer.parseInt(split[1]);
-                }
-            }
-            catch (Exception e) {
-                throw new IllegalArgumentException(
-                        "bad host header: " + hostHeader, e);
-            }
-        }
         // TODO how can we determine whether the request was SSL or not?
-        return toUriInfo(nettyRequest.getUri(), host, port, false);
+        RequestUri parsed = RequestUri.parse(
+                nettyRequest.getUri(),
+                nettyRequest.getHeader(HOST),
+                false);
+        return new ResteasyUriInfo(parsed.getAbsoluteUri());
     }
 
     /**
@@ -170,39 +164,124 @@ public final class ServiceUtils {
                                     int port,
                                     boolean secure) {
 
-        // this was ripped off from JBoss code that does the same thing
-        // starting with an HttpServletRequest
-        // @see org.jboss.resteasy.plugins.server.servlet.ServletUtil#extractUriInfo()
-
-        String [] split = uri.split("\\?", 2);
-        String path = split[0];
-        String query = null;
-        if (split.length > 1) {
-            query = split[1];
-        }
-
-        URI absolutePath = new ResteasyUriBuilder()
-                .scheme(secure ? "https" : "http")
-                .host(host == null ? "localhost" : host)
-                .port(port)
-                .path(path)
-                .replaceQuery(query)
-                .build();
-
-        String rawPath = absolutePath.getRawPath();
-        List<PathSegment> pathSegments = PathSegmentImpl.parseSegments(rawPath, false);
-
-        return new ResteasyUriInfo(absolutePath);
+        String authority = (host == null ? "localhost" : host) + ":" + port;
+        return new ResteasyUriInfo(
+                RequestUri.parse(uri, authority, secure).getAbsoluteUri());
     }
 
     /**
      * Gets the default instance of the ResteasyProviderFactory and manually
-     * prods it to register built-in providers by scanning the classpath.
+     * prods it to register built-in providers by scanning the classpath,
+     * plus our own {@link JacksonChannelBufferProvider} (which takes
+     * precedence over the built-in JSON provider), and Smile support (see
+     * {@link SmileNegotiationFilter}).
      */
     public static ResteasyProviderFactory getDefaultProviderFactory() {
         ResteasyProviderFactory factory = ResteasyProviderFactory.getInstance();
         RegisterBuiltin.register(factory);
+        synchronized (factory) {
+            registerOnce(factory, new JacksonChannelBufferProvider());
+            registerOnce(factory, new SmileChannelBufferProvider());
+            registerOnce(factory, new SmileNegotiationFilter());
+        }
         return factory;
     }
 
+    private static void registerOnce(ResteasyProviderFactory factory,
+                                     Object provider) {
+        if (!factory.isRegistered(provider.getClass())) {
+            factory.registerProviderInstance(provider);
+        }
+    }
+
+    /**
+     * Prepares the JSON readers and writers for the entity types in the
+     * signatures of a resource class (or a client interface), so the first
+     * requests after startup don't pay for introspecting them.  Entities
+     * that aren't exchanged as JSON, or that are handled by a provider other
+     * than {@link JacksonChannelBufferProvider}, are left alone, as are the
+     * methods of sub-resources.
+     * @param factory the provider factory that will handle the entities
+     * @param resourceClass the annotated class or interface
+     * @return the number of entities prepared
+     */
+    public static int prepareEntityCodecs(ResteasyProviderFactory factory,
+                                          Class<?> resourceClass) {
+        int prepared = 0;
+        // providers look up ContextResolvers through the request context,
+        // which doesn't exist yet
+        ResteasyProviderFactory.addContextDataLevel();
+        ResteasyProviderFactory.pushContext(Providers.class, factory);
+        try {
+            for (ResourceMethod method : ResourceBuilder
+                    .rootResourceFromAnnotations(resourceClass)
+                    .getResourceMethods()) {
+                if (prepareEntityCodec(factory,
+                        method.getReturnType(),
+                        method.getGenericReturnType(),
+                        method.getAnnotatedMethod().getAnnotations(),
+                        method.getProduces())) {
+                    prepared++;
+                }
+                for (MethodParameter param : method.getParams()) {
+                    if (param.getParamType() == Parameter.ParamType.MESSAGE_BODY
+                            && prepareEntityCodec(factory,
+                                    param.getType(),
+                                    param.getGenericType(),
+                                    param.getAnnotations(),
+                                    method.getConsumes())) {
+                        prepared++;
+                    }
+                }
+            }
+        }
+        finally {
+            ResteasyProviderFactory.removeContextDataLevel();
+        }
+        return prepared;
+    }
+
+    /*
+     * Methods that don't declare their media types are assumed to use JSON,
+     * and JSON entities may also be sent as Smile
+     */
+    private static boolean prepareEntityCodec(ResteasyProviderFactory factory,
+                                              Class<?> type,
+                                              Type genericType,
+                                              Annotation[] annotations,
+                                              MediaType[] mediaTypes) {
+        if (type == void.class || type == Void.class) {
+            return false;
+        }
+        boolean prepared = false;
+        for (MediaType mediaType : mediaTypes == null || mediaTypes.length == 0
+                ? new MediaType[] { MediaType.APPLICATION_JSON_TYPE }
+                : mediaTypes) {
+            if (prepareEntityCodec(factory, type, genericType, annotations,
+                    mediaType)) {
+                prepared = true;
+                if (JacksonChannelBufferProvider.isJson(mediaType)) {
+                    prepareEntityCodec(factory, type, genericType, annotations,
+                            SmileChannelBufferProvider.APPLICATION_SMILE_TYPE);
+                }
+            }
+        }
+        return prepared;
+    }
+
+    private static boolean prepareEntityCodec(ResteasyProviderFactory factory,
+                                              Class<?> type,
+                                              Type genericType,
+                                              Annotation[] annotations,
+                                              MediaType mediaType) {
+        MessageBodyWriter<?> writer = factory.getMessageBodyWriter(
+                type, genericType, annotations, mediaType);
+        if (writer instanceof JacksonChannelBufferProvider) {
+            ((JacksonChannelBufferProvider) writer).prepare(
+                    type, genericType, mediaType);
+            return true;
+        }
+        return false;
+    }
+
 }
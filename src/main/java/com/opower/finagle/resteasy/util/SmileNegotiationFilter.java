@@ -0,0 +1,93 @@
+package com.opower.finagle.resteasy.util;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.Providers;
+import java.util.List;
+
+import static com.opower.finagle.resteasy.util.SmileChannelBufferProvider.APPLICATION_SMILE_TYPE;
+
+/**
+ * Sends JSON responses as Smile (see {@link SmileChannelBufferProvider})
+ * to callers that ask for it, so that resources which only declare JSON
+ * can serve callers that prefer the binary encoding.
+ *
+ * A caller gets Smile if its Accept header names Smile explicitly, with a
+ * quality at least as high as any JSON type it accepts (wildcards don't
+ * count).  Since a caller must accept JSON to be matched to a JSON
+ * resource method in the first place, it should send something like
+ * <code>application/x-jackson-smile, application/json</code>.  Responses
+ * that could have been sent either way get a <code>Vary: Accept</code>
+ * header.
+ *
+ * @author ed.peters
+ */
+@Provider
+public class SmileNegotiationFilter implements ContainerResponseFilter {
+
+    @Context
+    private Providers providers;
+
+    @Override
+    public void filter(ContainerRequestContext request,
+                       ContainerResponseContext response) {
+        MediaType mediaType = response.getMediaType();
+        if (!response.hasEntity()
+                || mediaType == null
+                || !JacksonChannelBufferProvider.isJson(mediaType)) {
+            return;
+        }
+        MessageBodyWriter<?> writer = this.providers.getMessageBodyWriter(
+                response.getEntityClass(),
+                response.getEntityType(),
+                response.getEntityAnnotations(),
+                APPLICATION_SMILE_TYPE);
+        if (!(writer instanceof SmileChannelBufferProvider)) {
+            return;
+        }
+        response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (prefersSmile(request.getAcceptableMediaTypes())) {
+            response.setEntity(response.getEntity(),
+                    response.getEntityAnnotations(),
+                    APPLICATION_SMILE_TYPE);
+        }
+    }
+
+    /**
+     * @param acceptable the media types from a request's Accept header
+     * @return true if Smile is named, and is at least as acceptable as JSON
+     */
+    public static boolean prefersSmile(List<MediaType> acceptable) {
+        double smile = 0.0;
+        double json = 0.0;
+        for (MediaType type : acceptable) {
+            if (SmileChannelBufferProvider.isSmile(type)) {
+                smile = Math.max(smile, quality(type));
+            }
+            else if (!type.isWildcardSubtype()
+                    && JacksonChannelBufferProvider.isJson(type)) {
+                json = Math.max(json, quality(type));
+            }
+        }
+        return smile > 0.0 && smile >= json;
+    }
+
+    private static double quality(MediaType type) {
+        String quality = type.getParameters().get("q");
+        if (quality == null) {
+            return 1.0;
+        }
+        try {
+            return Double.parseDouble(quality);
+        }
+        catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+}
@@ -1,22 +1,45 @@
 package com.opower.finagle.resteasy.client;
 
+import com.opower.finagle.resteasy.example.Model;
+import com.opower.finagle.resteasy.util.ContentCoding;
+import com.opower.finagle.resteasy.util.RequestDeadline;
 import com.opower.finagle.resteasy.util.ServiceUtils;
+import com.opower.finagle.resteasy.util.SmileChannelBufferProvider;
+import com.google.common.base.Strings;
 import com.twitter.finagle.Service;
+import com.twitter.finagle.http.Request;
+import com.twitter.io.Buf;
+import com.twitter.io.Reader;
+import com.twitter.io.Reader$;
+import com.twitter.util.Function;
 import com.twitter.util.Future;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.resteasy.client.ClientRequest;
 import org.jboss.resteasy.client.ClientResponse;
+import org.jboss.resteasy.util.CaseInsensitiveMap;
 import org.junit.Test;
 
 import javax.ws.rs.core.Response;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.CONFLICT;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static com.opower.finagle.resteasy.util.SmileChannelBufferProvider.APPLICATION_SMILE;
+import static com.opower.finagle.resteasy.util.SmileChannelBufferProvider.APPLICATION_SMILE_TYPE;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
 
 /**
  * Tests the adapter between Finagle and Resteasy (this exercises the
@@ -56,4 +79,201 @@ public class TestFinagleBasedClientExecutor {
 
     }
 
+    @Test
+    public void testDeadlineSentInItsOwnHeader() throws Exception {
+
+        ClientRequest resteasyRequest = new ClientRequest("/foo/bar");
+        resteasyRequest.setHttpMethod("GET");
+
+        final AtomicReference<HttpRequest> sent =
+                new AtomicReference<HttpRequest>();
+        Service<HttpRequest,HttpResponse> service =
+                new Service<HttpRequest,HttpResponse>() {
+                    @Override
+                    public Future<HttpResponse> apply(HttpRequest request) {
+                        sent.set(request);
+                        return Future.<HttpResponse>value(
+                                new DefaultHttpResponse(HTTP_1_1, OK));
+                    }
+                };
+
+        FinagleBasedClientExecutor executor = new FinagleBasedClientExecutor(
+                ServiceUtils.getDefaultProviderFactory(),
+                service);
+
+        RequestDeadline.setCurrent(new RequestDeadline(1234L, "X-Budget"));
+        try {
+            executor.execute(resteasyRequest);
+        }
+        finally {
+            RequestDeadline.clearCurrent();
+        }
+        assertEquals("wrong deadline", "1234", sent.get().getHeader("X-Budget"));
+        assertNull("deadline in the default header",
+                sent.get().getHeader(RequestDeadline.DEFAULT_HEADER));
+
+    }
+
+    @Test
+    public void testPreferredMediaType() throws Exception {
+
+        ClientRequest resteasyRequest = new ClientRequest("/foo/bar");
+        resteasyRequest.setHttpMethod("GET");
+        resteasyRequest.accept(APPLICATION_JSON_TYPE);
+
+        Model model = new Model();
+        model.setName("a");
+        ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+        new SmileChannelBufferProvider().writeTo(model, Model.class,
+                Model.class, new Annotation[0], APPLICATION_SMILE_TYPE,
+                new CaseInsensitiveMap<Object>(),
+                new ChannelBufferOutputStream(content));
+        final HttpResponse nettyResponse = new DefaultHttpResponse(HTTP_1_1, OK);
+        nettyResponse.setHeader("Content-Type", APPLICATION_SMILE);
+        nettyResponse.setContent(content);
+
+        final AtomicReference<String> accept = new AtomicReference<String>();
+        Service<HttpRequest,HttpResponse> service =
+                new Service<HttpRequest,HttpResponse>() {
+                    @Override
+                    public Future<HttpResponse> apply(HttpRequest request) {
+                        accept.set(request.getHeader("Accept"));
+                        return Future.value(nettyResponse);
+                    }
+                };
+
+        FinagleBasedClientExecutor executor = new FinagleBasedClientExecutor(
+                ServiceUtils.getDefaultProviderFactory(),
+                service);
+        executor.setPreferredMediaType(APPLICATION_SMILE_TYPE);
+
+        ClientResponse resteasyResponse = executor.execute(resteasyRequest);
+        assertEquals("wrong Accept", APPLICATION_SMILE + ", application/json",
+                accept.get());
+        assertEquals("wrong entity", "a",
+                ((Model) resteasyResponse.getEntity(Model.class)).getName());
+
+    }
+
+    @Test
+    public void testCompressedResponseDecoded() throws Exception {
+
+        ClientRequest resteasyRequest = new ClientRequest("/foo/bar");
+        resteasyRequest.setHttpMethod("GET");
+        resteasyRequest.accept("text/plain");
+
+        final HttpResponse nettyResponse = new DefaultHttpResponse(HTTP_1_1, OK);
+        nettyResponse.setHeader("Content-Type", "text/plain");
+        nettyResponse.setHeader("Content-Encoding", "gzip");
+        nettyResponse.setContent(ContentCoding.GZIP.encode(
+                ChannelBuffers.copiedBuffer("hello", UTF_8), 6));
+
+        final AtomicReference<String> acceptEncoding =
+                new AtomicReference<String>();
+        Service<HttpRequest,HttpResponse> service =
+                new Service<HttpRequest,HttpResponse>() {
+                    @Override
+                    public Future<HttpResponse> apply(HttpRequest request) {
+                        acceptEncoding.set(request.getHeader("Accept-Encoding"));
+                        return Future.value(nettyResponse);
+                    }
+                };
+
+        FinagleBasedClientExecutor executor = new FinagleBasedClientExecutor(
+                ServiceUtils.getDefaultProviderFactory(),
+                service);
+
+        ClientResponse resteasyResponse = executor.execute(resteasyRequest);
+        assertEquals("wrong Accept-Encoding", "gzip, deflate",
+                acceptEncoding.get());
+        assertEquals("wrong entity", "hello",
+                resteasyResponse.getEntity(String.class));
+
+    }
+
+    @Test
+    public void testStreamedRequest() throws Exception {
+
+        String entity = Strings.repeat("0123456789", 1000);
+        StreamReadingService service = new StreamReadingService();
+        FinagleBasedClientExecutor executor = new FinagleBasedClientExecutor(
+                ServiceUtils.getDefaultProviderFactory(),
+                service);
+        executor.setStreamingThreshold(1024);
+
+        ClientRequest large = new ClientRequest("/foo/bar");
+        large.setHttpMethod("POST");
+        large.body("text/plain", entity);
+        assertEquals(Response.Status.OK,
+                executor.execute(large).getResponseStatus());
+        assertTrue("not chunked", service.chunked);
+        assertEquals("wrong entity", entity, service.content);
+
+        ClientRequest small = new ClientRequest("/foo/bar");
+        small.setHttpMethod("POST");
+        small.body("text/plain", "hello");
+        executor.execute(small);
+        assertFalse("chunked", service.chunked);
+        assertEquals("wrong entity", "hello", service.content);
+        assertEquals("wrong Content-Length", "5", service.contentLength);
+
+    }
+
+    @Test
+    public void testStreamedResponseAggregated() throws Exception {
+
+        HttpResponse streamed = TestInboundClientResponse.streamedResponse(
+                "ab".getBytes(), "cd".getBytes());
+        streamed.setHeader("Transfer-Encoding", "chunked");
+
+        Future<HttpResponse> future =
+                FinagleBasedClientExecutor.aggregate(Future.value(streamed));
+        assertTrue("waited for content", future.isDefined());
+        HttpResponse aggregated = future.get();
+        assertFalse("still chunked", aggregated.isChunked());
+        assertEquals("wrong content", "abcd",
+                aggregated.getContent().toString(UTF_8));
+        assertEquals("wrong Content-Length", "4",
+                aggregated.getHeader("Content-Length"));
+        assertNull("Transfer-Encoding not removed",
+                aggregated.getHeader("Transfer-Encoding"));
+    }
+
+    /**
+     * Service that reads request entities chunk by chunk, if they're
+     * streamed
+     */
+    private static class StreamReadingService
+            extends Service<HttpRequest,HttpResponse> {
+
+        private boolean chunked;
+        private String content;
+        private String contentLength;
+
+        @Override
+        public Future<HttpResponse> apply(HttpRequest request) {
+            this.chunked = request.isChunked();
+            this.contentLength = request.getHeader("Content-Length");
+            if (!this.chunked) {
+                this.content = request.getContent().toString(UTF_8);
+                return Future.value(newResponse());
+            }
+            Reader reader = ((Request) request).reader();
+            return Reader$.MODULE$.readAll(reader).map(
+                    new Function<Buf,HttpResponse>() {
+                        @Override
+                        public HttpResponse apply(Buf buf) {
+                            byte[] bytes = new byte[buf.length()];
+                            buf.write(bytes, 0);
+                            content = new String(bytes, UTF_8);
+                            return newResponse();
+                        }
+                    });
+        }
+
+        private static HttpResponse newResponse() {
+            return new DefaultHttpResponse(HTTP_1_1, OK);
+        }
+    }
+
 }
@@ -0,0 +1,122 @@
+package com.opower.finagle.resteasy.client;
+
+import com.opower.finagle.resteasy.example.Model;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for JAX-RS 2.0 clients built on {@link FinagleClientHttpEngine}
+ *
+ * @author ed.peters
+ */
+public class TestFinagleClientHttpEngine {
+
+    private final TestResteasyClientBuilder.PendingService service =
+            new TestResteasyClientBuilder.PendingService();
+
+    private final ResteasyClient client = ResteasyClientBuilder.get()
+            .withFinagleService(this.service)
+            .withCompressedResponses(false)
+            .buildClient();
+
+    private final WebTarget target =
+            this.client.target("http://localhost/model").queryParam("q", "a b");
+
+    @After
+    public void closeClient() {
+        this.client.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        this.service.respondImmediately(OK, "{\"name\":\"a\"}");
+        Model model = this.target.request("application/json").get(Model.class);
+        assertEquals("wrong entity", "a", model.getName());
+        HttpRequest request = this.service.getRequests().get(0);
+        assertEquals("wrong uri", "/model?q=a+b", request.getUri());
+        assertEquals("wrong Accept", "application/json",
+                request.getHeader("Accept"));
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        this.service.respondImmediately(OK, "{\"name\":\"b\"}");
+        Model sent = new Model();
+        sent.setName("c");
+        Model model = this.target.request().post(Entity.json(sent), Model.class);
+        assertEquals("wrong entity", "b", model.getName());
+        HttpRequest request = this.service.getRequests().get(0);
+        assertEquals("wrong method", "POST", request.getMethod().getName());
+        assertEquals("wrong Content-Type", "application/json",
+                request.getHeader("Content-Type"));
+        String content = request.getContent().toString(UTF_8);
+        assertTrue("wrong content " + content, content.contains("\"name\":\"c\""));
+        assertEquals("wrong Content-Length",
+                Integer.toString(request.getContent().readableBytes()),
+                request.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testAsyncGet() throws Exception {
+        Future<Model> model = new FinagleAsyncInvoker(
+                this.target.request("application/json")).get(Model.class);
+        assertFalse("waited for the response", model.isDone());
+        this.service.respond(OK, "{\"name\":\"d\"}");
+        assertTrue("not completed by the response", model.isDone());
+        assertEquals("wrong entity", "d", model.get().getName());
+    }
+
+    @Test
+    public void testAsyncCallback() throws Exception {
+        final AtomicReference<Model> completed = new AtomicReference<Model>();
+        new FinagleAsyncInvoker(this.target.request()).get(
+                new InvocationCallback<Model>() {
+                    @Override
+                    public void completed(Model model) {
+                        completed.set(model);
+                    }
+
+                    @Override
+                    public void failed(Throwable cause) {
+                        fail("failed: " + cause);
+                    }
+                });
+        assertNull("called back early", completed.get());
+        this.service.respond(OK, "{\"name\":\"e\"}");
+        assertEquals("wrong entity", "e", completed.get().getName());
+    }
+
+    @Test
+    public void testAsyncFailure() throws Exception {
+        Future<Model> model = new FinagleAsyncInvoker(
+                this.target.request()).get(Model.class);
+        this.service.respond(NOT_FOUND, "");
+        try {
+            model.get();
+            fail("no failure");
+        }
+        catch (ExecutionException e) {
+            assertTrue("wrong failure " + e.getCause(),
+                    e.getCause() instanceof NotFoundException);
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.opower.finagle.resteasy.client;
 
 import com.google.common.collect.ImmutableMap;
+import com.opower.finagle.resteasy.util.ContentCoding;
 import com.opower.finagle.resteasy.util.ServiceUtils;
+import com.twitter.finagle.netty3.ChannelBufferBuf;
+import com.twitter.util.Function;
+import com.twitter.util.Future;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponse;
@@ -9,8 +14,10 @@ import org.jboss.resteasy.client.ClientResponse;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.junit.Before;
 import org.junit.Test;
+import scala.runtime.BoxedUnit;
 
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.UUID;
 
@@ -19,7 +26,11 @@ import static org.junit.Assert.assertEquals;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_0;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.NOT_ACCEPTABLE;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests Netty-to-Resteasy translation
@@ -77,6 +88,105 @@ public class TestInboundClientResponse {
         assertContent(resteasyResponse, expectedBytes);
     }
 
+    @Test
+    public void testWithStreamedContent() throws Exception {
+
+        com.twitter.finagle.http.Response nettyResponse = streamedResponse();
+        ClientResponse resteasyResponse = translate(nettyResponse);
+        InputStream stream =
+                (InputStream) resteasyResponse.getEntity(InputStream.class);
+
+        Future<BoxedUnit> first = write(nettyResponse, "abc".getBytes());
+        assertFalse("chunk taken before it was read", first.isDefined());
+        byte [] actualBytes = new byte[8];
+        assertEquals("wrong first chunk", 3, stream.read(actualBytes));
+        assertTrue("first chunk not taken", first.isDefined());
+
+        write(nettyResponse, "de".getBytes());
+        assertEquals("wrong second chunk", 2, stream.read(actualBytes, 3, 5));
+        assertEquals("wrong content", "abcde", new String(actualBytes, 0, 5));
+
+        nettyResponse.close();
+        assertEquals("no end of content", -1, stream.read());
+        stream.close();
+    }
+
+    @Test
+    public void testWithCompressedStreamedContent() throws Exception {
+
+        byte [] expectedBytes = UUID.randomUUID().toString().getBytes();
+        ChannelBuffer encoded = ContentCoding.GZIP.encode(
+                ChannelBuffers.wrappedBuffer(expectedBytes), 6);
+        byte [] compressed = new byte[encoded.readableBytes()];
+        encoded.readBytes(compressed);
+        com.twitter.finagle.http.Response nettyResponse =
+                streamedResponse(Arrays.copyOfRange(compressed, 0, 5),
+                        Arrays.copyOfRange(compressed, 5, compressed.length));
+        nettyResponse.setHeader("Content-Encoding", "gzip");
+
+        ClientResponse resteasyResponse = translate(nettyResponse);
+        assertNull("Content-Encoding not removed",
+                resteasyResponse.getHeaders().getFirst("Content-Encoding"));
+        assertContent(resteasyResponse, expectedBytes);
+    }
+
+    @Test
+    public void testClosingStreamedContent() throws Exception {
+
+        com.twitter.finagle.http.Response nettyResponse = streamedResponse();
+        ClientResponse resteasyResponse = translate(nettyResponse);
+        write(nettyResponse, "abc".getBytes());
+        ((InputStream) resteasyResponse.getEntity(InputStream.class)).close();
+
+        Future<BoxedUnit> rest = write(nettyResponse, "def".getBytes());
+        try {
+            rest.get();
+            fail("transfer not aborted");
+        }
+        catch (Exception e) {
+            // expected: the rest of the content was discarded
+        }
+    }
+
+    /**
+     * @param chunks content to stream, once the previous chunk is taken
+     * @return a chunked response that ends after the supplied chunks (or
+     * when it's closed, if there are none)
+     */
+    static com.twitter.finagle.http.Response streamedResponse(
+            byte [] ... chunks) {
+        final com.twitter.finagle.http.Response response =
+                com.twitter.finagle.http.Response.apply();
+        response.setChunked(true);
+        if (chunks.length == 0) {
+            return response;
+        }
+        Future<BoxedUnit> written = Future.value(BoxedUnit.UNIT);
+        for (final byte [] chunk : chunks) {
+            written = written.flatMap(
+                    new Function<BoxedUnit,Future<BoxedUnit>>() {
+                        @Override
+                        public Future<BoxedUnit> apply(BoxedUnit unit) {
+                            return write(response, chunk);
+                        }
+                    });
+        }
+        written.flatMap(new Function<BoxedUnit,Future<BoxedUnit>>() {
+            @Override
+            public Future<BoxedUnit> apply(BoxedUnit unit) {
+                return response.close();
+            }
+        });
+        return response;
+    }
+
+    private static Future<BoxedUnit> write(
+            com.twitter.finagle.http.Response response,
+            byte [] chunk) {
+        return response.writer().write(
+                new ChannelBufferBuf(ChannelBuffers.wrappedBuffer(chunk)));
+    }
+
     private ClientResponse translate(HttpResponse nettyResponse) {
         return new InboundClientResponse(nettyResponse, this.providerFactory);
     }
@@ -147,6 +147,15 @@ public class TestOutboundClientRequest {
         assertContentEquals(nettyRequest.getContent(), expectedContent);
     }
 
+    @Test
+    public void testEstimateSize() throws Exception {
+        assertEquals("byte array", 3,
+                OutboundClientRequest.estimateSize(new byte[3]));
+        assertEquals("string", 5, OutboundClientRequest.estimateSize("hello"));
+        assertEquals("other", OutboundClientRequest.DEFAULT_BODY_CAPACITY,
+                OutboundClientRequest.estimateSize(new Object()));
+    }
+
     protected void assertRequestBasics(HttpRequest nettyRequest,
                                        HttpMethod expectedMethod,
                                        String expectedPath) {
@@ -0,0 +1,147 @@
+package com.opower.finagle.resteasy.client;
+
+import com.google.common.collect.Lists;
+import com.opower.finagle.resteasy.example.Model;
+import com.twitter.finagle.Service;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.resteasy.client.ClientResponseFailure;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for proxies built by {@link ResteasyClientBuilder}
+ *
+ * @author ed.peters
+ */
+public class TestResteasyClientBuilder {
+
+    private final PendingService service = new PendingService();
+
+    private final ModelClient client = ResteasyClientBuilder.get()
+            .withFinagleService(this.service)
+            .withCompressedResponses(false)
+            .build(ModelClient.class);
+
+    @Test
+    public void testFutureMethod() throws Exception {
+        Future<Model> model = this.client.get();
+        assertFalse("waited for the response", model.isDefined());
+        assertEquals("wrong path", "/model",
+                this.service.getRequests().get(0).getUri());
+        this.service.respond(OK, "{\"name\":\"a\"}");
+        assertEquals("wrong entity", "a", model.get().getName());
+    }
+
+    @Test
+    public void testJavaFutureMethod() throws Exception {
+        java.util.concurrent.Future<Model> model = this.client.getJava();
+        assertFalse("waited for the response", model.isDone());
+        this.service.respond(OK, "{\"name\":\"b\"}");
+        assertEquals("wrong entity", "b", model.get().getName());
+    }
+
+    @Test
+    public void testFailedFuture() throws Exception {
+        java.util.concurrent.Future<Void> result = this.client.missing();
+        this.service.respond(NOT_FOUND, "");
+        try {
+            result.get();
+            fail("no failure");
+        }
+        catch (ExecutionException e) {
+            assertTrue("wrong failure " + e.getCause(),
+                    e.getCause() instanceof ClientResponseFailure);
+        }
+    }
+
+    @Test
+    public void testBlockingMethod() throws Exception {
+        this.service.respondImmediately(OK, "{\"name\":\"c\"}");
+        assertEquals("wrong entity", "c", this.client.getBlocking().getName());
+    }
+
+    /**
+     * Client interface mixing asynchronous and blocking methods
+     */
+    @Path("/model")
+    public interface ModelClient {
+
+        @GET
+        @Produces("application/json")
+        Future<Model> get();
+
+        @GET
+        @Produces("application/json")
+        java.util.concurrent.Future<Model> getJava();
+
+        @GET
+        @Path("/missing")
+        java.util.concurrent.Future<Void> missing();
+
+        @GET
+        @Produces("application/json")
+        Model getBlocking();
+    }
+
+    /**
+     * Service whose responses are supplied by the test (also used by
+     * {@link TestFinagleClientHttpEngine})
+     */
+    static class PendingService extends Service<HttpRequest,HttpResponse> {
+
+        private final List<HttpRequest> requests = Lists.newArrayList();
+        private final List<Promise<HttpResponse>> pending = Lists.newArrayList();
+        private HttpResponse immediate;
+
+        List<HttpRequest> getRequests() {
+            return this.requests;
+        }
+
+        @Override
+        public Future<HttpResponse> apply(HttpRequest request) {
+            this.requests.add(request);
+            if (this.immediate != null) {
+                return Future.value(this.immediate);
+            }
+            Promise<HttpResponse> promise = new Promise<HttpResponse>();
+            this.pending.add(promise);
+            return promise;
+        }
+
+        void respond(HttpResponseStatus status, String content) {
+            this.pending.remove(0).setValue(newResponse(status, content));
+        }
+
+        void respondImmediately(HttpResponseStatus status, String content) {
+            this.immediate = newResponse(status, content);
+        }
+
+        private static HttpResponse newResponse(HttpResponseStatus status,
+                                                String content) {
+            HttpResponse response = new DefaultHttpResponse(HTTP_1_1, status);
+            response.setHeader("Content-Type", "application/json");
+            response.setContent(ChannelBuffers.copiedBuffer(content, UTF_8));
+            return response;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.opower.finagle.resteasy.client;
+
+import com.opower.finagle.resteasy.server.ResteasyServiceBuilder;
+import com.twitter.finagle.builder.Server;
+import com.twitter.finagle.builder.ServerBuilder;
+import com.twitter.finagle.http.Http;
+import com.twitter.util.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for streamed requests sent by proxies to a real server
+ *
+ * @author ed.peters
+ */
+public class TestStreamingHttpCodec {
+
+    private static final int THRESHOLD = 1024;
+
+    private Server server;
+    private int port;
+
+    @Before
+    public void startServer() {
+        this.server = ServerBuilder.safeBuild(
+                ResteasyServiceBuilder.get()
+                        .withEndpoint(new UploadResource())
+                        .build(),
+                ServerBuilder.get()
+                        .codec(Http.get())
+                        .bindTo(new InetSocketAddress("localhost", 0))
+                        .name("TestStreamingHttpCodec"));
+        this.port = ((InetSocketAddress) this.server.localAddress()).getPort();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.close(Duration.zero());
+    }
+
+    @Test(timeout = 10000)
+    public void testStreamedUpload() {
+        UploadClient client = ResteasyClientBuilder.get()
+                .withStreamingHttp(true)
+                .withStreamingThreshold(THRESHOLD)
+                .withHttpClient("localhost", this.port)
+                .build(UploadClient.class);
+        assertEquals("wrong size received", "50000",
+                client.upload(newBody(50000)));
+        assertEquals("connection not reusable", "10",
+                client.upload(newBody(10)));
+        assertEquals("wrong size received again", "50000",
+                client.upload(newBody(50000)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testThresholdNeedsStreamingHttp() {
+        ResteasyClientBuilder.get()
+                .withStreamingThreshold(THRESHOLD)
+                .withHttpClient("localhost", this.port)
+                .build(UploadClient.class);
+    }
+
+    private static byte[] newBody(int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'x');
+        return body;
+    }
+
+    /**
+     * Client for {@link UploadResource}
+     */
+    @Path("/upload")
+    public interface UploadClient {
+
+        @POST
+        @Consumes("application/octet-stream")
+        @Produces("text/plain")
+        String upload(byte[] body);
+    }
+
+    /**
+     * Resource that answers with the size of each upload
+     */
+    public static class UploadResource implements UploadClient {
+
+        @Override
+        public String upload(byte[] body) {
+            return String.valueOf(body.length);
+        }
+    }
+}
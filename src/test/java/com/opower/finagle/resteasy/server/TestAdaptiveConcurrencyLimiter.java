@@ -0,0 +1,92 @@
+package com.opower.finagle.resteasy.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the latency-driven concurrency limit
+ *
+ * @author ed.peters
+ */
+public class TestAdaptiveConcurrencyLimiter {
+
+    private static final long FAST = 1000000L;
+    private static final long SLOW = 20 * FAST;
+
+    @Test
+    public void testAcquireUpToLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(2, 1, 10);
+        assertTrue("first acquire failed", limiter.tryAcquire());
+        assertTrue("second acquire failed", limiter.tryAcquire());
+        assertFalse("acquired past limit", limiter.tryAcquire());
+        assertEquals("wrong in-flight count", 2, limiter.getInFlight());
+        limiter.release(0);
+        assertEquals("wrong in-flight count", 1, limiter.getInFlight());
+        assertTrue("acquire after release failed", limiter.tryAcquire());
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyIsSteady() throws Exception {
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(4, 1, 100);
+        runAtLimit(limiter, FAST, 50);
+        assertTrue("limit didn't grow: " + limiter.getLimit(),
+                limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() throws Exception {
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(50, 1, 100);
+        runAtLimit(limiter, FAST, 20);
+        int before = limiter.getLimit();
+        runAtLimit(limiter, SLOW, 20);
+        assertTrue("limit didn't shrink: " + limiter.getLimit(),
+                limiter.getLimit() < before);
+    }
+
+    @Test
+    public void testLimitStaysInBounds() throws Exception {
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(5, 3, 8);
+        for (int i = 0; i < 100; i++) {
+            runAtLimit(limiter, i < 50 ? FAST : SLOW, 1);
+            assertTrue("limit out of bounds: " + limiter.getLimit(),
+                    limiter.getLimit() >= 3 && limiter.getLimit() <= 8);
+        }
+        runAtLimit(limiter, FAST, 100);
+        assertEquals("limit didn't reach max", 8, limiter.getLimit());
+    }
+
+    @Test
+    public void testIdleServiceDoesNotGrowLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(10, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(FAST);
+        }
+        assertEquals("limit changed while idle", 10, limiter.getLimit());
+    }
+
+    /*
+     * Fills every slot, then releases them all with the given latency
+     */
+    private void runAtLimit(AdaptiveConcurrencyLimiter limiter,
+                            long rttNanos,
+                            int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int j = 0; j < acquired; j++) {
+                limiter.release(rttNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.opower.finagle.resteasy.server;
+
+import com.opower.finagle.resteasy.util.ServiceUtils;
+import org.jboss.resteasy.core.ResourceInvoker;
+import org.jboss.resteasy.core.SynchronousDispatcher;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import java.util.concurrent.Executor;
+
+import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for routing resource methods to dedicated executors
+ *
+ * @author ed.peters
+ */
+public class TestBulkheadRouter {
+
+    private final Executor classExecutor = new NamedExecutor();
+    private final Executor methodExecutor = new NamedExecutor();
+    private SynchronousDispatcher dispatcher;
+    private BulkheadRouter router;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dispatcher =
+                new SynchronousDispatcher(ServiceUtils.getDefaultProviderFactory());
+        this.dispatcher.getRegistry().addSingletonResource(new ReportsImpl());
+        this.dispatcher.getRegistry().addSingletonResource(new Lookups());
+        this.router = new BulkheadRouter();
+    }
+
+    @Test
+    public void testClassAssignment() throws Exception {
+        this.router.assign(Reports.class, this.classExecutor);
+        assertSame("wrong executor", this.classExecutor, route("/reports/fast"));
+        assertSame("wrong executor", this.classExecutor, route("/reports/slow"));
+        assertNull("unexpected executor", route("/lookups"));
+    }
+
+    @Test
+    public void testMethodAssignmentWins() throws Exception {
+        this.router.assign(Reports.class, this.classExecutor);
+        this.router.assign(Reports.class.getMethod("slow"), this.methodExecutor);
+        assertSame("wrong executor", this.classExecutor, route("/reports/fast"));
+        assertSame("wrong executor", this.methodExecutor, route("/reports/slow"));
+        // second lookup comes from the cache
+        assertSame("wrong executor", this.methodExecutor, route("/reports/slow"));
+    }
+
+    private Executor route(String uri) {
+        ResourceInvoker invoker = this.dispatcher.getRegistry()
+                .getResourceInvoker(new InboundServiceRequest(
+                        new DefaultHttpRequest(HTTP_1_1, GET, uri)));
+        return this.router.route(invoker);
+    }
+
+    /**
+     * Annotated interface for a resource that needs isolation
+     */
+    @Path("/reports")
+    public interface Reports {
+
+        @GET
+        @Path("/fast")
+        String fast();
+
+        @GET
+        @Path("/slow")
+        String slow();
+    }
+
+    /**
+     * Implementation of the reports resource
+     */
+    public static class ReportsImpl implements Reports {
+
+        @Override
+        public String fast() {
+            return "fast";
+        }
+
+        @Override
+        public String slow() {
+            return "slow";
+        }
+    }
+
+    /**
+     * Resource without a bulkhead
+     */
+    @Path("/lookups")
+    public static class Lookups {
+
+        @GET
+        public String lookup() {
+            return "lookup";
+        }
+    }
+
+    /**
+     * Executor that's only ever compared by identity
+     */
+    private static class NamedExecutor implements Executor {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.junit.Test;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 
 import static com.opower.finagle.resteasy.AssertionHelpers.assertMultivaluedMapEquals;
 import static com.opower.finagle.resteasy.AssertionHelpers.assertUriInfoEquals;
@@ -17,6 +18,7 @@ import static org.jboss.netty.handler.codec.http.HttpMethod.POST;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import java.util.List;
@@ -38,8 +40,22 @@ public class TestInboundServiceRequest {
         assertNull("unexpected attribute", resteasyRequest.getAttribute("k"));
         resteasyRequest.setAttribute("k", this);
         assertSame("wrong attribute", this, resteasyRequest.getAttribute("k"));
+        assertEquals(Arrays.asList("k"),
+                Collections.list(resteasyRequest.getAttributeNames()));
         resteasyRequest.removeAttribute("k");
         assertNull("unexpected attribute", resteasyRequest.getAttribute("k"));
+        assertFalse("unexpected attribute name",
+                resteasyRequest.getAttributeNames().hasMoreElements());
+    }
+
+    @Test
+    public void testMutableHeadersWriteThrough() throws Exception {
+        DefaultHttpRequest nettyRequest = newRequest(GET, "/foo");
+        HttpRequest resteasyRequest = new InboundServiceRequest(nettyRequest);
+        resteasyRequest.getMutableHeaders().putSingle("k", "v");
+        assertEquals("v", nettyRequest.getHeader("k"));
+        assertEquals(Arrays.asList("v"),
+                resteasyRequest.getHttpHeaders().getRequestHeader("K"));
     }
 
     @Test
@@ -6,6 +6,7 @@ import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,6 +15,7 @@ import java.util.UUID;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.CONFLICT;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -98,6 +100,55 @@ public class TestNettyHeaderWrapper {
         }
     }
 
+    @Test
+    public void testIsEmpty() throws Exception {
+        assertTrue("new response not empty", this.wrapper.isEmpty());
+        response.setHeader("k", "v");
+        assertFalse("response with a header is empty", this.wrapper.isEmpty());
+        this.wrapper.clear();
+        assertTrue("cleared response not empty", this.wrapper.isEmpty());
+    }
+
+    @Test
+    public void testAddAllAndAddFirst() throws Exception {
+        wrapper.addAll("k", "v2", "v3");
+        wrapper.addFirst("k", "v1");
+        assertMapping("k", "v1", "v2", "v3");
+        wrapper.addAll("k", Arrays.<Object>asList("v4"));
+        assertMapping("k", "v1", "v2", "v3", "v4");
+    }
+
+    @Test
+    public void testValuesAndEntrySetAreLive() throws Exception {
+        response.setHeader("a", "1");
+        response.setHeader("b", Arrays.asList("2", "3"));
+        assertEquals("wrong size", 2, wrapper.size());
+        assertTrue("missing values",
+                wrapper.values().contains(Arrays.<Object>asList("2", "3")));
+        assertTrue("containsValue failed",
+                wrapper.containsValue(Arrays.<Object>asList("1")));
+        Iterator<Map.Entry<String,List<Object>>> it =
+                wrapper.entrySet().iterator();
+        while (it.hasNext()) {
+            if ("a".equals(it.next().getKey())) {
+                it.remove();
+            }
+        }
+        assertFalse("header not removed", response.containsHeader("a"));
+        assertEquals("wrong size", 1, wrapper.size());
+    }
+
+    @Test
+    public void testEqualsIgnoreValueOrder() throws Exception {
+        response.setHeader("k", Arrays.asList("v1", "v2"));
+        NettyHeaderWrapper other = new NettyHeaderWrapper(
+                new DefaultHttpResponse(HTTP_1_1, CONFLICT));
+        other.addAll("K", "v2", "v1");
+        assertTrue("maps should be equal", wrapper.equalsIgnoreValueOrder(other));
+        other.add("k", "v3");
+        assertFalse("maps should differ", wrapper.equalsIgnoreValueOrder(other));
+    }
+
     protected void assertMapping(String key, String... values) {
         List<String> expectedVals = Arrays.asList(values);
         assertEquals("underlying response has bad values for " + key,
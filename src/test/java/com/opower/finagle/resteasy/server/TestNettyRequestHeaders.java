@@ -0,0 +1,91 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the live view of Netty request headers
+ *
+ * @author ed.peters
+ */
+public class TestNettyRequestHeaders {
+
+    private HttpRequest request = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+    private NettyRequestHeaders headers = new NettyRequestHeaders(request);
+
+    @Test
+    public void testReadsThrough() throws Exception {
+        assertTrue("not empty", this.headers.isEmpty());
+        assertNull("unexpected values", this.headers.get("k"));
+        this.request.addHeader("K", "v1");
+        this.request.addHeader("k", "v2");
+        assertFalse("empty", this.headers.isEmpty());
+        assertEquals("wrong size", 1, this.headers.size());
+        assertTrue("key missing", this.headers.containsKey("k"));
+        assertEquals(Arrays.asList("v1", "v2"), this.headers.get("K"));
+        assertEquals(this.request.getHeader("k"), this.headers.getFirst("k"));
+    }
+
+    @Test
+    public void testWritesThrough() throws Exception {
+        this.headers.add("k", "v1");
+        this.headers.addAll("k", "v2", "v3");
+        assertEquals(Arrays.asList("v1", "v2", "v3"), this.request.getHeaders("k"));
+        this.headers.addFirst("k", "v0");
+        assertEquals(Arrays.asList("v0", "v1", "v2", "v3"),
+                this.request.getHeaders("k"));
+        this.headers.putSingle("k", "v");
+        assertEquals(Arrays.asList("v"), this.request.getHeaders("k"));
+        assertEquals(Arrays.asList("v"), this.headers.remove("k"));
+        assertFalse("header not removed", this.request.containsHeader("k"));
+    }
+
+    @Test
+    public void testEntrySet() throws Exception {
+        this.request.addHeader("a", "1");
+        this.request.addHeader("b", "2");
+        this.request.addHeader("b", "3");
+        List<String> keys = Lists.newArrayList();
+        for (Map.Entry<String,List<String>> entry : this.headers.entrySet()) {
+            keys.add(entry.getKey());
+            assertEquals(this.request.getHeaders(entry.getKey()),
+                    entry.getValue());
+        }
+        assertEquals(Sets.newHashSet("a", "b"), Sets.newHashSet(keys));
+        Iterator<Map.Entry<String,List<String>>> it =
+                this.headers.entrySet().iterator();
+        String removed = it.next().getKey();
+        it.remove();
+        assertFalse("header not removed", this.request.containsHeader(removed));
+        assertEquals("wrong size", 1, this.headers.size());
+    }
+
+    @Test
+    public void testKeySet() throws Exception {
+        this.request.addHeader("b", "1");
+        this.request.addHeader("A", "2");
+        this.request.addHeader("a", "3");
+        this.request.addHeader("B", "4");
+        assertEquals("wrong keys", Arrays.asList("b", "A"),
+                Lists.newArrayList(this.headers.keySet()));
+        assertEquals("wrong size", 2, this.headers.keySet().size());
+        assertTrue("key missing", this.headers.keySet().contains("a"));
+        assertFalse("unexpected key", this.headers.keySet().contains("c"));
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.opower.finagle.resteasy.server;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.opower.finagle.resteasy.util.EntityTags;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.junit.Test;
 
@@ -12,6 +14,7 @@ import java.util.UUID;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static com.opower.finagle.resteasy.AssertionHelpers.assertContentEquals;
 
@@ -67,6 +70,58 @@ public class TestOutboundServiceResponse {
                 expectedContent);
     }
 
+    @Test
+    public void testEntityTagged() throws Exception {
+        byte [] content = "hello".getBytes("UTF-8");
+        this.response.setEntityTagging(null);
+        this.response.getOutputStream().write(content, 0, 2);
+        this.response.getOutputStream().write(content, 2, 3);
+        this.response.finish();
+        assertEquals("wrong ETag",
+                EntityTags.fromHash(Hashing.murmur3_128().hashBytes(content)),
+                this.response.getNettyResponse().getHeader("ETag"));
+        assertContentEquals(this.response.getNettyResponse().getContent(),
+                content);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        byte [] content = "hello".getBytes("UTF-8");
+        String tag = EntityTags.fromHash(Hashing.murmur3_128().hashBytes(content));
+        this.response.setEntityTagging("\"other\", " + tag);
+        this.response.getOutputHeaders().putSingle("Content-Type", "text/plain");
+        this.response.getOutputStream().write(content);
+        this.response.finish();
+        assertStatusEquals(HttpResponseStatus.NOT_MODIFIED);
+        assertEquals("wrong ETag", tag,
+                this.response.getNettyResponse().getHeader("ETag"));
+        assertNull("Content-Type sent",
+                this.response.getNettyResponse().getHeader("Content-Type"));
+        assertEquals("content sent", 0,
+                this.response.getNettyResponse().getContent().readableBytes());
+    }
+
+    @Test
+    public void testResourceTagKept() throws Exception {
+        this.response.setEntityTagging("\"v1\"");
+        this.response.getOutputHeaders().putSingle("ETag", "\"v1\"");
+        this.response.getOutputStream().write(new byte[] { 1, 2, 3 });
+        this.response.finish();
+        assertStatusEquals(HttpResponseStatus.NOT_MODIFIED);
+        assertEquals("wrong ETag", "\"v1\"",
+                this.response.getNettyResponse().getHeader("ETag"));
+    }
+
+    @Test
+    public void testErrorsNotTagged() throws Exception {
+        this.response.setEntityTagging(null);
+        this.response.setStatus(500);
+        this.response.getOutputStream().write(new byte[] { 1, 2, 3 });
+        this.response.finish();
+        assertNull("tagged",
+                this.response.getNettyResponse().getHeader("ETag"));
+    }
+
     private void assertStatusEquals(HttpResponseStatus expectedStatus) {
         HttpResponseStatus actualStatus =
                 this.response.getNettyResponse().getStatus();
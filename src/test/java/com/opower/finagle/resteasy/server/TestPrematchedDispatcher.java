@@ -0,0 +1,80 @@
+package com.opower.finagle.resteasy.server;
+
+import com.opower.finagle.resteasy.util.ServiceUtils;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.resteasy.core.ResourceInvoker;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+
+import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for reusing the resource match made before dispatch
+ *
+ * @author ed.peters
+ */
+public class TestPrematchedDispatcher {
+
+    private PrematchedDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dispatcher = new PrematchedDispatcher(
+                ServiceUtils.getDefaultProviderFactory());
+        this.dispatcher.getRegistry().addSingletonResource(new Lookups());
+    }
+
+    @Test
+    public void testMatchReused() throws Exception {
+        InboundServiceRequest request = newRequest("/lookups");
+        ResourceInvoker invoker = this.dispatcher.match(request);
+        assertNotNull("no match", invoker);
+        assertSame("match not reused", invoker,
+                this.dispatcher.getInvoker(request));
+    }
+
+    @Test
+    public void testUnmatchedRequestFailsOnDispatch() throws Exception {
+        InboundServiceRequest request = newRequest("/missing");
+        assertNull("unexpected match", this.dispatcher.match(request));
+        try {
+            this.dispatcher.getInvoker(request);
+            fail("unmatched request dispatched");
+        }
+        catch (NotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLookupWithoutMatch() throws Exception {
+        assertNotNull("no lookup",
+                this.dispatcher.getInvoker(newRequest("/lookups")));
+    }
+
+    private static InboundServiceRequest newRequest(String uri) {
+        return new InboundServiceRequest(
+                new DefaultHttpRequest(HTTP_1_1, GET, uri));
+    }
+
+    /**
+     * Resource to match requests against
+     */
+    @Path("/lookups")
+    public static class Lookups {
+
+        @GET
+        public String lookup() {
+            return "lookup";
+        }
+    }
+}
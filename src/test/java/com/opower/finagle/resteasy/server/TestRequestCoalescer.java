@@ -0,0 +1,110 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.collect.Lists;
+import com.twitter.finagle.Service;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpMethod.POST;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Tests for collapsing identical requests
+ *
+ * @author ed.peters
+ */
+public class TestRequestCoalescer {
+
+    @Test
+    public void testIdenticalRequestsCoalesced() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        PendingService service = new PendingService();
+        Future<HttpResponse> first = coalescer.apply(newRequest(GET), service);
+        Future<HttpResponse> second = coalescer.apply(newRequest(GET), service);
+        assertEquals("wrong dispatches", 1, service.pending.size());
+        assertEquals("wrong in flight", 1, coalescer.getInFlightCount());
+        assertFalse("answered early", second.isDefined());
+
+        service.pending.get(0).setValue(newResponse("a"));
+        assertEquals("wrong content", "a",
+                first.get().getContent().toString(UTF_8));
+        assertEquals("wrong content", "a",
+                second.get().getContent().toString(UTF_8));
+        assertNotSame("response shared", first.get(), second.get());
+        assertEquals("wrong coalesced", 1L, coalescer.getCoalescedCount());
+        assertEquals("wrong in flight", 0, coalescer.getInFlightCount());
+
+        coalescer.apply(newRequest(GET), service);
+        assertEquals("wrong dispatches", 2, service.pending.size());
+    }
+
+    @Test
+    public void testDifferentRequestsDispatched() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        PendingService service = new PendingService();
+        coalescer.apply(newRequest(GET), service);
+        HttpRequest xml = newRequest(GET);
+        xml.setHeader("Accept", "application/xml");
+        coalescer.apply(xml, service);
+        coalescer.apply(newRequest(POST), service);
+        coalescer.apply(newRequest(POST), service);
+        assertEquals("wrong dispatches", 4, service.pending.size());
+    }
+
+    @Test
+    public void testFailureNotShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        PendingService service = new PendingService();
+        Future<HttpResponse> first = coalescer.apply(newRequest(GET), service);
+        Future<HttpResponse> second = coalescer.apply(newRequest(GET), service);
+        service.pending.get(0).setException(new IllegalStateException("gone"));
+        assertEquals("wrong dispatches", 2, service.pending.size());
+        service.pending.get(1).setValue(newResponse("b"));
+        assertEquals("wrong content", "b",
+                second.get().getContent().toString(UTF_8));
+        assertEquals("wrong coalesced", 0L, coalescer.getCoalescedCount());
+        assertFalse("first succeeded", first.isReturn());
+    }
+
+    private static HttpRequest newRequest(HttpMethod method) {
+        HttpRequest request = new DefaultHttpRequest(HTTP_1_1, method, "/foo");
+        request.setHeader("Accept", "application/json");
+        return request;
+    }
+
+    private static HttpResponse newResponse(String content) {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.setContent(ChannelBuffers.copiedBuffer(content, UTF_8));
+        return response;
+    }
+
+    /**
+     * Service whose responses are supplied by the test
+     */
+    private static class PendingService extends Service<HttpRequest,HttpResponse> {
+
+        private final List<Promise<HttpResponse>> pending = Lists.newArrayList();
+
+        @Override
+        public Future<HttpResponse> apply(HttpRequest request) {
+            Promise<HttpResponse> promise = new Promise<HttpResponse>();
+            this.pending.add(promise);
+            return promise;
+        }
+    }
+}
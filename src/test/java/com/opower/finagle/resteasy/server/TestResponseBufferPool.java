@@ -0,0 +1,51 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for reuse of response buffers
+ *
+ * @author ed.peters
+ */
+public class TestResponseBufferPool {
+
+    private final ResponseBufferPool pool = new ResponseBufferPool(1);
+
+    @Test
+    public void testCapacityRoundedUp() throws Exception {
+        assertEquals("wrong capacity", 1024, pool.acquire(1000).capacity());
+        assertEquals("wrong capacity", 1024, pool.acquire(1024).capacity());
+        assertEquals("wrong capacity", 1, pool.acquire(0).capacity());
+    }
+
+    @Test
+    public void testReleasedBufferReused() throws Exception {
+        ChannelBuffer buffer = pool.acquire(1000);
+        buffer.writeBytes(new byte[10]);
+        pool.release(buffer);
+        assertEquals("buffer not pooled", 1, pool.getPooledCount());
+        ChannelBuffer reused = pool.acquire(600);
+        assertSame("buffer not reused", buffer, reused);
+        assertEquals("buffer not cleared", 0, reused.readableBytes());
+        assertEquals("buffer still pooled", 0, pool.getPooledCount());
+        assertNotSame("buffer handed out twice", buffer, pool.acquire(1000));
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        pool.release(pool.acquire(1000));
+        pool.release(pool.acquire(1000));
+        pool.release(ChannelBuffers.dynamicBuffer(1024));
+        assertEquals("pool over its limit", 1, pool.getPooledCount());
+        pool.release(ChannelBuffers.dynamicBuffer(1000));
+        pool.release(ChannelBuffers.dynamicBuffer(
+                2 * ResponseBufferPool.MAX_POOLED_CAPACITY));
+        assertEquals("odd-sized buffers pooled", 1, pool.getPooledCount());
+    }
+}
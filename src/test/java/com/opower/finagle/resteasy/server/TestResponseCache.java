@@ -0,0 +1,150 @@
+package com.opower.finagle.resteasy.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpMethod.PUT;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the in-memory response cache
+ *
+ * @author ed.peters
+ */
+public class TestResponseCache {
+
+    @Test
+    public void testMaxAge() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        cache.update(newRequest(GET), null,
+                newResponse("max-age=60", "a"));
+        HttpResponse cached = cache.lookup(newRequest(GET));
+        assertNotNull("not cached", cached);
+        assertEquals("wrong content", "a", cached.getContent().toString(UTF_8));
+        assertEquals("wrong header", "max-age=60",
+                cached.getHeader("Cache-Control"));
+        assertEquals("wrong Age", "0", cached.getHeader("Age"));
+        assertEquals("wrong hits", 1L, cache.getHitCount());
+    }
+
+    @Test
+    public void testNotStored() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        cache.update(newRequest(GET), null, newResponse(null, "a"));
+        cache.update(newRequest(GET), null, newResponse("max-age=0", "a"));
+        cache.update(newRequest(GET), null,
+                newResponse("private, max-age=60", "a"));
+        cache.update(newRequest(GET), null,
+                newResponse("no-store, max-age=60", "a"));
+        HttpRequest authorized = newRequest(GET);
+        authorized.setHeader("Authorization", "Basic Zm9vOmJhcg==");
+        cache.update(authorized, null, newResponse("max-age=60", "a"));
+        assertEquals("wrong entries", 0L, cache.getEntryCount());
+        assertNull("cached", cache.lookup(newRequest(GET)));
+        assertEquals("wrong misses", 1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testAnnotatedMethod() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        Method method = Annotated.class.getMethod("get");
+        cache.update(newRequest(GET), method, newResponse(null, "a"));
+        assertNotNull("not cached", cache.lookup(newRequest(GET)));
+    }
+
+    @Test
+    public void testVary() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        HttpRequest json = newRequest(GET);
+        json.setHeader("Accept", "application/json");
+        HttpResponse response = newResponse("max-age=60", "{}");
+        response.setHeader("Vary", "Accept");
+        cache.update(json, null, response);
+
+        HttpRequest xml = newRequest(GET);
+        xml.setHeader("Accept", "application/xml");
+        assertNull("wrong variant", cache.lookup(xml));
+        response = newResponse("max-age=60", "<a/>");
+        response.setHeader("Vary", "Accept");
+        cache.update(xml, null, response);
+
+        assertEquals("wrong content", "{}",
+                cache.lookup(json).getContent().toString(UTF_8));
+        assertEquals("wrong content", "<a/>",
+                cache.lookup(xml).getContent().toString(UTF_8));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        HttpResponse response = newResponse("max-age=60", "a");
+        response.setHeader("ETag", "\"v1-gzip\"");
+        cache.update(newRequest(GET), null, response);
+        HttpRequest request = newRequest(GET);
+        request.setHeader("If-None-Match", "\"v1\"");
+        HttpResponse cached = cache.lookup(request);
+        assertEquals("wrong status", 304, cached.getStatus().getCode());
+        assertEquals("content sent", 0, cached.getContent().readableBytes());
+        assertEquals("wrong ETag", "\"v1-gzip\"", cached.getHeader("ETag"));
+    }
+
+    @Test
+    public void testRequestNoCache() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        cache.update(newRequest(GET), null, newResponse("max-age=60", "a"));
+        HttpRequest request = newRequest(GET);
+        request.setHeader("Cache-Control", "no-cache");
+        assertNull("cached", cache.lookup(request));
+    }
+
+    @Test
+    public void testInvalidatedByWrite() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        cache.update(newRequest(GET), null, newResponse("max-age=60", "a"));
+        cache.update(newRequest(PUT), null, new DefaultHttpResponse(HTTP_1_1, OK));
+        assertNull("cached", cache.lookup(newRequest(GET)));
+    }
+
+    @Test
+    public void testSizeBounded() throws Exception {
+        ResponseCache cache = new ResponseCache(64);
+        cache.update(newRequest(GET), null,
+                newResponse("max-age=60", new String(new char[128])));
+        assertNull("cached", cache.lookup(newRequest(GET)));
+    }
+
+    private static HttpRequest newRequest(HttpMethod method) {
+        return new DefaultHttpRequest(HTTP_1_1, method, "/foo?bar=1");
+    }
+
+    private static HttpResponse newResponse(String cacheControl, String content) {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+        response.setContent(ChannelBuffers.copiedBuffer(content, UTF_8));
+        return response;
+    }
+
+    /**
+     * Resource interface with a cached method
+     */
+    public interface Annotated {
+
+        @CachedResponse(maxAge = 60)
+        String get();
+    }
+}
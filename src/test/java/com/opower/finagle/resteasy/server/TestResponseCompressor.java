@@ -0,0 +1,113 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.base.Strings;
+import com.opower.finagle.resteasy.util.ContentCoding;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for response compression
+ *
+ * @author ed.peters
+ */
+public class TestResponseCompressor {
+
+    private static final String ENTITY = Strings.repeat("{\"a\":\"b\"}", 500);
+
+    @Test
+    public void testNegotiate() throws Exception {
+        assertNull("no header", ResponseCompressor.negotiate(null));
+        assertNull("identity", ResponseCompressor.negotiate("identity"));
+        assertEquals("gzip", ContentCoding.GZIP,
+                ResponseCompressor.negotiate("deflate, gzip"));
+        assertEquals("deflate", ContentCoding.DEFLATE,
+                ResponseCompressor.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("wildcard", ContentCoding.GZIP,
+                ResponseCompressor.negotiate("*"));
+        assertNull("all excluded",
+                ResponseCompressor.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals("wildcard without gzip", ContentCoding.DEFLATE,
+                ResponseCompressor.negotiate("gzip;q=0, *"));
+        assertEquals("wildcard preferred", ContentCoding.GZIP,
+                ResponseCompressor.negotiate("deflate;q=0.1, *"));
+        assertNull("wildcard excluded",
+                ResponseCompressor.negotiate("identity, *;q=0"));
+    }
+
+    @Test
+    public void testCompressed() throws Exception {
+        HttpResponse response = newResponse("application/json", ENTITY);
+        new ResponseCompressor(1024, 6).compress("gzip, deflate", response);
+        assertEquals("wrong encoding", "gzip",
+                response.getHeader("Content-Encoding"));
+        assertEquals("wrong Vary", "Accept-Encoding", response.getHeader("Vary"));
+        assertEquals("wrong length",
+                Integer.toString(response.getContent().readableBytes()),
+                response.getHeader("Content-Length"));
+        assertTrue("not smaller",
+                response.getContent().readableBytes() < ENTITY.length());
+        assertEquals("wrong content", ENTITY, ContentCoding.GZIP
+                .decode(response.getContent()).toString(UTF_8));
+    }
+
+    @Test
+    public void testNotCompressed() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor(1024, 6);
+        HttpResponse small = newResponse("application/json", "{}");
+        compressor.compress("gzip", small);
+        assertNull("small entity compressed",
+                small.getHeader("Content-Encoding"));
+        HttpResponse image = newResponse("image/png", ENTITY);
+        compressor.compress("gzip", image);
+        assertNull("image compressed", image.getHeader("Content-Encoding"));
+        HttpResponse identity = newResponse("application/json", ENTITY);
+        compressor.compress(null, identity);
+        assertNull("compressed without asking",
+                identity.getHeader("Content-Encoding"));
+        assertEquals("no Vary", "Accept-Encoding", identity.getHeader("Vary"));
+    }
+
+    @Test
+    public void testCacheableResponsesCached() throws Exception {
+        ResponseCompressor compressor =
+                new ResponseCompressor(1024, 6, 1024 * 1024);
+        HttpResponse uncacheable = newResponse("application/json", ENTITY);
+        compressor.compress("deflate", uncacheable);
+        assertEquals("uncacheable response cached", 0L,
+                compressor.getCachedCount());
+        ChannelBuffer first = null;
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = newResponse("application/json", ENTITY);
+            response.setHeader("Cache-Control", "max-age=60");
+            compressor.compress("deflate", response);
+            assertEquals("wrong content", ENTITY, ContentCoding.DEFLATE
+                    .decode(response.getContent()).toString(UTF_8));
+            if (first == null) {
+                first = response.getContent();
+            }
+            else {
+                assertSame("not reused", first.array(),
+                        response.getContent().array());
+            }
+        }
+        assertEquals("wrong cache size", 1L, compressor.getCachedCount());
+    }
+
+    private static HttpResponse newResponse(String type, String entity) {
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.setHeader("Content-Type", type);
+        response.setContent(ChannelBuffers.copiedBuffer(entity, UTF_8));
+        return response;
+    }
+}
@@ -0,0 +1,55 @@
+package com.opower.finagle.resteasy.server;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the running response sizes
+ *
+ * @author ed.peters
+ */
+public class TestResponseSizeEstimator {
+
+    private final ResponseSizeEstimator estimator = new ResponseSizeEstimator();
+
+    @Test
+    public void testDefaultForUnknownMethods() throws Exception {
+        assertEquals("wrong estimate", ResponseSizeEstimator.DEFAULT_ESTIMATE,
+                estimator.estimate(null));
+        assertEquals("wrong estimate", ResponseSizeEstimator.DEFAULT_ESTIMATE,
+                estimator.estimate(method("hashCode")));
+    }
+
+    @Test
+    public void testEstimateFollowsResponses() throws Exception {
+        Method method = method("toString");
+        estimator.record(method, 100000);
+        assertEquals("wrong first estimate", 125000, estimator.estimate(method));
+        for (int i = 0; i < 100; i++) {
+            estimator.record(method, 200000);
+        }
+        int estimate = estimator.estimate(method);
+        assertTrue("estimate didn't grow: " + estimate,
+                estimate > 240000 && estimate <= 250000);
+    }
+
+    @Test
+    public void testEstimateIsBounded() throws Exception {
+        Method small = method("toString");
+        estimator.record(small, 10);
+        assertEquals("estimate below default",
+                ResponseSizeEstimator.DEFAULT_ESTIMATE, estimator.estimate(small));
+        Method large = method("hashCode");
+        estimator.record(large, Long.MAX_VALUE);
+        assertEquals("estimate above maximum",
+                ResponseSizeEstimator.MAX_ESTIMATE, estimator.estimate(large));
+    }
+
+    private static Method method(String name) throws Exception {
+        return Object.class.getMethod(name);
+    }
+}
@@ -1,25 +1,72 @@
 package com.opower.finagle.resteasy.server;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.opower.finagle.resteasy.example.Model;
+import com.opower.finagle.resteasy.util.ContentCoding;
+import com.opower.finagle.resteasy.util.ContentInputStream;
+import com.opower.finagle.resteasy.util.RequestDeadline;
 import com.opower.finagle.resteasy.util.ServiceUtils;
+import com.opower.finagle.resteasy.util.SmileChannelBufferProvider;
 import com.twitter.finagle.Service;
+import com.twitter.finagle.netty3.ChannelBufferBuf;
+import com.twitter.io.Buf;
+import com.twitter.io.Reader;
 import com.twitter.util.Future;
+import scala.Option;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.resteasy.core.SynchronousDispatcher;
 import org.jboss.resteasy.spi.HttpRequest;
 import org.jboss.resteasy.spi.HttpResponse;
+import org.jboss.resteasy.util.CaseInsensitiveMap;
 import org.junit.Test;
 
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.opower.finagle.resteasy.AssertionHelpers.assertContentEquals;
 import static com.opower.finagle.resteasy.AssertionHelpers.assertHeaderEquals;
+import static com.opower.finagle.resteasy.util.SmileChannelBufferProvider.APPLICATION_SMILE;
+import static com.opower.finagle.resteasy.util.SmileChannelBufferProvider.APPLICATION_SMILE_TYPE;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
+import static org.jboss.netty.handler.codec.http.HttpMethod.POST;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -116,6 +163,689 @@ public class TestResteasyFinagleService {
                 nettyResponse.getStatus().getReasonPhrase());
     }
 
+    @Test
+    public void testSuspendedResponse() throws Exception {
+        SuspendingResource resource = new SuspendingResource();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/suspend"));
+        assertTrue("request never suspended",
+                resource.suspended.await(5, TimeUnit.SECONDS));
+        assertFalse("response completed early", future.isDefined());
+        String expectedContent = UUID.randomUUID().toString();
+        assertTrue("resume failed",
+                resource.asyncResponse.resume(expectedContent));
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 200, nettyResponse.getStatus().getCode());
+        assertContentEquals(nettyResponse.getContent(),
+                expectedContent.getBytes());
+        assertFalse("resumed twice",
+                resource.asyncResponse.resume(expectedContent));
+    }
+
+    @Test
+    public void testSuspendedResponseTimeout() throws Exception {
+        SuspendingResource resource = new SuspendingResource();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/suspend/timeout"));
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 503, nettyResponse.getStatus().getCode());
+        assertTrue("response not done", resource.asyncResponse.isDone());
+    }
+
+    @Test
+    public void testInlineDispatch() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        final Thread caller = Thread.currentThread();
+        ResteasyFinagleService service = newInlineService(new Runnable() {
+            @Override
+            public void run() {
+                assertSame("not run inline", caller, Thread.currentThread());
+                resteasyResponse.setStatus(204);
+            }
+        }, 1000);
+        Future future = service.apply(this.nettyRequest);
+        assertTrue("response not completed inline", future.isDefined());
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 204, nettyResponse.getStatus().getCode());
+        assertEquals("unexpected slow request", 0,
+                service.getSlowInlineRequestCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInlineBudgetMustBePositive() throws Exception {
+        ResteasyServiceBuilder.get().withDispatchMode(DispatchMode.INLINE, 0);
+    }
+
+    @Test
+    public void testSlowInlineHandlerReported() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        ResteasyFinagleService service = newInlineService(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, 1);
+        service.apply(this.nettyRequest).get();
+        assertEquals("slow request not reported", 1,
+                service.getSlowInlineRequestCount());
+    }
+
+    @Test
+    public void testRejectNewWhenQueueFull() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        CountDownLatch release = new CountDownLatch(1);
+        ResteasyFinagleService service =
+                newBoundedService(release, RejectionPolicy.REJECT_NEW);
+        Future running = service.apply(this.nettyRequest);
+        Future queued = service.apply(this.nettyRequest);
+        Future rejected = service.apply(this.nettyRequest);
+        assertTrue("rejection wasn't immediate", rejected.isDefined());
+        assertShed(rejected);
+        assertEquals("wrong queue depth", 1, service.getQueueDepth());
+        assertEquals("wrong rejection count", 1,
+                service.getRejectedRequestCount());
+        release.countDown();
+        assertStatus(running, 200);
+        assertStatus(queued, 200);
+    }
+
+    @Test
+    public void testDropOldestWhenQueueFull() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        CountDownLatch release = new CountDownLatch(1);
+        ResteasyFinagleService service =
+                newBoundedService(release, RejectionPolicy.DROP_OLDEST);
+        Future running = service.apply(this.nettyRequest);
+        Future dropped = service.apply(this.nettyRequest);
+        Future queued = service.apply(this.nettyRequest);
+        assertTrue("drop wasn't immediate", dropped.isDefined());
+        assertShed(dropped);
+        assertEquals("wrong rejection count", 1,
+                service.getRejectedRequestCount());
+        release.countDown();
+        assertStatus(running, 200);
+        assertStatus(queued, 200);
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        CountDownLatch release = new CountDownLatch(1);
+        ResteasyFinagleService service =
+                newBoundedService(release, RejectionPolicy.REJECT_NEW);
+        AdaptiveConcurrencyLimiter limiter =
+                new AdaptiveConcurrencyLimiter(1, 1, 1);
+        service.setConcurrencyLimiter(limiter);
+        Future running = service.apply(this.nettyRequest);
+        Future shed = service.apply(this.nettyRequest);
+        assertShed(shed);
+        assertEquals("request queued past limit", 0, service.getQueueDepth());
+        release.countDown();
+        assertStatus(running, 200);
+    }
+
+    @Test
+    public void testBulkheadRouting() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new SuspendingResource())
+                .withDispatchMode(DispatchMode.INLINE)
+                .withBulkhead(SuspendingResource.class, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        Thread thread = new Thread(command, "bulkhead");
+                        thread.start();
+                    }
+                })
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/suspend/thread"));
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 200, nettyResponse.getStatus().getCode());
+        assertContentEquals(nettyResponse.getContent(), "bulkhead".getBytes());
+    }
+
+    @Test
+    public void testUnmatchedRequestWithBulkheads() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new SuspendingResource())
+                .withBulkhead(SuspendingResource.class,
+                        Executors.newSingleThreadExecutor())
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/missing"));
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 404, nettyResponse.getStatus().getCode());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkheadsNeedPrematchedDispatcher() throws Exception {
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new SynchronousDispatcher(ServiceUtils.getDefaultProviderFactory()),
+                Executors.newSingleThreadExecutor());
+        service.setBulkheadRouter(new BulkheadRouter());
+    }
+
+    @Test
+    public void testInterruptDropsQueuedRequest() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        final AtomicInteger dispatched = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new MockDispatcher(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatched.incrementAndGet();
+                        awaitQuietly(release);
+                    }
+                }),
+                Executors.newSingleThreadExecutor());
+        Future running = service.apply(this.nettyRequest);
+        Future queued = service.apply(this.nettyRequest);
+        RuntimeException interrupt = new RuntimeException("client went away");
+        queued.raise(interrupt);
+        assertFailedWith(queued, interrupt);
+        assertEquals("wrong cancel count", 1,
+                service.getCancelledRequestCount());
+        release.countDown();
+        assertStatus(running, 200);
+        assertEquals("cancelled request was dispatched", 1, dispatched.get());
+    }
+
+    @Test
+    public void testInterruptRunningRequest() throws Exception {
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new MockDispatcher(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            Thread.sleep(10000);
+                        }
+                        catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                    }
+                }),
+                Executors.newSingleThreadExecutor());
+        service.setInterruptRunningWorkers(true);
+        Future running = service.apply(this.nettyRequest);
+        assertTrue("never started", started.await(5, TimeUnit.SECONDS));
+        RuntimeException interrupt = new RuntimeException("timed out");
+        running.raise(interrupt);
+        assertFailedWith(running, interrupt);
+        assertTrue("handler not interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals("wrong cancel count", 1,
+                service.getCancelledRequestCount());
+    }
+
+    @Test
+    public void testExpiredRequestSkipped() throws Exception {
+        final AtomicInteger dispatched = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new MockDispatcher(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatched.incrementAndGet();
+                        awaitQuietly(release);
+                    }
+                }),
+                Executors.newSingleThreadExecutor());
+        Future running = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/foo"));
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        this.nettyRequest.setHeader(RequestDeadline.DEFAULT_HEADER,
+                RequestDeadline.in(20, TimeUnit.MILLISECONDS).toString());
+        Future expired = service.apply(this.nettyRequest);
+        Thread.sleep(50);
+        release.countDown();
+        assertStatus(running, 200);
+        assertStatus(expired, 504);
+        assertEquals("expired request was dispatched", 1, dispatched.get());
+        assertEquals("wrong expired count", 1,
+                service.getExpiredRequestCount());
+    }
+
+    @Test
+    public void testDeadlineExposedToResource() throws Exception {
+        final RequestDeadline deadline =
+                RequestDeadline.in(1, TimeUnit.MINUTES);
+        final AtomicReference<RequestDeadline> current =
+                new AtomicReference<RequestDeadline>();
+        this.nettyRequest = new DefaultHttpRequest(HTTP_1_1, GET, "/foo");
+        this.nettyRequest.setHeader(RequestDeadline.DEFAULT_HEADER,
+                deadline.toString());
+        invoke(new Runnable() {
+            @Override
+            public void run() {
+                current.set(RequestDeadline.current());
+                resteasyResponse.setStatus(200);
+            }
+        });
+        assertEquals("wrong code", 200, nettyResponse.getStatus().getCode());
+        RequestDeadline attribute = (RequestDeadline)
+                this.resteasyRequest.getAttribute(RequestDeadline.ATTRIBUTE);
+        assertNotNull("deadline not exposed", attribute);
+        assertEquals("wrong deadline", deadline.getDeadlineMillis(),
+                attribute.getDeadlineMillis());
+        assertTrue("no budget left",
+                attribute.getRemaining(TimeUnit.MILLISECONDS) > 0);
+        assertNotNull("deadline not current", current.get());
+        assertNull("deadline leaked", RequestDeadline.current());
+    }
+
+    @Test
+    public void testStreamingResponse() throws Exception {
+        StreamingResource resource = new StreamingResource();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .withStreamingThreshold(1024)
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/stream/10"));
+        com.twitter.finagle.http.Response response =
+                (com.twitter.finagle.http.Response) future.get();
+        assertEquals("wrong code", 200, response.getStatus().getCode());
+        assertTrue("response not chunked", response.isChunked());
+        assertFalse("unexpected Content-Length",
+                response.containsHeader("Content-Length"));
+        // the writer can't get ahead of us by more than a chunk
+        assertEquals("writer didn't wait for the client",
+                1, resource.finished.getCount());
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Reader reader = response.reader();
+        Option<Buf> next = (Option<Buf>) reader.read(Integer.MAX_VALUE).get();
+        while (next.isDefined()) {
+            byte [] bytes = new byte[next.get().length()];
+            next.get().write(bytes, 0);
+            received.write(bytes);
+            next = (Option<Buf>) reader.read(Integer.MAX_VALUE).get();
+        }
+        assertTrue("writer never finished",
+                resource.finished.await(5, TimeUnit.SECONDS));
+        assertEquals("wrong length",
+                10 * StreamingResource.BLOCK.length, received.size());
+    }
+
+    @Test
+    public void testStreamedChunksPooled() throws Exception {
+        ResponseBufferPool pool = new ResponseBufferPool(4);
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new StreamingResource())
+                .withStreamingThreshold(1024)
+                .withResponseBufferPool(pool)
+                .build();
+        for (int i = 0; i < 2; i++) {
+            Future future = service.apply(
+                    new DefaultHttpRequest(HTTP_1_1, GET, "/stream/5"));
+            com.twitter.finagle.http.Response response =
+                    (com.twitter.finagle.http.Response) future.get();
+            Reader reader = response.reader();
+            Option<Buf> next = (Option<Buf>) reader.read(Integer.MAX_VALUE).get();
+            while (next.isDefined()) {
+                assertTrue("chunk too large", next.get().length() <= 1024);
+                next = (Option<Buf>) reader.read(Integer.MAX_VALUE).get();
+            }
+            // the writer recycles its chunks after the last one is taken
+            Thread.sleep(50);
+            assertTrue("chunks not returned to the pool",
+                    pool.getPooledCount() > 0);
+        }
+        assertTrue("pool not bounded", pool.getPooledCount() <= 4);
+    }
+
+    @Test
+    public void testResponseSizesRecorded() throws Exception {
+        ResteasyFinagleService service =
+                (ResteasyFinagleService) ResteasyServiceBuilder.get()
+                        .withEndpoint(new StreamingResource())
+                        .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/stream/4"));
+        assertEquals("wrong code", 200,
+                ((org.jboss.netty.handler.codec.http.HttpResponse) future.get())
+                        .getStatus().getCode());
+        Method method = StreamingResource.class.getMethod("stream", int.class);
+        assertEquals("wrong estimate", 5000,
+                service.getResponseSizeEstimator().estimate(method));
+    }
+
+    @Test
+    public void testSmallResponseNotStreamed() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new StreamingResource())
+                .withStreamingThreshold(1024)
+                .build();
+        Future future = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/stream/1"));
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertFalse("small response chunked", this.nettyResponse.isChunked());
+        assertContentEquals(this.nettyResponse.getContent(),
+                StreamingResource.BLOCK);
+    }
+
+    @Test(timeout = 10000)
+    public void testChunkedRequestSpooled() throws Exception {
+        File directory = Files.createTempDir();
+        UploadResource resource = new UploadResource();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .withRequestBodySpooling(1500, directory)
+                .build();
+        com.twitter.finagle.http.Request request =
+                com.twitter.finagle.http.Request.apply(POST, "/upload");
+        request.setChunked(true);
+        Future future = service.apply(request);
+
+        // the body is collected before the resource starts reading it
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            byte [] block = new byte[1000];
+            Arrays.fill(block, (byte) i);
+            sent.write(block);
+            request.writer().write(new ChannelBufferBuf(
+                    ChannelBuffers.wrappedBuffer(block))).get();
+        }
+        request.close().get();
+        assertEquals("body not spooled", 1, directory.list().length);
+
+        resource.proceed.countDown();
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 200, nettyResponse.getStatus().getCode());
+        assertContentEquals(nettyResponse.getContent(), sent.toByteArray());
+        // the spool file is deleted off the caller's thread
+        while (directory.list().length > 0) {
+            Thread.sleep(10);
+        }
+        directory.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void testChunkedRequestNotInline() throws Exception {
+        UploadResource resource = new UploadResource();
+        resource.proceed.countDown();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .withDispatchMode(DispatchMode.INLINE)
+                .build();
+        com.twitter.finagle.http.Request request =
+                com.twitter.finagle.http.Request.apply(POST, "/upload");
+        request.setChunked(true);
+        Future future = service.apply(request);
+        assertFalse("dispatched before the body arrived", future.isDefined());
+        request.writer().write(new ChannelBufferBuf(
+                ChannelBuffers.wrappedBuffer(StreamingResource.BLOCK))).get();
+        request.close().get();
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 200, nettyResponse.getStatus().getCode());
+        assertContentEquals(nettyResponse.getContent(), StreamingResource.BLOCK);
+    }
+
+    @Test
+    public void testSmallChunkedRequestKeptInMemory() throws Exception {
+        File directory = Files.createTempDir();
+        UploadResource resource = new UploadResource();
+        resource.proceed.countDown();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .withRequestBodySpooling(1500, directory)
+                .build();
+        com.twitter.finagle.http.Request request =
+                com.twitter.finagle.http.Request.apply(POST, "/upload");
+        request.setChunked(true);
+        Future future = service.apply(request);
+        request.writer().write(new ChannelBufferBuf(
+                ChannelBuffers.wrappedBuffer(StreamingResource.BLOCK))).get();
+        request.close().get();
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertContentEquals(nettyResponse.getContent(), StreamingResource.BLOCK);
+        assertEquals("body spooled", 0, directory.list().length);
+        directory.delete();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSmileNegotiated() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new ModelResource())
+                .build();
+        DefaultHttpRequest request = new DefaultHttpRequest(HTTP_1_1, GET, "/model");
+        request.setHeader("Accept", APPLICATION_SMILE + ", application/json");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertEquals("wrong type", APPLICATION_SMILE,
+                this.nettyResponse.getHeader("Content-Type"));
+        assertEquals("wrong Vary", "Accept", this.nettyResponse.getHeader("Vary"));
+        Model model = (Model) new SmileChannelBufferProvider().readFrom(
+                (Class) Model.class, Model.class, new Annotation[0],
+                APPLICATION_SMILE_TYPE, new CaseInsensitiveMap<String>(),
+                new ContentInputStream(this.nettyResponse.getContent()));
+        assertEquals("wrong name", "a", model.getName());
+
+        request.setHeader("Accept", "application/json");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertTrue("not JSON", this.nettyResponse.getHeader("Content-Type")
+                .startsWith("application/json"));
+        assertTrue("wrong content", this.nettyResponse.getContent()
+                .toString(UTF_8).contains("\"name\":\"a\""));
+    }
+
+    @Test
+    public void testResponseCompressed() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new ModelResource())
+                .withCompression(0, 6)
+                .build();
+        DefaultHttpRequest request = new DefaultHttpRequest(HTTP_1_1, GET, "/model");
+        request.setHeader("Accept-Encoding", "gzip");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertEquals("wrong encoding", "gzip",
+                this.nettyResponse.getHeader("Content-Encoding"));
+        assertTrue("wrong content", ContentCoding.GZIP
+                .decode(this.nettyResponse.getContent())
+                .toString(UTF_8).contains("\"name\":\"a\""));
+    }
+
+    @Test
+    public void testResponseCached() throws Exception {
+        CountedResource resource = new CountedResource();
+        ResteasyFinagleService service = (ResteasyFinagleService)
+                ResteasyServiceBuilder.get()
+                        .withEndpoint(resource)
+                        .withResponseCache(1024 * 1024)
+                        .build();
+        for (int i = 0; i < 2; i++) {
+            this.nettyResponse = service.apply(
+                    new DefaultHttpRequest(HTTP_1_1, GET, "/counted")).get();
+            assertEquals("wrong content", "read 1",
+                    this.nettyResponse.getContent().toString(UTF_8));
+        }
+        assertEquals("wrong reads", 1, resource.reads.get());
+        assertNotNull("no Age", this.nettyResponse.getHeader("Age"));
+        assertEquals("wrong hits", 1L, service.getResponseCache().getHitCount());
+
+        service.apply(new DefaultHttpRequest(HTTP_1_1, POST, "/counted")).get();
+        this.nettyResponse = service.apply(
+                new DefaultHttpRequest(HTTP_1_1, GET, "/counted")).get();
+        assertEquals("wrong content", "read 2",
+                this.nettyResponse.getContent().toString(UTF_8));
+    }
+
+    @Test
+    public void testRequestsCoalesced() throws Exception {
+        GatedResource resource = new GatedResource();
+        ResteasyFinagleService service = (ResteasyFinagleService)
+                ResteasyServiceBuilder.get()
+                        .withEndpoint(resource)
+                        .withThreadPoolSize(2)
+                        .withRequestCoalescing()
+                        .build();
+        Future<org.jboss.netty.handler.codec.http.HttpResponse> first =
+                service.apply(new DefaultHttpRequest(HTTP_1_1, GET, "/gated"));
+        Future<org.jboss.netty.handler.codec.http.HttpResponse> second =
+                service.apply(new DefaultHttpRequest(HTTP_1_1, GET, "/gated"));
+        resource.proceed.countDown();
+        assertEquals("wrong content", "read 1",
+                first.get().getContent().toString(UTF_8));
+        assertEquals("wrong content", "read 1",
+                second.get().getContent().toString(UTF_8));
+        assertEquals("wrong reads", 1, resource.reads.get());
+    }
+
+    @Test
+    public void testEntityTagged() throws Exception {
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(new ModelResource())
+                .withEntityTags(true)
+                .build();
+        DefaultHttpRequest request = new DefaultHttpRequest(HTTP_1_1, GET, "/model");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        String tag = this.nettyResponse.getHeader("ETag");
+        assertNotNull("no ETag", tag);
+
+        request = new DefaultHttpRequest(HTTP_1_1, GET, "/model");
+        request.setHeader("If-None-Match", tag);
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertEquals("wrong status", 304, this.nettyResponse.getStatus().getCode());
+        assertEquals("content sent", 0,
+                this.nettyResponse.getContent().readableBytes());
+    }
+
+    @Test
+    public void testResourceVersionTag() throws Exception {
+        VersionedResource resource = new VersionedResource();
+        Service service = ResteasyServiceBuilder.get()
+                .withEndpoint(resource)
+                .withEntityTags(true)
+                .build();
+        DefaultHttpRequest request =
+                new DefaultHttpRequest(HTTP_1_1, GET, "/versioned");
+        request.setHeader("If-None-Match", "\"v1\"");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertEquals("wrong status", 304, this.nettyResponse.getStatus().getCode());
+        assertEquals("entity produced", 0, resource.reads.get());
+
+        request = new DefaultHttpRequest(HTTP_1_1, GET, "/versioned");
+        request.setHeader("If-None-Match", "\"v0\"");
+        this.nettyResponse =
+                (org.jboss.netty.handler.codec.http.HttpResponse)
+                        service.apply(request).get();
+        assertEquals("wrong content", "read 1",
+                this.nettyResponse.getContent().toString(UTF_8));
+        assertEquals("wrong ETag", "\"v1\"", this.nettyResponse.getHeader("ETag"));
+    }
+
+    protected void assertFailedWith(Future future, Throwable expected) {
+        try {
+            future.get();
+            fail("future wasn't failed");
+        }
+        catch (RuntimeException e) {
+            assertSame("wrong failure", expected, e);
+        }
+    }
+
+    protected static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Creates a service with one thread and room for one queued request,
+     * whose handlers block until the latch is released
+     */
+    protected ResteasyFinagleService newBoundedService(
+            final CountDownLatch release, RejectionPolicy policy) {
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new MockDispatcher(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        }
+                        catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }),
+                new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(1)));
+        service.setRejectionPolicy(policy, 5);
+        return service;
+    }
+
+    protected void assertShed(Future future) {
+        org.jboss.netty.handler.codec.http.HttpResponse response =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", 503, response.getStatus().getCode());
+        assertEquals("wrong Retry-After", "5",
+                response.getHeader("Retry-After"));
+    }
+
+    protected void assertStatus(Future future, int code) {
+        org.jboss.netty.handler.codec.http.HttpResponse response =
+                (org.jboss.netty.handler.codec.http.HttpResponse) future.get();
+        assertEquals("wrong code", code, response.getStatus().getCode());
+    }
+
+    /*
+     * Creates a service in inline mode whose executor must never be used
+     */
+    protected ResteasyFinagleService newInlineService(Runnable runner,
+                                                      long budgetMillis) {
+        ResteasyFinagleService service = new ResteasyFinagleService(
+                new MockDispatcher(runner),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        fail("executor used in inline mode");
+                    }
+                });
+        service.setDispatchMode(DispatchMode.INLINE,
+                budgetMillis, TimeUnit.MILLISECONDS);
+        return service;
+    }
+
     /*
      * Sets up the service plumbing and invokes the supplied runner in
      * the middle of the processing chain.  We're ignoring generic types
@@ -154,4 +884,164 @@ public class TestResteasyFinagleService {
 
     }
 
+    /**
+     * Resource that writes the requested number of blocks
+     */
+    @Path("/stream")
+    public static class StreamingResource {
+
+        static final byte [] BLOCK = new byte[1000];
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @GET
+        @Path("/{blocks}")
+        @Produces("application/octet-stream")
+        public StreamingOutput stream(
+                @PathParam("blocks") final int blocks) {
+            return new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException {
+                    for (int i = 0; i < blocks; i++) {
+                        output.write(BLOCK);
+                    }
+                    finished.countDown();
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Resource that only declares JSON
+     */
+    @Path("/model")
+    public static class ModelResource {
+
+        @GET
+        @Produces("application/json")
+        public Model get() {
+            Model model = new Model();
+            model.setName("a");
+            return model;
+        }
+
+    }
+
+    /**
+     * Resource that counts its reads and accepts writes
+     */
+    @Path("/counted")
+    public static class CountedResource {
+
+        final AtomicInteger reads = new AtomicInteger();
+
+        @GET
+        @Produces("text/plain")
+        @CachedResponse(maxAge = 60)
+        public String get() {
+            return "read " + this.reads.incrementAndGet();
+        }
+
+        @POST
+        public void post() {
+        }
+
+    }
+
+    /**
+     * Resource that counts its reads, and blocks them until the test lets
+     * them through
+     */
+    @Path("/gated")
+    public static class GatedResource {
+
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @GET
+        @Produces("text/plain")
+        public String get() throws InterruptedException {
+            this.proceed.await();
+            return "read " + this.reads.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * Resource that tags its entity with a version, and only produces the
+     * entity when the caller's copy is out of date
+     */
+    @Path("/versioned")
+    public static class VersionedResource {
+
+        final AtomicInteger reads = new AtomicInteger();
+
+        @GET
+        @Produces("text/plain")
+        public Response get(@Context Request request) {
+            EntityTag tag = new EntityTag("v1");
+            Response.ResponseBuilder notModified =
+                    request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+            return Response.ok("read " + this.reads.incrementAndGet())
+                    .tag(tag)
+                    .build();
+        }
+
+    }
+
+    /**
+     * Resource that echoes the request body, once the test lets it
+     */
+    @Path("/upload")
+    public static class UploadResource {
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @POST
+        @Produces("application/octet-stream")
+        public byte [] upload(InputStream body) throws IOException {
+            awaitQuietly(this.proceed);
+            return ByteStreams.toByteArray(body);
+        }
+
+    }
+
+    /**
+     * Resource that suspends every request and leaves it to the test
+     * to resume it
+     */
+    @Path("/suspend")
+    public static class SuspendingResource {
+
+        private final CountDownLatch suspended = new CountDownLatch(1);
+        private volatile AsyncResponse asyncResponse;
+
+        @GET
+        @Produces("text/plain")
+        public void suspend(@Suspended AsyncResponse response) {
+            this.asyncResponse = response;
+            this.suspended.countDown();
+        }
+
+        @GET
+        @Path("/thread")
+        @Produces("text/plain")
+        public String thread() {
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @Path("/timeout")
+        @Produces("text/plain")
+        public void timeout(@Suspended AsyncResponse response) {
+            this.asyncResponse = response;
+            response.setTimeout(10, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
 }
@@ -0,0 +1,141 @@
+package com.opower.finagle.resteasy.server;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.opower.finagle.resteasy.client.ResteasyClientBuilder;
+import com.twitter.finagle.builder.Server;
+import com.twitter.finagle.builder.ServerBuilder;
+import com.twitter.util.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for request bodies streamed into a real server
+ *
+ * @author ed.peters
+ */
+public class TestStreamingHttpServerCodec {
+
+    private static final int MEMORY_LIMIT = 1024;
+    private static final int BODY_SIZE = 50000;
+
+    private File directory;
+    private UploadResource resource;
+    private Server server;
+    private int port;
+
+    @Before
+    public void startServer() {
+        this.directory = Files.createTempDir();
+        this.resource = new UploadResource(this.directory);
+        this.server = ServerBuilder.safeBuild(
+                ResteasyServiceBuilder.get()
+                        .withEndpoint(this.resource)
+                        .withRequestBodySpooling(MEMORY_LIMIT, this.directory)
+                        .build(),
+                ServerBuilder.get()
+                        .codec(ResteasyServiceBuilder.streamingCodec())
+                        .bindTo(new InetSocketAddress("localhost", 0))
+                        .name("TestStreamingHttpServerCodec"));
+        this.port = ((InetSocketAddress) this.server.localAddress()).getPort();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        this.server.close(Duration.zero());
+        awaitSpoolDeleted();
+        this.directory.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void testChunkedUploadSpooled() throws Exception {
+        UploadClient client = ResteasyClientBuilder.get()
+                .withStreamingHttp(true)
+                .withStreamingThreshold(MEMORY_LIMIT)
+                .withHttpClient("localhost", this.port)
+                .build(UploadClient.class);
+        assertEquals("wrong size received", Integer.toString(BODY_SIZE),
+                client.upload(newBody(BODY_SIZE)));
+        assertEquals("body not spooled", 1, this.resource.spoolFiles);
+        awaitSpoolDeleted();
+        assertEquals("wrong size received for a small body", "10",
+                client.upload(newBody(10)));
+        assertEquals("small body spooled", 0, this.resource.spoolFiles);
+    }
+
+    @Test(timeout = 10000)
+    public void testLongUploadSpooled() {
+        // not chunked, but longer than the codec's chunks
+        UploadClient client = ResteasyClientBuilder.get()
+                .withHttpClient("localhost", this.port)
+                .build(UploadClient.class);
+        assertEquals("wrong size received", Integer.toString(BODY_SIZE),
+                client.upload(newBody(BODY_SIZE)));
+        assertEquals("body not spooled", 1, this.resource.spoolFiles);
+    }
+
+    /*
+     * Spool files are deleted off the worker thread, once the resource
+     * has returned
+     */
+    private void awaitSpoolDeleted() throws InterruptedException {
+        while (this.directory.list().length > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] newBody(int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'x');
+        return body;
+    }
+
+    /**
+     * Client for {@link UploadResource}
+     */
+    @Path("/upload")
+    public interface UploadClient {
+
+        @POST
+        @Consumes("application/octet-stream")
+        @Produces("text/plain")
+        String upload(byte[] body);
+    }
+
+    /**
+     * Resource that reads each upload as a stream, answers with its size,
+     * and notes whether part of it was spooled to disk
+     */
+    @Path("/upload")
+    public static class UploadResource {
+
+        private final File directory;
+        private volatile int spoolFiles;
+
+        public UploadResource(File directory) {
+            this.directory = directory;
+        }
+
+        @POST
+        @Consumes("application/octet-stream")
+        @Produces("text/plain")
+        public String upload(InputStream body) throws IOException {
+            long size = ByteStreams.copy(body, ByteStreams.nullOutputStream());
+            this.spoolFiles = this.directory.list().length;
+            return Long.toString(size);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for entity tag helpers
+ *
+ * @author ed.peters
+ */
+public class TestEntityTags {
+
+    @Test
+    public void testFromHash() throws Exception {
+        HashCode hash = Hashing.murmur3_128().hashInt(1);
+        assertEquals("wrong tag", "\"" + hash + "\"", EntityTags.fromHash(hash));
+    }
+
+    @Test
+    public void testWithCoding() throws Exception {
+        assertEquals("wrong tag", "\"abc-gzip\"",
+                EntityTags.withCoding("\"abc\"", ContentCoding.GZIP));
+        assertEquals("wrong weak tag", "W/\"abc-deflate\"",
+                EntityTags.withCoding("W/\"abc\"", ContentCoding.DEFLATE));
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        assertTrue("exact", EntityTags.matches("\"abc\"", "\"abc\""));
+        assertTrue("list", EntityTags.matches("\"x\", \"abc\"", "\"abc\""));
+        assertTrue("wildcard", EntityTags.matches("*", "\"abc\""));
+        assertTrue("weak", EntityTags.matches("W/\"abc\"", "\"abc\""));
+        assertTrue("coding", EntityTags.matches("\"abc-gzip\"", "\"abc\""));
+        assertTrue("coding", EntityTags.matches("\"abc\"", "\"abc-deflate\""));
+        assertFalse("different", EntityTags.matches("\"abd\"", "\"abc\""));
+        assertFalse("no header", EntityTags.matches(null, "\"abc\""));
+        assertFalse("no tag", EntityTags.matches("*", null));
+    }
+}
@@ -0,0 +1,184 @@
+package com.opower.finagle.resteasy.util;
+
+import com.google.common.collect.ImmutableList;
+import org.codehaus.jackson.map.annotate.JsonView;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.resteasy.util.CaseInsensitiveMap;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the cached, ChannelBuffer-aware JSON provider
+ *
+ * @author ed.peters
+ */
+public class TestJacksonChannelBufferProvider {
+
+    private static final Annotation [] NONE = new Annotation[0];
+
+    private final JacksonChannelBufferProvider provider =
+            new JacksonChannelBufferProvider();
+
+    @Test
+    public void testRoundTripThroughChannelBuffer() throws Exception {
+        ChannelBuffer buffer = write(new Bean("a", 1), Bean.class, Bean.class, NONE);
+        assertEquals("wrong JSON", "{\"name\":\"a\",\"count\":1}",
+                buffer.toString(UTF_8));
+        ContentInputStream stream = new ContentInputStream(buffer);
+        Bean bean = (Bean) read(Bean.class, Bean.class, stream);
+        assertEquals("wrong name", "a", bean.getName());
+        assertEquals("wrong count", 1, bean.getCount());
+        assertEquals("content not consumed", 0, stream.available());
+    }
+
+    @Test
+    public void testGenericTypes() throws Exception {
+        Type listType = Holder.class.getMethod("beans").getGenericReturnType();
+        List<Bean> beans = ImmutableList.of(new Bean("a", 1), new Bean("b", 2));
+        ChannelBuffer buffer = write(beans, List.class, listType, NONE);
+        // the same type, read twice, once in place and once from a stream
+        for (int i = 0; i < 2; i++) {
+            List<?> read = (List<?>) read(List.class, listType, i == 0
+                    ? new ContentInputStream(buffer.duplicate())
+                    : new ByteArrayInputStream(buffer.array(),
+                            buffer.arrayOffset(), buffer.readableBytes()));
+            assertEquals("wrong size", 2, read.size());
+            assertEquals("wrong element type", Bean.class, read.get(1).getClass());
+            assertEquals("wrong element", "b", ((Bean) read.get(1)).getName());
+        }
+    }
+
+    @Test
+    public void testJsonView() throws Exception {
+        Annotation [] annotations =
+                Holder.class.getMethod("summary").getAnnotations();
+        ChannelBuffer buffer = write(new Bean("a", 1), Bean.class, Bean.class,
+                annotations);
+        assertEquals("view ignored", "{\"name\":\"a\"}", buffer.toString(UTF_8));
+    }
+
+    @Test
+    public void testUntouchables() throws Exception {
+        assertFalse("String entity handled",
+                provider.isWriteable(String.class, String.class, NONE,
+                        APPLICATION_JSON_TYPE));
+        assertFalse("InputStream entity handled",
+                provider.isReadable(ByteArrayInputStream.class,
+                        ByteArrayInputStream.class, NONE, APPLICATION_JSON_TYPE));
+        assertFalse("XML handled",
+                provider.isWriteable(Bean.class, Bean.class, NONE,
+                        MediaType.APPLICATION_XML_TYPE));
+        assertTrue("+json not handled",
+                provider.isWriteable(Bean.class, Bean.class, NONE,
+                        new MediaType("application", "vnd.foo+json")));
+    }
+
+    @Test
+    public void testDefaultFactoryPrefersProvider() throws Exception {
+        assertEquals("wrong JSON writer", JacksonChannelBufferProvider.class,
+                ServiceUtils.getDefaultProviderFactory()
+                        .getMessageBodyWriter(Bean.class, Bean.class, NONE,
+                                APPLICATION_JSON_TYPE)
+                        .getClass());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChannelBuffer write(Object value,
+                                Class<?> type,
+                                Type genericType,
+                                Annotation [] annotations) throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        provider.writeTo(value, type, genericType, annotations,
+                APPLICATION_JSON_TYPE, new CaseInsensitiveMap<Object>(),
+                new ChannelBufferOutputStream(buffer));
+        return buffer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object read(Class<?> type,
+                        Type genericType,
+                        java.io.InputStream stream) throws Exception {
+        return provider.readFrom((Class<Object>) type, genericType, NONE,
+                APPLICATION_JSON_TYPE, new CaseInsensitiveMap<String>(), stream);
+    }
+
+    /**
+     * Views used in the tests
+     */
+    public static class Views {
+        /**
+         * Just the names
+         */
+        public static class Summary {
+        }
+
+        /**
+         * Everything
+         */
+        public static class Detail extends Summary {
+        }
+    }
+
+    /**
+     * Simple entity
+     */
+    public static class Bean {
+
+        private String name;
+        private int count;
+
+        public Bean() {
+        }
+
+        public Bean(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @JsonView(Views.Summary.class)
+        public String getName() {
+            return this.name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        @JsonView(Views.Detail.class)
+        public int getCount() {
+            return this.count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+    }
+
+    /**
+     * Source of generic type information and annotations
+     */
+    public static class Holder {
+
+        public List<Bean> beans() {
+            return null;
+        }
+
+        @JsonView(Views.Summary.class)
+        public Bean summary() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.opower.finagle.resteasy.util;
+
+import com.opower.finagle.resteasy.example.Model;
+import org.codehaus.jackson.JsonParseException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
+import static org.jboss.netty.util.CharsetUtil.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for element-by-element reading of JSON arrays
+ *
+ * @author ed.peters
+ */
+public class TestJsonArrayIterator {
+
+    private final JacksonChannelBufferProvider provider =
+            new JacksonChannelBufferProvider();
+
+    @Test
+    public void testReadsElements() throws Exception {
+        TrackedStream stream =
+                new TrackedStream("[{\"name\":\"a\"}, {\"name\":\"b\"}]");
+        JsonArrayIterator<Model> models = read(stream);
+        assertTrue("no first element", models.hasNext());
+        assertEquals("wrong first element", "a", models.next().getName());
+        assertFalse("closed early", stream.closed);
+        assertEquals("wrong second element", "b", models.next().getName());
+        assertFalse("too many elements", models.hasNext());
+        assertTrue("not closed at the end", stream.closed);
+    }
+
+    @Test
+    public void testEmptyArray() throws Exception {
+        TrackedStream stream = new TrackedStream(" [ ] ");
+        assertFalse("element in empty array", read(stream).hasNext());
+        assertTrue("not closed at the end", stream.closed);
+    }
+
+    @Test
+    public void testCloseEarly() throws Exception {
+        TrackedStream stream =
+                new TrackedStream("[{\"name\":\"a\"}, {\"name\":\"b\"}]");
+        JsonArrayIterator<Model> models = read(stream);
+        models.next();
+        models.close();
+        assertTrue("not closed", stream.closed);
+        assertFalse("element after close", models.hasNext());
+    }
+
+    @Test
+    public void testNotAnArray() throws Exception {
+        TrackedStream stream = new TrackedStream("{\"name\":\"a\"}");
+        try {
+            read(stream);
+            fail("object read as an array");
+        }
+        catch (JsonParseException e) {
+            assertTrue("not closed on failure", stream.closed);
+        }
+    }
+
+    @Test
+    public void testTruncatedArray() throws Exception {
+        TrackedStream stream = new TrackedStream("[{\"name\":\"a\"},");
+        JsonArrayIterator<Model> models = read(stream);
+        models.next();
+        try {
+            models.hasNext();
+            fail("truncated array not noticed");
+        }
+        catch (RuntimeException e) {
+            assertTrue("wrong cause " + e.getCause(),
+                    e.getCause() instanceof JsonParseException);
+            assertTrue("not closed on failure", stream.closed);
+        }
+    }
+
+    private JsonArrayIterator<Model> read(TrackedStream stream)
+            throws IOException {
+        return this.provider.readArray(Model.class, APPLICATION_JSON_TYPE,
+                stream);
+    }
+
+    /**
+     * Content that remembers whether it was closed
+     */
+    private static class TrackedStream extends ByteArrayInputStream {
+
+        private boolean closed;
+
+        TrackedStream(String json) {
+            super(json.getBytes(UTF_8));
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.opower.finagle.resteasy.util;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for parsing of inbound request URIs
+ *
+ * @author ed.peters
+ */
+public class TestRequestUri {
+
+    @Test
+    public void testPathOnly() throws Exception {
+        RequestUri uri = RequestUri.parse("/a/b", null, false);
+        assertEquals("localhost", uri.getHost());
+        assertEquals(80, uri.getPort());
+        assertEquals("/a/b", uri.getPath());
+        assertNull("unexpected query", uri.getRawQuery());
+        assertEquals(new URI("http://localhost:80/a/b"), uri.getAbsoluteUri());
+    }
+
+    @Test
+    public void testPathAndQuery() throws Exception {
+        RequestUri uri = RequestUri.parse("/a?k=%3F&k=v#frag", "foo:8080", true);
+        assertEquals("foo", uri.getHost());
+        assertEquals(8080, uri.getPort());
+        assertEquals("/a", uri.getPath());
+        assertEquals("k=%3F&k=v", uri.getRawQuery());
+        assertEquals(new URI("https://foo:8080/a?k=%3F&k=v"),
+                uri.getAbsoluteUri());
+    }
+
+    @Test
+    public void testEmptyPath() throws Exception {
+        RequestUri uri = RequestUri.parse("?k=v", "foo", false);
+        assertEquals("/", uri.getPath());
+        assertEquals("k=v", uri.getRawQuery());
+        assertEquals(80, uri.getPort());
+    }
+
+    @Test
+    public void testAbsoluteForm() throws Exception {
+        RequestUri uri = RequestUri.parse("http://bar:81/x?y", "foo:8080", false);
+        assertEquals("bar", uri.getHost());
+        assertEquals(81, uri.getPort());
+        assertEquals("/x", uri.getPath());
+        assertEquals("y", uri.getRawQuery());
+    }
+
+    @Test
+    public void testIpv6Host() throws Exception {
+        RequestUri uri = RequestUri.parse("/", "[::1]:8080", false);
+        assertEquals("[::1]", uri.getHost());
+        assertEquals(8080, uri.getPort());
+        uri = RequestUri.parse("/", "[::1]", false);
+        assertEquals("[::1]", uri.getHost());
+        assertEquals(80, uri.getPort());
+    }
+
+    @Test
+    public void testBadPort() throws Exception {
+        try {
+            RequestUri.parse("/", "foo:bar", false);
+            fail("bad port accepted");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIllegalCharactersAreEscaped() throws Exception {
+        RequestUri uri = RequestUri.parse("/a b", null, false);
+        assertEquals("/a%20b", uri.getAbsoluteUri().getRawPath());
+    }
+
+}
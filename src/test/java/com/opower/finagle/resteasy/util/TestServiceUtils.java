@@ -2,10 +2,18 @@ package com.opower.finagle.resteasy.util;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.opower.finagle.resteasy.example.ExampleService;
+import com.opower.finagle.resteasy.example.Model;
 import com.twitter.finagle.http.Request;
 import com.twitter.finagle.http.Request.MockRequest;
 import org.junit.Test;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriInfo;
@@ -177,6 +185,19 @@ public class TestServiceUtils {
                 new String[]{"a"});
     }
 
+    @Test
+    public void testPrepareEntityCodecs() throws Exception {
+        // the model is JSON, the greeting is a plain string
+        assertEquals("wrong count", 1, ServiceUtils.prepareEntityCodecs(
+                ServiceUtils.getDefaultProviderFactory(),
+                ExampleService.class));
+        // the list, both bodies of the update and the body of the delete,
+        // but not the XML or the (missing) response to the delete
+        assertEquals("wrong count", 4, ServiceUtils.prepareEntityCodecs(
+                ServiceUtils.getDefaultProviderFactory(),
+                ModelResource.class));
+    }
+
     protected void assertIsMutable(String key, List<String> list) {
         assertNotNull(key + " is null", list);
         try {
@@ -186,4 +207,28 @@ public class TestServiceUtils {
             fail(key + " is not mutable: " + e.toString());
         }
     }
+
+    /**
+     * Resource with a mix of entity types
+     */
+    @Path("/models")
+    public interface ModelResource {
+
+        @GET
+        @Produces("application/json")
+        List<Model> list();
+
+        @GET
+        @Path("/xml")
+        @Produces("application/xml")
+        byte [] listXml();
+
+        @PUT
+        @Consumes("application/json")
+        Model update(Model model);
+
+        @DELETE
+        @Consumes("application/json")
+        void delete(Model model);
+    }
 }
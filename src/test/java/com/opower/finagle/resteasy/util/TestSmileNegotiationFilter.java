@@ -0,0 +1,49 @@
+package com.opower.finagle.resteasy.util;
+
+import org.jboss.resteasy.util.MediaTypeHelper;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for choosing between JSON and Smile
+ *
+ * @author ed.peters
+ */
+public class TestSmileNegotiationFilter {
+
+    @Test
+    public void testSmilePreferred() throws Exception {
+        assertTrue("smile not preferred", prefersSmile(
+                "application/x-jackson-smile, application/json"));
+        assertTrue("smile not preferred", prefersSmile(
+                "application/json;q=0.5, application/x-jackson-smile"));
+        assertTrue("smile not preferred", prefersSmile(
+                "application/x-jackson-smile"));
+    }
+
+    @Test
+    public void testJsonPreferred() throws Exception {
+        assertFalse("smile preferred", prefersSmile("application/json"));
+        assertFalse("smile preferred", prefersSmile("*/*"));
+        assertFalse("smile preferred", prefersSmile(
+                "application/x-jackson-smile;q=0.5, application/json"));
+        assertFalse("smile preferred", prefersSmile(
+                "application/x-jackson-smile;q=0, */*"));
+    }
+
+    @Test
+    public void testWildcardsIgnored() throws Exception {
+        assertTrue("smile not preferred", prefersSmile(
+                "application/x-jackson-smile;q=0.5, application/*, */*"));
+    }
+
+    private static boolean prefersSmile(String accept) {
+        List<MediaType> types = MediaTypeHelper.parseHeader(accept);
+        return SmileNegotiationFilter.prefersSmile(types);
+    }
+}